@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the heap a bus retains for each registered listener, reported as the {@code retainedBytesPerListener}
+ * secondary result. The listeners themselves are allocated before the baseline is taken, so only the bus's own
+ * bookkeeping is counted.
+ *
+ * <p>Run with {@code java -jar otto-benchmarks/target/benchmarks.jar FootprintBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 1)
+public class FootprintBenchmark {
+  private static final int LISTENER_COUNT = 20000;
+
+  @Param({ "false", "true" })
+  boolean weak;
+
+  private Listener[] listeners;
+
+  @Setup(Level.Iteration) public void setUp() {
+    listeners = new Listener[LISTENER_COUNT];
+    for (int i = 0; i < LISTENER_COUNT; i++) {
+      listeners[i] = new Listener();
+    }
+  }
+
+  @Benchmark public Bus register(Footprint footprint) throws InterruptedException {
+    Bus bus = new Bus(ThreadEnforcer.ANY, "benchmark");
+    long before = usedHeap();
+    for (Listener listener : listeners) {
+      if (weak) {
+        bus.registerWeakly(listener);
+      } else {
+        bus.register(listener);
+      }
+    }
+    // Include the dispatch table entries, as an application posting these types would have.
+    bus.post(new Event());
+    bus.post(new OtherEvent());
+    footprint.retainedBytesPerListener = (usedHeap() - before) / LISTENER_COUNT;
+    return bus;
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 4; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /** Retained heap reported alongside the registration time. JMH sums it over iterations, hence a single one. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Footprint {
+    public long retainedBytesPerListener;
+
+    @Setup(Level.Iteration) public void reset() {
+      retainedBytesPerListener = 0;
+    }
+  }
+
+  /** Event type the listeners subscribe to. */
+  public static final class Event {
+  }
+
+  /** Second event type the listeners subscribe to. */
+  public static final class OtherEvent {
+  }
+
+  /** Counts the events it receives. */
+  public static final class Listener {
+    private int count;
+
+    @Subscribe public void onEvent(Event event) {
+      count++;
+    }
+
+    @Subscribe public void onOtherEvent(OtherEvent event) {
+      count++;
+    }
+  }
+}
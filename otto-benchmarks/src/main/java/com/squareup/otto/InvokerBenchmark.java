@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares posting through handlers called by reflection with handlers bound to spun lambdas.
+ *
+ * <p>Run with {@code java -jar otto-benchmarks/target/benchmarks.jar InvokerBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class InvokerBenchmark {
+
+  /** How each benchmarked handler method is called. */
+  public enum Engine {
+    REFLECTIVE {
+      @Override Invoker bind(Method method) {
+        return Invoker.reflective(method);
+      }
+    },
+    LAMBDA {
+      @Override Invoker bind(Method method) {
+        return Invoker.forMethod(method);
+      }
+    };
+
+    abstract Invoker bind(Method method);
+  }
+
+  @Param({ "1", "10", "100" })
+  int subscribers;
+
+  @Param
+  Engine engine;
+
+  private final Event event = new Event();
+  private Bus bus;
+
+  @Setup public void setUp() throws NoSuchMethodException {
+    Invoker invoker = engine.bind(Listener.class.getMethod("onEvent", Event.class));
+    final ListenerTemplate template = new ListenerTemplate(Collections.<Class<?>>singletonList(Event.class),
+        Collections.singletonList(new SubscriberMethod(invoker, false, DeliveryMode.POSTING, null)),
+        Collections.<Class<?>>emptyList(), Collections.<Invoker>emptyList());
+    bus = new Bus(ThreadEnforcer.ANY, "benchmark", new HandlerFinder() {
+      @Override public ListenerTemplate findTemplate(Class<?> listenerClass) {
+        return template;
+      }
+    });
+    for (int i = 0; i < subscribers; i++) {
+      bus.register(new Listener());
+    }
+  }
+
+  @Benchmark public void post() {
+    bus.post(event);
+  }
+
+  /** Event type posted by the benchmark. */
+  public static final class Event {
+  }
+
+  /** Counts the events it receives. */
+  public static final class Listener {
+    private int count;
+
+    @Subscribe public void onEvent(Event event) {
+      count++;
+    }
+  }
+}
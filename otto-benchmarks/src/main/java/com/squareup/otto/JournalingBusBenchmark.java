@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link JournalingBus#post(Object)} of a small event under each {@link ForcePolicy}, against a plain
+ * {@link Bus}. Segments are written to a temporary directory which is deleted afterwards.
+ *
+ * <p>Run with {@code java -jar otto-benchmarks/target/benchmarks.jar JournalingBusBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JournalingBusBenchmark {
+
+  /** Names a force policy. */
+  public enum Policy {
+    UNJOURNALED(null),
+    NONE(ForcePolicy.NONE),
+    EVERY_1000_EVENTS(ForcePolicy.everyEvents(1000)),
+    EVERY_10_MS(ForcePolicy.every(10, TimeUnit.MILLISECONDS));
+
+    final ForcePolicy forcePolicy;
+
+    Policy(ForcePolicy forcePolicy) {
+      this.forcePolicy = forcePolicy;
+    }
+  }
+
+  @Param
+  Policy policy;
+
+  private final Event event = new Event();
+  private File directory;
+  private Bus bus;
+
+  @Setup public void setUp() throws IOException {
+    if (policy.forcePolicy == null) {
+      bus = new Bus(ThreadEnforcer.ANY, "benchmark");
+    } else {
+      directory = File.createTempFile("otto-journal", "");
+      if (!directory.delete()) {
+        throw new IOException("Unable to replace " + directory);
+      }
+      JournalingBus journalingBus = new JournalingBus(ThreadEnforcer.ANY, "benchmark", directory,
+          JournalingBus.DEFAULT_SEGMENT_SIZE, policy.forcePolicy);
+      journalingBus.registerCodec(Event.class, new EventCodec<Event>() {
+        @Override public void encode(Event event, ByteBuffer buffer) {
+          buffer.putLong(event.id).putLong(event.value);
+        }
+
+        @Override public Event decode(ByteBuffer buffer) {
+          Event event = new Event();
+          event.id = buffer.getLong();
+          event.value = buffer.getLong();
+          return event;
+        }
+      });
+      bus = journalingBus;
+    }
+    bus.register(new Listener());
+  }
+
+  @TearDown public void tearDown() throws IOException {
+    if (bus instanceof JournalingBus) {
+      ((JournalingBus) bus).close();
+      for (File segment : Journal.segments(directory)) {
+        segment.delete();
+      }
+      directory.delete();
+    }
+  }
+
+  @Benchmark public void post() {
+    event.id++;
+    bus.post(event);
+  }
+
+  /** Event type posted by the benchmark. */
+  public static final class Event {
+    long id;
+    long value;
+  }
+
+  /** Counts the events it receives. */
+  public static final class Listener {
+    private int count;
+
+    @Subscribe public void onEvent(Event event) {
+      count++;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Bus#post(Object)} for an event type with registered subscribers, and for one without any, which
+ * no {@link DeadEvent} handler receives either, and {@link Channel#post(Object)} for the subscribed type. Run with the {@code gc} profiler to check that the steady-state post
+ * path allocates nothing:
+ * {@code java -jar otto-benchmarks/target/benchmarks.jar PostBenchmark -prof gc}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PostBenchmark {
+
+  @Param({ "1", "10" })
+  int subscribers;
+
+  private final Event event = new Event();
+  private final UnhandledEvent unhandledEvent = new UnhandledEvent();
+  private Bus bus;
+  private Channel<Event> channel;
+
+  @Setup public void setUp() {
+    bus = new Bus(ThreadEnforcer.ANY, "benchmark");
+    for (int i = 0; i < subscribers; i++) {
+      bus.register(new Listener());
+    }
+    channel = bus.channel(Event.class);
+  }
+
+  @Benchmark public void post() {
+    bus.post(event);
+  }
+
+  @Benchmark public void postUnhandled() {
+    bus.post(unhandledEvent);
+  }
+
+  @Benchmark public void postChannel() {
+    channel.post(event);
+  }
+
+  /** Event type posted by the benchmark. */
+  public static final class Event {
+  }
+
+  /** Event type nothing subscribes to. */
+  public static final class UnhandledEvent {
+  }
+
+  /** Counts the events it receives. */
+  public static final class Listener {
+    private int count;
+
+    @Subscribe public void onEvent(Event event) {
+      count++;
+    }
+  }
+}
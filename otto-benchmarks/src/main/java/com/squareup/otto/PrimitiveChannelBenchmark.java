@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares posting {@code long} values through a {@link LongChannel} with posting them boxed through
+ * {@link Bus#post(Object)}, to the same {@code long} subscribers. Values are outside the {@link Long#valueOf(long)}
+ * cache, so every boxed post allocates. Run with the {@code gc} profiler to see the allocation per post:
+ * {@code java -jar otto-benchmarks/target/benchmarks.jar PrimitiveChannelBenchmark -prof gc}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PrimitiveChannelBenchmark {
+
+  @Param({ "1", "10" })
+  int subscribers;
+
+  private Bus bus;
+  private LongChannel channel;
+  private long next = 1 << 20;
+
+  @Setup public void setUp() {
+    bus = new Bus(ThreadEnforcer.ANY, "benchmark");
+    for (int i = 0; i < subscribers; i++) {
+      bus.register(new Listener());
+    }
+    channel = bus.longChannel();
+  }
+
+  @Benchmark public void longChannel() {
+    channel.post(next++);
+  }
+
+  @Benchmark public void boxedLong() {
+    bus.post(Long.valueOf(next++));
+  }
+
+  /** Sums the values it receives. */
+  public static final class Listener {
+    private long sum;
+
+    @Subscribe public void onValue(long value) {
+      sum += value;
+    }
+  }
+}
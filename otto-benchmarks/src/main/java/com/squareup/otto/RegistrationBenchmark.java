@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures registering, posting to and then unregistering many listeners of the same event type, either through
+ * {@link Bus#unregister(Object)} or by cancelling their {@link Registration}s.
+ *
+ * <p>Run with {@code java -jar otto-benchmarks/target/benchmarks.jar RegistrationBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class RegistrationBenchmark {
+
+  @Param({ "1000", "20000" })
+  int listenerCount;
+
+  private Listener[] listeners;
+  private Bus bus;
+
+  @Setup(Level.Invocation) public void setUp() {
+    bus = new Bus(ThreadEnforcer.ANY, "benchmark");
+    listeners = new Listener[listenerCount];
+    for (int i = 0; i < listenerCount; i++) {
+      listeners[i] = new Listener();
+    }
+    // Cache the dispatch table entry, as an application which already posts this type would have.
+    bus.post(new Event());
+  }
+
+  @Benchmark public Bus registerPostUnregister() {
+    for (Listener listener : listeners) {
+      bus.register(listener);
+    }
+    bus.post(new Event());
+    for (Listener listener : listeners) {
+      bus.unregister(listener);
+    }
+    return bus;
+  }
+
+  @Benchmark public Bus registerPostCancel() {
+    Registration[] registrations = new Registration[listeners.length];
+    for (int i = 0; i < listeners.length; i++) {
+      registrations[i] = bus.register(listeners[i]);
+    }
+    bus.post(new Event());
+    for (Registration registration : registrations) {
+      registration.cancel();
+    }
+    return bus;
+  }
+
+  /** Event type the listeners subscribe to. */
+  public static final class Event {
+  }
+
+  /** Counts the events it receives. */
+  public static final class Listener {
+    private int count;
+
+    @Subscribe public void onEvent(Event event) {
+      count++;
+    }
+  }
+}
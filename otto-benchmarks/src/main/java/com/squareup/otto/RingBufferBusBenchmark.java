@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures throughput of several threads posting into one {@link RingBufferBus}.
+ *
+ * <p>Run with {@code java -jar otto-benchmarks/target/benchmarks.jar RingBufferBusBenchmark -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RingBufferBusBenchmark {
+
+  /** Names one of the {@link WaitStrategy} constants. */
+  public enum Strategy {
+    BUSY_SPIN(WaitStrategy.BUSY_SPIN),
+    YIELD(WaitStrategy.YIELD),
+    PARK(WaitStrategy.PARK);
+
+    final WaitStrategy waitStrategy;
+
+    Strategy(WaitStrategy waitStrategy) {
+      this.waitStrategy = waitStrategy;
+    }
+  }
+
+  @Param
+  Strategy strategy;
+
+  private final Event event = new Event();
+  private RingBufferBus bus;
+
+  @Setup public void setUp() {
+    bus = new RingBufferBus("benchmark", 1 << 16, 1, strategy.waitStrategy);
+    bus.register(new Listener());
+  }
+
+  @TearDown public void tearDown() {
+    bus.shutdown();
+  }
+
+  @Benchmark public void post() {
+    bus.post(event);
+  }
+
+  /** Event type posted by the benchmark. */
+  public static final class Event {
+  }
+
+  /** Counts the events it receives. */
+  public static final class Listener {
+    private int count;
+
+    @Subscribe public void onEvent(Event event) {
+      count++;
+    }
+  }
+}
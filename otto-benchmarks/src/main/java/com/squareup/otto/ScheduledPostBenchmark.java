@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures scheduling a timeout event and cancelling it again while many other timeouts are pending, as with
+ * {@link Bus#postDelayed} and with a {@link ScheduledThreadPoolExecutor} which posts the event when it runs.
+ *
+ * <p>Run with {@code java -jar otto-benchmarks/target/benchmarks.jar ScheduledPostBenchmark -prof gc}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ScheduledPostBenchmark {
+  private static final long DELAY_SECONDS = 3600;
+
+  @Param({ "100000" })
+  public int pending;
+
+  private final Object event = new Object();
+  private final Bus bus = new Bus(ThreadEnforcer.ANY, "timeouts");
+  private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+  private final List<ScheduledPost> posts = new ArrayList<ScheduledPost>();
+  private final List<ScheduledFuture<?>> futures = new ArrayList<ScheduledFuture<?>>();
+  private final Runnable postEvent = new Runnable() {
+    @Override public void run() {
+      bus.post(event);
+    }
+  };
+
+  @Setup public void setUp() {
+    executor.setRemoveOnCancelPolicy(true);
+    for (int i = 0; i < pending; i++) {
+      // Spread over the hour, so that the pending timeouts fill many slots of the wheel and much of the heap.
+      long delay = DELAY_SECONDS * 1000 + i;
+      posts.add(bus.postDelayed(event, delay, TimeUnit.MILLISECONDS));
+      futures.add(executor.schedule(postEvent, delay, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  @TearDown public void tearDown() {
+    for (ScheduledPost post : posts) {
+      post.cancel();
+    }
+    executor.shutdownNow();
+  }
+
+  @Benchmark public boolean postDelayedAndCancel() {
+    return bus.postDelayed(event, DELAY_SECONDS, TimeUnit.SECONDS).cancel();
+  }
+
+  @Benchmark public boolean scheduleAndCancel() {
+    return executor.schedule(postEvent, DELAY_SECONDS, TimeUnit.SECONDS).cancel(false);
+  }
+}
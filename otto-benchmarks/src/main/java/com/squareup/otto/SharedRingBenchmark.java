@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a small event going through a {@link SharedRingWriter} and a {@link SharedRingReader} on one thread:
+ * posting it to the writer's bus, then polling the ring so the reader posts it to its own bus. The ring is a temporary
+ * file which is deleted afterwards.
+ *
+ * <p>Run with {@code java -jar otto-benchmarks/target/benchmarks.jar SharedRingBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SharedRingBenchmark {
+  private static final EventCodec<Event> CODEC = new EventCodec<Event>() {
+    @Override public void encode(Event event, ByteBuffer buffer) {
+      buffer.putLong(event.id).putLong(event.value);
+    }
+
+    @Override public Event decode(ByteBuffer buffer) {
+      Event event = new Event();
+      event.id = buffer.getLong();
+      event.value = buffer.getLong();
+      return event;
+    }
+  };
+
+  private final Event event = new Event();
+  private final Bus writerBus = new Bus(ThreadEnforcer.ANY, "writer");
+  private final Bus readerBus = new Bus(ThreadEnforcer.ANY, "reader");
+  private File file;
+  private SharedRingWriter writer;
+  private SharedRingReader reader;
+
+  @Setup public void setUp() throws IOException {
+    file = File.createTempFile("otto-ring", "");
+    if (!file.delete()) {
+      throw new IOException("Unable to replace " + file);
+    }
+    writer = new SharedRingWriter(writerBus, file, 1 << 20);
+    writer.forward(Event.class, CODEC);
+    reader = new SharedRingReader(readerBus, file);
+    reader.receive(Event.class, CODEC);
+    readerBus.register(new Listener());
+  }
+
+  @TearDown public void tearDown() throws IOException {
+    reader.close();
+    writer.close();
+    file.delete();
+  }
+
+  @Benchmark public int postAndPoll() {
+    event.id++;
+    writerBus.post(event);
+    return reader.poll();
+  }
+
+  /** Event type posted by the benchmark. */
+  public static final class Event {
+    long id;
+    long value;
+  }
+
+  /** Counts the events it receives. */
+  public static final class Listener {
+    private int count;
+
+    @Subscribe public void onEvent(Event event) {
+      count++;
+    }
+  }
+}
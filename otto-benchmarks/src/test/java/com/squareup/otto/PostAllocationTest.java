@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs {@link PostBenchmark} and the {@link LongChannel} half of {@link PrimitiveChannelBenchmark} under the JMH GC
+ * profiler and asserts that posting allocates nothing, whether or not the event has subscribers.
+ */
+public class PostAllocationTest {
+
+  @Test public void steadyStatePostAllocatesNothing() throws Exception {
+    assertAllocatesNothing(PostBenchmark.class.getName() + ".post");
+  }
+
+  @Test public void primitiveChannelPostAllocatesNothing() throws Exception {
+    assertAllocatesNothing(PrimitiveChannelBenchmark.class.getName() + ".longChannel");
+  }
+
+  private static void assertAllocatesNothing(String benchmarks) throws Exception {
+    Options options = new OptionsBuilder()
+        .include(benchmarks)
+        .addProfiler(GCProfiler.class)
+        .warmupIterations(3)
+        .warmupTime(TimeValue.milliseconds(500))
+        .measurementIterations(3)
+        .measurementTime(TimeValue.milliseconds(500))
+        .forks(1)
+        .build();
+
+    Collection<RunResult> results = new Runner(options).run();
+    assertFalse(results.isEmpty());
+    for (RunResult result : results) {
+      Result allocation = null;
+      for (Map.Entry<String, Result> entry : result.getSecondaryResults().entrySet()) {
+        if (entry.getKey().endsWith("gc.alloc.rate.norm")) {
+          allocation = entry.getValue();
+        }
+      }
+      // JMH amortizes its own bookkeeping over all operations, which leaves a fraction of a byte per operation.
+      assertEquals(result.getParams() + " allocated bytes per post", 0L, Math.round(allocation.getScore()));
+    }
+  }
+}
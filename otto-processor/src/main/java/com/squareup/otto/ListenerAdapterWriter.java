@@ -0,0 +1,199 @@
+package com.squareup.otto;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Writes the {@link ListenerAdapter} subclass for a single listener class.
+ *
+ * <p>Listeners whose methods cannot be called from generated code (private classes, local or anonymous classes, or
+ * methods which reflection would reject at registration) are skipped and left to reflection at runtime.
+ */
+final class ListenerAdapterWriter {
+  private final ProcessingEnvironment processingEnv;
+
+  ListenerAdapterWriter(ProcessingEnvironment processingEnv) {
+    this.processingEnv = processingEnv;
+  }
+
+  /** Writes the adapter for {@code listener}, if one can be generated. */
+  void write(Element listener, List<ExecutableElement> subscribers, List<ExecutableElement> producers) {
+    if (!isAdaptable(listener, subscribers, producers)) {
+      return;
+    }
+    TypeElement type = (TypeElement) listener;
+    String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+    String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+    String adapterName = (packageName.length() == 0 ? binaryName : binaryName.substring(packageName.length() + 1))
+        + ListenerAdapter.SUFFIX;
+    String qualifiedAdapterName = packageName.length() == 0 ? adapterName : packageName + "." + adapterName;
+    String listenerName = erasure(type.asType());
+
+    try {
+      JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedAdapterName, type);
+      Writer writer = file.openWriter();
+      try {
+        writer.write(brewJava(packageName, adapterName, listenerName, subscribers, producers));
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          "Unable to write " + qualifiedAdapterName + ": " + e.getMessage(), type);
+    }
+  }
+
+  private String brewJava(String packageName, String adapterName, String listenerName,
+      List<ExecutableElement> subscribers, List<ExecutableElement> producers) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("// Generated code from Otto. Do not modify!\n");
+    if (packageName.length() != 0) {
+      builder.append("package ").append(packageName).append(";\n\n");
+    }
+    builder.append("@SuppressWarnings(\"unchecked\")\n");
+    builder.append("public final class ").append(adapterName).append(" extends com.squareup.otto.ListenerAdapter {\n");
+
+    builder.append("  public ").append(adapterName).append("() {\n");
+    builder.append("    super(").append(listenerName).append(".class);\n");
+    for (ExecutableElement subscriber : subscribers) {
+      builder.append("    subscribe(\"").append(subscriber.getSimpleName()).append("\", ")
+          .append(erasure(subscriber.getParameters().get(0).asType())).append(".class");
+      Subscribe annotation = subscriber.getAnnotation(Subscribe.class);
+      boolean rateLimited =
+          annotation != null && (annotation.debounceMillis() != 0 || annotation.throttleMillis() != 0);
+      if (annotation != null
+          && (annotation.conflate() || annotation.delivery() != DeliveryMode.POSTING || rateLimited)) {
+        builder.append(", ").append(annotation.conflate())
+            .append(", com.squareup.otto.DeliveryMode.").append(annotation.delivery().name())
+            .append(", ").append(stringLiteral(annotation.executor()));
+        if (rateLimited) {
+          builder.append(", ").append(annotation.debounceMillis()).append("L, ")
+              .append(annotation.throttleMillis()).append('L');
+        }
+      }
+      builder.append(");\n");
+    }
+    for (ExecutableElement producer : producers) {
+      builder.append("    produce(\"").append(producer.getSimpleName()).append("\", ")
+          .append(erasure(producer.getReturnType())).append(".class);\n");
+    }
+    builder.append("  }\n\n");
+
+    builder.append("  @Override protected void handleEvent(Object listener, int index, Object event)"
+        + " throws Throwable {\n");
+    builder.append("    switch (index) {\n");
+    for (int i = 0; i < subscribers.size(); i++) {
+      ExecutableElement subscriber = subscribers.get(i);
+      builder.append("      case ").append(i).append(":\n");
+      builder.append("        ").append(receiver(listenerName, subscriber)).append('.')
+          .append(subscriber.getSimpleName()).append("((")
+          .append(erasure(subscriber.getParameters().get(0).asType())).append(") event);\n");
+      builder.append("        return;\n");
+    }
+    builder.append("      default:\n");
+    builder.append("        throw new AssertionError(index);\n");
+    builder.append("    }\n");
+    builder.append("  }\n\n");
+
+    builder.append("  @Override protected Object produceEvent(Object listener, int index) throws Throwable {\n");
+    builder.append("    switch (index) {\n");
+    for (int i = 0; i < producers.size(); i++) {
+      ExecutableElement producer = producers.get(i);
+      builder.append("      case ").append(i).append(":\n");
+      builder.append("        return ").append(receiver(listenerName, producer)).append('.')
+          .append(producer.getSimpleName()).append("();\n");
+    }
+    builder.append("      default:\n");
+    builder.append("        throw new AssertionError(index);\n");
+    builder.append("    }\n");
+    builder.append("  }\n");
+
+    builder.append("}\n");
+    return builder.toString();
+  }
+
+  private static String stringLiteral(String value) {
+    StringBuilder literal = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        literal.append('\\').append(c);
+      } else if (c < ' ' || c > '~') {
+        literal.append(String.format("\\u%04x", (int) c));
+      } else {
+        literal.append(c);
+      }
+    }
+    return literal.append('"').toString();
+  }
+
+  private static String receiver(String listenerName, ExecutableElement method) {
+    if (method.getModifiers().contains(Modifier.STATIC)) {
+      return listenerName;
+    }
+    return "((" + listenerName + ") listener)";
+  }
+
+  private boolean isAdaptable(Element listener, List<ExecutableElement> subscribers,
+      List<ExecutableElement> producers) {
+    if (listener.getKind() != ElementKind.CLASS && listener.getKind() != ElementKind.ENUM) {
+      return false;
+    }
+    for (Element element = listener; element instanceof TypeElement; element = element.getEnclosingElement()) {
+      NestingKind nesting = ((TypeElement) element).getNestingKind();
+      if (element.getModifiers().contains(Modifier.PRIVATE)
+          || nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS) {
+        return false;
+      }
+    }
+    for (ExecutableElement subscriber : subscribers) {
+      if (!isConcreteEventType(subscriber.getParameters().get(0).asType())) {
+        return false;
+      }
+    }
+    Set<String> producedTypes = new HashSet<String>();
+    for (ExecutableElement producer : producers) {
+      if (!producer.getModifiers().contains(Modifier.PUBLIC) || !producer.getParameters().isEmpty()
+          || !isConcreteEventType(producer.getReturnType())
+          || !producedTypes.add(erasure(producer.getReturnType()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adapters only call methods taking non-primitive, non-interface event types. Listeners with primitive subscribers
+   * are left to reflection, which calls them without boxing.
+   */
+  private boolean isConcreteEventType(TypeMirror type) {
+    if (type.getKind() == TypeKind.ARRAY) {
+      return true;
+    }
+    if (type.getKind() != TypeKind.DECLARED && type.getKind() != TypeKind.TYPEVAR) {
+      return false;
+    }
+    Element element = processingEnv.getTypeUtils().asElement(processingEnv.getTypeUtils().erasure(type));
+    return element != null && element.getKind() != ElementKind.INTERFACE
+        && element.getKind() != ElementKind.ANNOTATION_TYPE;
+  }
+
+  private String erasure(TypeMirror type) {
+    return processingEnv.getTypeUtils().erasure(type).toString();
+  }
+}
@@ -1,5 +1,12 @@
 package com.squareup.otto;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.processing.AbstractProcessor;
@@ -18,52 +25,130 @@ import javax.lang.model.util.AbstractElementVisitor6;
 import javax.tools.Diagnostic;
 
 /**
- * Annotation processor that detects some cases of misusing Otto at compile time.
+ * Annotation processor that detects some cases of misusing Otto at compile time, and generates a
+ * {@link ListenerAdapter} for each listener class so that its methods can be called without reflection.
  *
  * @author balazsbanyai
  */
 @SupportedSourceVersion(SourceVersion.RELEASE_6)
-@SupportedAnnotationTypes({ "com.squareup.otto.Subscribe" })
+@SupportedAnnotationTypes({ "com.squareup.otto.Subscribe", "com.squareup.otto.Produce" })
 public class OttoAnnotationProcessor extends AbstractProcessor {
   private AbstractMethodVisitor[] checks = {
           new VisibilityCheckerVisitor(),
-          new ArgumentListLengthCheckerVisitor()
+          new ArgumentListLengthCheckerVisitor(),
+          new DeliveryCheckerVisitor(),
+          new RateLimitCheckerVisitor()
   };
 
   @Override public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnvironment) {
+    Map<Element, List<ExecutableElement>> subscribers = new LinkedHashMap<Element, List<ExecutableElement>>();
+    Map<Element, List<ExecutableElement>> producers = new LinkedHashMap<Element, List<ExecutableElement>>();
+    Set<Element> invalidListeners = new HashSet<Element>();
 
     for (Element element : roundEnvironment.getElementsAnnotatedWith(Subscribe.class)) {
+      boolean valid = true;
       for (AbstractMethodVisitor check : checks) {
-        element.accept(check, null);
+        valid &= element.accept(check, null);
       }
+      if (!valid) {
+        invalidListeners.add(element.getEnclosingElement());
+      }
+      add(subscribers, (ExecutableElement) element);
+    }
+    for (Element element : roundEnvironment.getElementsAnnotatedWith(Produce.class)) {
+      add(producers, (ExecutableElement) element);
+    }
+
+    Set<Element> listeners = new LinkedHashSet<Element>(subscribers.keySet());
+    listeners.addAll(producers.keySet());
+    listeners.removeAll(invalidListeners);
+    ListenerAdapterWriter writer = new ListenerAdapterWriter(processingEnv);
+    for (Element listener : listeners) {
+      writer.write(listener, methodsOf(subscribers, listener), methodsOf(producers, listener));
     }
 
     return true;
   }
 
+  private static void add(Map<Element, List<ExecutableElement>> methodsByListener, ExecutableElement method) {
+    Element listener = method.getEnclosingElement();
+    List<ExecutableElement> methods = methodsByListener.get(listener);
+    if (methods == null) {
+      methods = new ArrayList<ExecutableElement>();
+      methodsByListener.put(listener, methods);
+    }
+    methods.add(method);
+  }
+
+  private static List<ExecutableElement> methodsOf(Map<Element, List<ExecutableElement>> methodsByListener,
+      Element listener) {
+    List<ExecutableElement> methods = methodsByListener.get(listener);
+    return methods != null ? methods : Collections.<ExecutableElement>emptyList();
+  }
+
   private class ArgumentListLengthCheckerVisitor extends AbstractMethodVisitor {
 
-    @Override public Void visitExecutable(ExecutableElement element, Void aVoid) {
+    @Override public Boolean visitExecutable(ExecutableElement element, Void aVoid) {
       if (element.getParameters().size() != 1) {
         String methodName = getQualifiedMethodName(element);
         int argumentListSize = element.getParameters().size();
         String message = ErrorMessages.newInvalidArgumentListMessage(methodName, argumentListSize);
         processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message);
+        return false;
       }
-      return null;
+      return true;
     }
   }
 
   private class VisibilityCheckerVisitor extends AbstractMethodVisitor {
 
-    @Override public Void visitExecutable(ExecutableElement element, Void aVoid) {
+    @Override public Boolean visitExecutable(ExecutableElement element, Void aVoid) {
       if (!element.getModifiers().contains(Modifier.PUBLIC)) {
         String methodName = getQualifiedMethodName(element);
         String eventTypeName = element.getParameters().get(0).asType().toString();
         String message = ErrorMessages.newNotVisibleMessage(methodName, eventTypeName);
         processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message);
+        return false;
+      }
+      return true;
+    }
+  }
+
+  private class DeliveryCheckerVisitor extends AbstractMethodVisitor {
+
+    @Override public Boolean visitExecutable(ExecutableElement element, Void aVoid) {
+      Subscribe annotation = element.getAnnotation(Subscribe.class);
+      if (annotation == null) {
+        return true;
+      }
+      boolean named = annotation.executor().length() != 0;
+      if (named != (annotation.delivery() == DeliveryMode.EXECUTOR)) {
+        String methodName = getQualifiedMethodName(element);
+        String message = ErrorMessages.newInvalidDeliveryMessage(methodName, annotation.delivery().name(),
+            annotation.executor());
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message);
+        return false;
+      }
+      return true;
+    }
+  }
+
+  private class RateLimitCheckerVisitor extends AbstractMethodVisitor {
+
+    @Override public Boolean visitExecutable(ExecutableElement element, Void aVoid) {
+      Subscribe annotation = element.getAnnotation(Subscribe.class);
+      if (annotation == null) {
+        return true;
+      }
+      long debounceMillis = annotation.debounceMillis();
+      long throttleMillis = annotation.throttleMillis();
+      if (debounceMillis < 0 || throttleMillis < 0 || (debounceMillis != 0 && throttleMillis != 0)) {
+        String methodName = getQualifiedMethodName(element);
+        String message = ErrorMessages.newInvalidRateLimitMessage(methodName, debounceMillis, throttleMillis);
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message);
+        return false;
       }
-      return null;
+      return true;
     }
   }
 
@@ -74,22 +159,22 @@ public class OttoAnnotationProcessor extends AbstractProcessor {
     return className + "." + methodName;
   }
 
-  private abstract class AbstractMethodVisitor extends AbstractElementVisitor6<Void, Void> {
+  private abstract class AbstractMethodVisitor extends AbstractElementVisitor6<Boolean, Void> {
 
-    @Override public Void visitPackage(PackageElement e, Void aVoid) {
-      return null;
+    @Override public Boolean visitPackage(PackageElement e, Void aVoid) {
+      return true;
     }
 
-    @Override public Void visitType(TypeElement e, Void aVoid) {
-      return null;
+    @Override public Boolean visitType(TypeElement e, Void aVoid) {
+      return true;
     }
 
-    @Override public Void visitVariable(VariableElement e, Void aVoid) {
-      return null;
+    @Override public Boolean visitVariable(VariableElement e, Void aVoid) {
+      return true;
     }
 
-    @Override public Void visitTypeParameter(TypeParameterElement e, Void aVoid) {
-      return null;
+    @Override public Boolean visitTypeParameter(TypeParameterElement e, Void aVoid) {
+      return true;
     }
   }
 
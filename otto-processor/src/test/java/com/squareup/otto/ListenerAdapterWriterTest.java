@@ -0,0 +1,144 @@
+package com.squareup.otto;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiles listener sources with {@link OttoAnnotationProcessor} and checks the generated adapters.
+ */
+public class ListenerAdapterWriterTest {
+
+  private static final String LISTENER_SOURCE = ""
+      + "package test;\n"
+      + "import com.squareup.otto.DeliveryMode;\n"
+      + "import com.squareup.otto.Produce;\n"
+      + "import com.squareup.otto.Subscribe;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.List;\n"
+      + "public class Listener {\n"
+      + "  public final List<Object> events = new ArrayList<Object>();\n"
+      + "  @Subscribe public void onString(String event) { events.add(event); }\n"
+      + "  @Subscribe(conflate = true) public void onLong(Long event) { events.add(event); }\n"
+      + "  @Subscribe(delivery = DeliveryMode.EXECUTOR, executor = \"io\")\n"
+      + "  public void onDouble(Double event) { events.add(event); }\n"
+      + "  @Subscribe(debounceMillis = 250) public void onCharacter(Character event) { events.add(event); }\n"
+      + "  @Subscribe(throttleMillis = 100) public void onShort(Short event) { events.add(event); }\n"
+      + "  @Produce public Integer produceInteger() { return 42; }\n"
+      + "  public static class Nested {\n"
+      + "    @Subscribe public void onObject(Object event) {}\n"
+      + "  }\n"
+      + "  private static class Hidden {\n"
+      + "    @Subscribe public void onObject(Object event) {}\n"
+      + "  }\n"
+      + "  static class OnInterface {\n"
+      + "    @Subscribe public void onRunnable(Runnable event) {}\n"
+      + "  }\n"
+      + "}\n";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File sources;
+  private File classes;
+
+  @Before public void setUp() throws IOException {
+    sources = temporaryFolder.newFolder("sources");
+    classes = temporaryFolder.newFolder("classes");
+  }
+
+  @Test public void adaptersGeneratedForAccessibleListeners() throws Exception {
+    compile("test/Listener.java", LISTENER_SOURCE);
+
+    assertTrue(new File(sources, "test/Listener$$OttoAdapter.java").exists());
+    assertTrue(new File(sources, "test/Listener$Nested$$OttoAdapter.java").exists());
+    assertFalse(new File(sources, "test/Listener$Hidden$$OttoAdapter.java").exists());
+    assertFalse(new File(sources, "test/Listener$OnInterface$$OttoAdapter.java").exists());
+  }
+
+  @Test public void generatedAdapterDispatchesEvents() throws Exception {
+    compile("test/Listener.java", LISTENER_SOURCE);
+
+    ClassLoader loader = new URLClassLoader(new URL[] { classes.toURI().toURL() }, getClass().getClassLoader());
+    Class<?> listenerClass = loader.loadClass("test.Listener");
+    assertNotNull(GeneratedHandlerFinder.findAdapter(listenerClass));
+
+    Object listener = listenerClass.newInstance();
+    Bus bus = new Bus(ThreadEnforcer.ANY, "test", HandlerFinder.GENERATED);
+    bus.registerExecutor("io", new Executor() {
+      @Override public void execute(Runnable command) {
+        command.run();
+      }
+    });
+    bus.register(listener);
+    bus.post("Hello");
+    bus.post(1.5d);
+
+    assertEquals(Arrays.<Object>asList("Hello", 1.5d), listenerClass.getField("events").get(listener));
+    assertEquals(42, bus.getProducerForEventType(Integer.class).produceEvent());
+  }
+
+  @Test public void generatedAdapterKeepsSubscribeOptions() throws Exception {
+    compile("test/Listener.java", LISTENER_SOURCE);
+
+    ClassLoader loader = new URLClassLoader(new URL[] { classes.toURI().toURL() }, getClass().getClassLoader());
+    Object listener = loader.loadClass("test.Listener").newInstance();
+    ListenerTemplate template = GeneratedHandlerFinder.findTemplate(listener.getClass());
+
+    assertTrue(subscriberOf(template, Long.class).conflate);
+    assertFalse(subscriberOf(template, String.class).conflate);
+    SubscriberMethod onDouble = subscriberOf(template, Double.class);
+    assertEquals(DeliveryMode.EXECUTOR, onDouble.delivery);
+    assertEquals("io", onDouble.executor);
+    assertEquals(DeliveryMode.POSTING, subscriberOf(template, String.class).delivery);
+    assertEquals(250, subscriberOf(template, Character.class).debounceMillis);
+    assertEquals(100, subscriberOf(template, Short.class).throttleMillis);
+    assertEquals(0, subscriberOf(template, String.class).debounceMillis);
+  }
+
+  /** Returns the first subscriber method of {@code template} for {@code eventType}. */
+  private static SubscriberMethod subscriberOf(ListenerTemplate template, Class<?> eventType) {
+    int t = Arrays.asList(template.types).indexOf(eventType);
+    return template.subscribers[template.typeStarts[t]];
+  }
+
+  private void compile(String path, String source) throws Exception {
+    File file = new File(sources, path);
+    assertTrue(file.getParentFile().mkdirs());
+    Writer writer = new FileWriter(file);
+    try {
+      writer.write(source);
+    } finally {
+      writer.close();
+    }
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+    String classpath = new File(Subscribe.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    List<String> options = Arrays.asList("-classpath", classpath, "-d", classes.getPath(), "-s", sources.getPath());
+    JavaCompiler.CompilationTask task =
+        compiler.getTask(null, fileManager, null, options, null, fileManager.getJavaFileObjects(file));
+    task.setProcessors(Arrays.asList(new OttoAnnotationProcessor()));
+    assertTrue("Compilation failed.", task.call());
+    fileManager.close();
+  }
+}
@@ -27,8 +27,10 @@ import javax.tools.Diagnostic;
 import static java.util.Arrays.asList;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -74,8 +76,7 @@ public class OttoAnnotationProcessorTest {
       public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
         ElementVisitor visitor = invocationOnMock.getArgumentAt(0, ElementVisitor.class);
         Object parameter = invocationOnMock.getArguments()[1];
-        visitor.visitExecutable(executableElement, parameter);
-        return null;
+        return visitor.visitExecutable(executableElement, parameter);
       }
     });
 
@@ -155,4 +156,71 @@ public class OttoAnnotationProcessorTest {
     verifyNotVisibleMessage();
     verifyWrongArgumentListLengthMessage();
   }
+
+  @Test public void process_executorNamedWithoutExecutorDelivery_errorReported() {
+    mockSubscribeAnnotation(DeliveryMode.POSTING, "io", 0, 0);
+
+    processor.process(annotations, roundEnvironment);
+
+    String expectedMessage = ErrorMessages.newInvalidDeliveryMessage(QUALIFIED_METHOD_NAME, "POSTING", "io");
+    verify(messager).printMessage(eq(Diagnostic.Kind.ERROR), eq(expectedMessage));
+  }
+
+  @Test public void process_executorDeliveryWithoutExecutorName_errorReported() {
+    mockSubscribeAnnotation(DeliveryMode.EXECUTOR, "", 0, 0);
+
+    processor.process(annotations, roundEnvironment);
+
+    String expectedMessage = ErrorMessages.newInvalidDeliveryMessage(QUALIFIED_METHOD_NAME, "EXECUTOR", "");
+    verify(messager).printMessage(eq(Diagnostic.Kind.ERROR), eq(expectedMessage));
+  }
+
+  @Test public void process_negativeDebounce_errorReported() {
+    mockSubscribeAnnotation(DeliveryMode.POSTING, "", -1, 0);
+
+    processor.process(annotations, roundEnvironment);
+
+    String expectedMessage = ErrorMessages.newInvalidRateLimitMessage(QUALIFIED_METHOD_NAME, -1, 0);
+    verify(messager).printMessage(eq(Diagnostic.Kind.ERROR), eq(expectedMessage));
+  }
+
+  @Test public void process_negativeThrottle_errorReported() {
+    mockSubscribeAnnotation(DeliveryMode.POSTING, "", 0, -1);
+
+    processor.process(annotations, roundEnvironment);
+
+    String expectedMessage = ErrorMessages.newInvalidRateLimitMessage(QUALIFIED_METHOD_NAME, 0, -1);
+    verify(messager).printMessage(eq(Diagnostic.Kind.ERROR), eq(expectedMessage));
+  }
+
+  @Test public void process_debounceAndThrottle_errorReported() {
+    mockSubscribeAnnotation(DeliveryMode.POSTING, "", 100, 200);
+
+    processor.process(annotations, roundEnvironment);
+
+    String expectedMessage = ErrorMessages.newInvalidRateLimitMessage(QUALIFIED_METHOD_NAME, 100, 200);
+    verify(messager).printMessage(eq(Diagnostic.Kind.ERROR), eq(expectedMessage));
+  }
+
+  @Test public void process_debounceOnly_noErrorReported() {
+    mockSubscribeAnnotation(DeliveryMode.POSTING, "", 100, 0);
+
+    processor.process(annotations, roundEnvironment);
+
+    verify(messager, never()).printMessage(eq(Diagnostic.Kind.ERROR), anyString());
+  }
+
+  private void mockSubscribeAnnotation(DeliveryMode delivery, String executor, long debounceMillis,
+      long throttleMillis) {
+    VariableElement argument1 = mockMethodArgumentWithTypeName();
+    when(executableElement.getModifiers()).thenReturn(EnumSet.of(Modifier.PUBLIC));
+    when(executableElement.getParameters()).thenReturn((List) asList(argument1));
+    Subscribe annotation = mock(Subscribe.class);
+    when(annotation.delivery()).thenReturn(delivery);
+    when(annotation.executor()).thenReturn(executor);
+    when(annotation.debounceMillis()).thenReturn(debounceMillis);
+    when(annotation.throttleMillis()).thenReturn(throttleMillis);
+    when(executableElement.getAnnotation(Subscribe.class)).thenReturn(annotation);
+  }
+
 }
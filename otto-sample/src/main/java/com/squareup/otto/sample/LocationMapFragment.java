@@ -62,7 +62,7 @@ public class LocationMapFragment extends Fragment {
     return imageView;
   }
 
-  @Subscribe public void onLocationChanged(LocationChangedEvent event) {
+  @Subscribe(conflate = true) public void onLocationChanged(LocationChangedEvent event) {
     // Stop existing download, if it exists.
     if (downloadTask != null) {
       downloadTask.cancel(true);
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Ordered and atomic accesses to the memory of a direct buffer, such as a file mapped by several processes. A
+ * release store is never reordered before the memory accesses preceding it, and an acquire load never after those
+ * following it; aligned accesses are never torn. Values are in the platform's byte order.
+ *
+ * <p>{@code ByteBuffer} offers no such accesses before {@code VarHandle}s, which Otto cannot compile against, so they
+ * are made with the methods of {@code sun.misc.Unsafe} at the address held by the {@code address} field of
+ * {@code java.nio.Buffer}. Neither is a supported API, which is why the shared ring is a module of its own rather than
+ * part of Otto: a runtime which hides or lacks them fails {@link #of} with an {@link UnsupportedOperationException}
+ * naming what is missing. {@code Unsafe} is looked up by name, since it cannot be imported under Otto's rules, and its
+ * methods are bound through functional interfaces spun by {@code LambdaMetafactory} as {@link LambdaInvoker} does,
+ * making each access a plain interface call the JIT can inline.
+ */
+final class MappedAccess {
+
+  /** Functional interface implemented for loading a {@code long}. */
+  interface LongLoad {
+    long call(Object base, long offset);
+  }
+
+  /** Functional interface implemented for storing a {@code long}. */
+  interface LongStore {
+    void call(Object base, long offset, long value);
+  }
+
+  /** Functional interface implemented for loading an {@code int}. */
+  interface IntLoad {
+    int call(Object base, long offset);
+  }
+
+  /** Functional interface implemented for storing an {@code int}. */
+  interface IntStore {
+    void call(Object base, long offset, int value);
+  }
+
+  /** Functional interface implemented for a memory fence. */
+  interface Fence {
+    void call();
+  }
+
+  private static final String UNSAFE_CLASS = "sun.misc.Unsafe";
+  private static final int LONG_SIZE = 8;
+  private static final int INT_SIZE = 4;
+
+  /** The bound accesses, or {@code null} if this runtime does not offer them. */
+  private static final Bindings BINDINGS;
+  /** Why {@link #BINDINGS} could not be bound, or {@code null}. */
+  private static final Throwable UNAVAILABLE;
+
+  static {
+    Bindings bindings = null;
+    Throwable unavailable = null;
+    try {
+      bindings = bind();
+    } catch (Exception e) {
+      unavailable = e;
+    } catch (LinkageError e) {
+      unavailable = e;
+    }
+    BINDINGS = bindings;
+    UNAVAILABLE = unavailable;
+  }
+
+  private final Buffer buffer;
+  /** Address of the buffer's first byte. */
+  private final long address;
+
+  private MappedAccess(Buffer buffer, long address) {
+    this.buffer = buffer;
+    this.address = address;
+  }
+
+  /**
+   * Returns the accesses to the memory of {@code buffer}, which must be direct.
+   *
+   * @throws UnsupportedOperationException if this runtime does not offer them.
+   */
+  static MappedAccess of(ByteBuffer buffer) {
+    checkSupported();
+    if (!buffer.isDirect()) {
+      throw new IllegalArgumentException("Buffer must be direct.");
+    }
+    return new MappedAccess(buffer, BINDINGS.address(buffer));
+  }
+
+  /**
+   * Fails unless this runtime offers the accesses.
+   *
+   * @throws UnsupportedOperationException naming what is missing, with the failure to find it as its cause.
+   */
+  static void checkSupported() {
+    if (BINDINGS == null) {
+      throw new UnsupportedOperationException("Ordered access to mapped memory needs the unsupported " + UNSAFE_CLASS
+          + " and java.nio.Buffer.address, and java.lang.invoke.LambdaMetafactory, which this runtime does not provide "
+          + "or does not allow access to.", UNAVAILABLE);
+    }
+  }
+
+  /** Loads the {@code long} at {@code index}, before any access which follows. */
+  long getLongAcquire(int index) {
+    return BINDINGS.getLongVolatile.call(null, addressOf(index, LONG_SIZE));
+  }
+
+  /** Stores {@code value} at {@code index}, after every access which precedes it. */
+  void putLongRelease(int index, long value) {
+    BINDINGS.putOrderedLong.call(null, addressOf(index, LONG_SIZE), value);
+  }
+
+  /** Loads the {@code int} at {@code index}, before any access which follows. */
+  int getIntAcquire(int index) {
+    return BINDINGS.getIntVolatile.call(null, addressOf(index, INT_SIZE));
+  }
+
+  /** Stores {@code value} at {@code index}, after every access which precedes it. */
+  void putIntRelease(int index, int value) {
+    BINDINGS.putOrderedInt.call(null, addressOf(index, INT_SIZE), value);
+  }
+
+  /** Keeps the loads before it ahead of the loads and stores after it. */
+  void loadFence() {
+    BINDINGS.loadFence.call();
+  }
+
+  /** Keeps the stores before it ahead of the stores after it. */
+  void storeFence() {
+    BINDINGS.storeFence.call();
+  }
+
+  private long addressOf(int index, int size) {
+    if (index < 0 || index > buffer.capacity() - size || (index & (size - 1)) != 0) {
+      throw new IndexOutOfBoundsException("No aligned " + size + "-byte value at " + index + ".");
+    }
+    return address + index;
+  }
+
+  private static Bindings bind() throws Exception {
+    Class<?> unsafeClass = Class.forName(UNSAFE_CLASS);
+    Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+    theUnsafe.setAccessible(true);
+    Object unsafe = theUnsafe.get(null);
+    return new Bindings(unsafeClass, unsafe);
+  }
+
+  /** The accesses bound to the runtime's {@code Unsafe}. */
+  private static final class Bindings {
+    private final Object unsafe;
+    private final Method getLong;
+    private final long addressOffset;
+    final LongLoad getLongVolatile;
+    final LongStore putOrderedLong;
+    final IntLoad getIntVolatile;
+    final IntStore putOrderedInt;
+    final Fence loadFence;
+    final Fence storeFence;
+
+    Bindings(Class<?> unsafeClass, Object unsafe) throws Exception {
+      this.unsafe = unsafe;
+      getLong = unsafeClass.getMethod("getLong", Object.class, long.class);
+      addressOffset = (Long) unsafeClass.getMethod("objectFieldOffset", Field.class)
+          .invoke(unsafe, Buffer.class.getDeclaredField("address"));
+      Method metafactory = Class.forName(LambdaInvoker.METAFACTORY_CLASS).getMethod("metafactory",
+          MethodHandles.Lookup.class, String.class, MethodType.class, MethodType.class, MethodHandle.class,
+          MethodType.class);
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      getLongVolatile = (LongLoad) spin(metafactory, lookup, unsafeClass, "getLongVolatile", LongLoad.class,
+          MethodType.methodType(long.class, Object.class, long.class));
+      putOrderedLong = (LongStore) spin(metafactory, lookup, unsafeClass, "putOrderedLong", LongStore.class,
+          MethodType.methodType(void.class, Object.class, long.class, long.class));
+      getIntVolatile = (IntLoad) spin(metafactory, lookup, unsafeClass, "getIntVolatile", IntLoad.class,
+          MethodType.methodType(int.class, Object.class, long.class));
+      putOrderedInt = (IntStore) spin(metafactory, lookup, unsafeClass, "putOrderedInt", IntStore.class,
+          MethodType.methodType(void.class, Object.class, long.class, int.class));
+      loadFence = (Fence) spin(metafactory, lookup, unsafeClass, "loadFence", Fence.class,
+          MethodType.methodType(void.class));
+      storeFence = (Fence) spin(metafactory, lookup, unsafeClass, "storeFence", Fence.class,
+          MethodType.methodType(void.class));
+    }
+
+    long address(Buffer buffer) {
+      try {
+        return (Long) getLong.invoke(unsafe, buffer, addressOffset);
+      } catch (Exception e) {
+        throw new IllegalStateException("Unable to find the address of " + buffer, e);
+      }
+    }
+
+    /** Binds the {@code Unsafe} method {@code name} of {@code type} to {@code unsafe} as a {@code callType}. */
+    private Object spin(Method metafactory, MethodHandles.Lookup lookup, Class<?> unsafeClass, String name,
+        Class<?> callType, MethodType type) throws Exception {
+      MethodHandle implementation = lookup.findVirtual(unsafeClass, name, type);
+      CallSite site = (CallSite) metafactory.invoke(null, lookup, "call",
+          MethodType.methodType(callType, unsafeClass), type, implementation, type);
+      try {
+        return site.getTarget().invokeWithArguments(unsafe);
+      } catch (Exception e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
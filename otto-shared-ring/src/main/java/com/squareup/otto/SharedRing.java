@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A broadcast ring of encoded events in a memory-mapped file, shared by one {@link SharedRingWriter} and any number of
+ * {@link SharedRingReader}s in the same or other processes on one host.
+ *
+ * <p>The file starts with a {@link #MAGIC} number, the format {@link #VERSION}, the capacity of the ring, the number
+ * of entries in the type table, and two sequence counters on cache lines of their own: the <em>tail</em>, the total
+ * number of bytes published, and the <em>tail intent</em>, past which the writer may already be overwriting. The type
+ * table follows, holding the UTF-8 name of each type the ring carries as a length and the bytes, and then the ring.
+ * The magic number, the type count and the counters are in the host's byte order, everything else is big-endian.
+ * Records in the ring are 8-byte aligned and made of their length, the index of their type in the table, and the
+ * encoded event; a record of type {@link #PADDING} fills the end of the ring when the next record does not fit there.
+ *
+ * <p>The writer raises the tail intent before writing a record and publishes the tail with an ordered store after it,
+ * so it never waits for readers. A reader loads the tail, decodes records up to it straight from the mapping, and then
+ * checks the tail intent again: if the writer has come within a ring's length of the record, the reader was lapped,
+ * drops what it decoded and skips to the tail. The counters, the magic number and the type count are read and written
+ * with the atomic acquire loads and release stores of {@link MappedAccess}, which order the plain accesses to the
+ * records and names around them on every processor, including for other processes mapping the file. They rely on
+ * {@code sun.misc.Unsafe}; where it is unavailable, opening a ring fails with an
+ * {@link UnsupportedOperationException}.
+ *
+ * <p>Version 1 of the format kept every field big-endian and published the counters with plain stores. Its rings are
+ * rejected with an {@link IOException} asking for the file to be deleted once every writer and reader of it has
+ * closed; the next writer then creates a version 2 ring in its place.
+ */
+final class SharedRing implements Closeable {
+  static final int MAGIC = 0x4f74526e;
+  static final int VERSION = 2;
+  static final int PADDING = -1;
+  /** Length and type index. */
+  static final int RECORD_HEADER_SIZE = 8;
+  static final int TYPE_OFFSET = 4;
+  static final int ALIGNMENT = 8;
+  /** Length of a name in the type table. */
+  private static final int NAME_HEADER_SIZE = 4;
+
+  private static final int VERSION_OFFSET = 4;
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int TYPE_COUNT_OFFSET = 12;
+  /** The counters are a cache line apart so that polling the tail does not contend with writing the intent. */
+  private static final int TAIL_INTENT_OFFSET = 64;
+  private static final int TAIL_OFFSET = 128;
+  private static final int TYPE_TABLE_OFFSET = 192;
+  private static final int TYPE_TABLE_SIZE = 4096;
+  private static final int RING_OFFSET = TYPE_TABLE_OFFSET + TYPE_TABLE_SIZE;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  final File file;
+  final int capacity;
+  final int mask;
+  /** The whole file. Only absolute accesses are used, so it may be shared by threads. */
+  final MappedByteBuffer buffer;
+  private final RandomAccessFile raf;
+  /** Ordered accesses to the counters in {@link #buffer}. */
+  private final MappedAccess access;
+
+  private SharedRing(File file, RandomAccessFile raf, MappedByteBuffer buffer, int capacity) {
+    this.file = file;
+    this.raf = raf;
+    this.buffer = buffer;
+    this.access = MappedAccess.of(buffer);
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * Opens the ring in {@code file} for writing, creating it with {@code capacity} bytes for records if it does not
+   * exist. An existing ring keeps its tail and type table, so readers may stay attached while the writer restarts.
+   *
+   * @throws IllegalStateException if another writer has the ring open.
+   * @throws IOException if the file exists but is not a ring of that capacity.
+   */
+  static SharedRing openForWriting(File file, int capacity) throws IOException {
+    if (capacity < RECORD_HEADER_SIZE * 2 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two of at least 16 but was " + capacity + ".");
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      boolean created = raf.length() == 0;
+      FileChannel channel = raf.getChannel();
+      // Held until the file is closed.
+      FileLock lock;
+      try {
+        lock = channel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        lock = null;
+      }
+      if (lock == null) {
+        throw new IllegalStateException("Shared ring " + file + " already has a writer.");
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, RING_OFFSET + capacity);
+      SharedRing ring = new SharedRing(file, raf, buffer, capacity);
+      if (created) {
+        buffer.putInt(VERSION_OFFSET, VERSION).putInt(CAPACITY_OFFSET, capacity);
+        // Readers check the magic number first, so it is stored last.
+        ring.access.putIntRelease(0, MAGIC);
+      } else {
+        ring.checkHeader();
+        if (buffer.getInt(CAPACITY_OFFSET) != capacity) {
+          throw new IOException("Shared ring " + file + " has a capacity of " + buffer.getInt(CAPACITY_OFFSET)
+              + " bytes, not " + capacity + ".");
+        }
+      }
+      return ring;
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    } catch (RuntimeException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens the existing ring in {@code file} for reading.
+   *
+   * @throws IOException if the file is not a ring.
+   */
+  static SharedRing openForReading(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() <= RING_OFFSET) {
+        throw new IOException(file + " is not a shared ring.");
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      int capacity = buffer.getInt(CAPACITY_OFFSET);
+      SharedRing ring = new SharedRing(file, raf, buffer, capacity);
+      ring.checkHeader();
+      if (Integer.bitCount(capacity) != 1 || RING_OFFSET + capacity != channel.size()) {
+        throw new IOException(file + " is not a shared ring.");
+      }
+      return ring;
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    } catch (RuntimeException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  private void checkHeader() throws IOException {
+    int magic = access.getIntAcquire(0);
+    int version = buffer.getInt(VERSION_OFFSET);
+    if (buffer.getInt(0) == MAGIC && version < VERSION) {
+      // Version 1 wrote the magic number big-endian, as it is read here.
+      throw new IOException(file + " is a shared ring of version " + version + ", which this version of Otto cannot "
+          + "share. Delete it once its writer and readers have closed, and the next writer creates a new one.");
+    }
+    if (magic != MAGIC || version != VERSION) {
+      throw new IOException(file + " is not a shared ring of version " + VERSION + ".");
+    }
+  }
+
+  /** Returns the offset of the record at {@code sequence} in {@link #buffer}. */
+  int offsetOf(long sequence) {
+    return RING_OFFSET + ((int) sequence & mask);
+  }
+
+  /** Returns the tail, before any read of the records it publishes. */
+  long tail() {
+    return access.getLongAcquire(TAIL_OFFSET);
+  }
+
+  /** Publishes every record before {@code tail}, after every write of them. */
+  void publishTail(long tail) {
+    access.putLongRelease(TAIL_OFFSET, tail);
+  }
+
+  /** Returns the tail intent, after every read of records before this call. */
+  long tailIntent() {
+    access.loadFence();
+    return access.getLongAcquire(TAIL_INTENT_OFFSET);
+  }
+
+  /** Announces that records before {@code tailIntent} may be overwritten, before any of them is. */
+  void announceTailIntent(long tailIntent) {
+    access.putLongRelease(TAIL_INTENT_OFFSET, tailIntent);
+    access.storeFence();
+  }
+
+  /** Returns the names in the type table. */
+  List<String> types() {
+    int count = access.getIntAcquire(TYPE_COUNT_OFFSET);
+    List<String> types = new ArrayList<String>(count);
+    int offset = TYPE_TABLE_OFFSET;
+    for (int i = 0; i < count; i++) {
+      byte[] name = new byte[buffer.getInt(offset)];
+      for (int j = 0; j < name.length; j++) {
+        name[j] = buffer.get(offset + NAME_HEADER_SIZE + j);
+      }
+      types.add(new String(name, UTF_8));
+      offset += NAME_HEADER_SIZE + name.length;
+    }
+    return types;
+  }
+
+  /** Appends {@code name} to the type table and returns its index. Only called by the writer. */
+  int addType(String name) {
+    List<String> types = types();
+    int index = types.indexOf(name);
+    if (index >= 0) {
+      return index;
+    }
+    int offset = TYPE_TABLE_OFFSET;
+    for (String type : types) {
+      offset += NAME_HEADER_SIZE + type.getBytes(UTF_8).length;
+    }
+    byte[] bytes = name.getBytes(UTF_8);
+    if (offset + NAME_HEADER_SIZE + bytes.length > RING_OFFSET) {
+      throw new IllegalStateException("Type table of shared ring " + file + " is full.");
+    }
+    buffer.putInt(offset, bytes.length);
+    for (int j = 0; j < bytes.length; j++) {
+      buffer.put(offset + NAME_HEADER_SIZE + j, bytes[j]);
+    }
+    access.putIntRelease(TYPE_COUNT_OFFSET, types.size() + 1);
+    return types.size();
+  }
+
+  static int align(int length) {
+    return (length + ALIGNMENT - 1) & -ALIGNMENT;
+  }
+
+  /** Closes the file. The mapping stays valid until it is garbage collected. */
+  @Override public void close() throws IOException {
+    raf.close();
+  }
+}
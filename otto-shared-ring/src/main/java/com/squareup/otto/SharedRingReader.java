@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Posts to a {@link Bus} the events which a {@link SharedRingWriter}, usually in another process, publishes into a
+ * ring in a memory-mapped file. Events are decoded straight from the mapping and posted in the order they were
+ * published, either by a polling thread or by each call to {@link #poll()}.
+ *
+ * <p>A reader starts at the events published after it was opened. Any number of readers may read one ring, and the
+ * writer never waits for them: a reader which falls a whole ring behind is {@linkplain #getLapCount() lapped}, drops
+ * the events it missed and carries on with the newest ones.
+ */
+public final class SharedRingReader implements Closeable {
+  private final Bus bus;
+  private final SharedRing ring;
+  /** The mapping, with the position and limit of the record being decoded. Guarded by this. */
+  private final ByteBuffer records;
+  /** Codecs of received types, by type name. */
+  private final Map<String, EventCodec<?>> receivedTypes = new ConcurrentHashMap<String, EventCodec<?>>();
+
+  // Guarded by this.
+  /** Codec of each type in the ring's type table, or {@code null} for types which are not received. */
+  private final List<EventCodec<?>> codecs = new ArrayList<EventCodec<?>>();
+  private long cursor;
+
+  private volatile long laps;
+  private volatile boolean closed;
+  private Thread poller;
+
+  /**
+   * Opens the ring in {@code file} for reading into {@code bus}, which must accept posts from the threads which poll.
+   *
+   * @throws IOException if the file is not a ring.
+   * @throws UnsupportedOperationException if this runtime lacks the {@code sun.misc.Unsafe} accesses a ring needs.
+   */
+  public SharedRingReader(Bus bus, File file) throws IOException {
+    if (bus == null) {
+      throw new NullPointerException("Bus must not be null.");
+    }
+    this.bus = bus;
+    this.ring = SharedRing.openForReading(file);
+    this.records = ring.buffer.duplicate();
+    this.cursor = ring.tail();
+  }
+
+  /**
+   * Posts events of {@code type} published to the ring to the local bus, decoded by {@code codec}. Events of types
+   * which are not received are skipped.
+   */
+  public synchronized <T> void receive(Class<T> type, EventCodec<T> codec) {
+    if (type == null) {
+      throw new NullPointerException("Type must not be null.");
+    }
+    if (codec == null) {
+      throw new NullPointerException("Codec must not be null.");
+    }
+    receivedTypes.put(type.getName(), codec);
+    codecs.clear();
+  }
+
+  /**
+   * Posts every event published since the last poll, and returns how many were posted.
+   *
+   * @throws RuntimeException if a codec or handler fails. The event is skipped and the next poll carries on after it.
+   */
+  public synchronized int poll() {
+    int posted = 0;
+    long tail = ring.tail();
+    while (cursor < tail) {
+      int start = ring.offsetOf(cursor);
+      int length = records.getInt(start);
+      int type = records.getInt(start + SharedRing.TYPE_OFFSET);
+      // A record the writer is overwriting may be torn; it is only trusted once the tail intent shows otherwise.
+      boolean valid = length >= SharedRing.RECORD_HEADER_SIZE
+          && ((int) cursor & ring.mask) + SharedRing.align(length) <= ring.capacity;
+      EventCodec<?> codec = valid && type != SharedRing.PADDING ? codecFor(type) : null;
+      Object event = null;
+      RuntimeException failure = null;
+      if (codec != null) {
+        records.limit(start + length);
+        records.position(start + SharedRing.RECORD_HEADER_SIZE);
+        try {
+          event = codec.decode(records.slice());
+        } catch (RuntimeException e) {
+          failure = e;
+        }
+        records.limit(records.capacity());
+      }
+      if (ring.tailIntent() - ring.capacity > cursor) {
+        // Lapped while reading: skip to the newest event.
+        laps++;
+        cursor = ring.tail();
+        return posted;
+      }
+      if (!valid) {
+        throw new IllegalStateException("Corrupt record at " + cursor + " in shared ring " + ring.file + ".");
+      }
+      cursor += SharedRing.align(length);
+      if (failure != null) {
+        throw failure;
+      }
+      if (event != null) {
+        bus.post(event);
+        posted++;
+      }
+    }
+    return posted;
+  }
+
+  /** Returns the codec for the type at {@code index} in the type table, reading new entries of the table if needed. */
+  private EventCodec<?> codecFor(int index) {
+    if (index >= codecs.size()) {
+      List<String> types = ring.types();
+      for (int i = codecs.size(); i < types.size(); i++) {
+        codecs.add(receivedTypes.get(types.get(i)));
+      }
+      if (index >= codecs.size()) {
+        return null;
+      }
+    }
+    return codecs.get(index);
+  }
+
+  /** Returns the number of times the writer got a whole ring ahead of this reader, so events were dropped. */
+  public long getLapCount() {
+    return laps;
+  }
+
+  /**
+   * Starts a daemon thread which polls until the reader is closed, calling {@code waitStrategy} while no events are
+   * published. Exceptions thrown by codecs and handlers are passed to its uncaught exception handler.
+   */
+  public void start(final WaitStrategy waitStrategy) {
+    if (waitStrategy == null) {
+      throw new NullPointerException("Wait strategy must not be null.");
+    }
+    Thread thread = new Thread(new Runnable() {
+      @Override public void run() {
+        int attempts = 0;
+        while (!closed) {
+          int posted;
+          try {
+            posted = poll();
+          } catch (RuntimeException e) {
+            Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, e);
+            posted = 1;
+          }
+          if (posted == 0) {
+            waitStrategy.idle(++attempts);
+          } else {
+            attempts = 0;
+          }
+        }
+      }
+    }, "Otto shared ring reader for " + ring.file);
+    thread.setDaemon(true);
+    synchronized (this) {
+      if (poller != null || closed) {
+        throw new IllegalStateException(this + " has already been started.");
+      }
+      poller = thread;
+    }
+    thread.start();
+  }
+
+  /** Stops polling and closes the file. */
+  @Override public void close() throws IOException {
+    Thread thread;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      thread = poller;
+    }
+    try {
+      if (thread != null && thread != Thread.currentThread()) {
+        thread.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      ring.close();
+    }
+  }
+
+  @Override public String toString() {
+    return "[SharedRingReader for " + ring.file + "]";
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Publishes events posted to a {@link Bus} into a ring in a memory-mapped file, from which {@link SharedRingReader}s
+ * in other processes on the same host post them to their own buses. Events of the {@linkplain #forward forwarded}
+ * types are encoded straight into the mapping on the posting thread and published with an ordered store, so posting
+ * makes no system call and never waits for readers; a reader which falls a whole ring behind skips ahead instead.
+ *
+ * <p>A ring has one writer at a time, which holds a lock on the file. The writer may be used from any posting thread.
+ * An encoded event may take at most a quarter of the ring's capacity, less an 8-byte record header.
+ */
+public final class SharedRingWriter implements Closeable {
+  /** Readers get a quarter of the ring's length of warning before they are lapped. */
+  private static final int MAX_RECORD_FRACTION = 4;
+
+  private final Bus bus;
+  private final SharedRing ring;
+  /** The mapping, with the position and limit of the record being written. Guarded by this. */
+  private final ByteBuffer records;
+  private final int maxRecordLength;
+  private final List<Registration> registrations = Collections.synchronizedList(new ArrayList<Registration>());
+
+  // Guarded by this.
+  private long tail;
+  private boolean closed;
+
+  /**
+   * Opens the ring in {@code file} for writing the events forwarded from {@code bus}, creating it if it does not exist.
+   * An existing ring keeps its position, so attached readers carry on after the writer restarts.
+   *
+   * @param bus The local bus.
+   * @param file The file holding the ring.
+   * @param capacity Bytes of the ring, which must be a power of two. Ignored if the file exists, except that it must
+   *     match.
+   * @throws IllegalStateException if another writer has the ring open.
+   * @throws IOException if the file exists but is not a ring of that capacity.
+   * @throws UnsupportedOperationException if this runtime lacks the {@code sun.misc.Unsafe} accesses a ring needs.
+   */
+  public SharedRingWriter(Bus bus, File file, int capacity) throws IOException {
+    if (bus == null) {
+      throw new NullPointerException("Bus must not be null.");
+    }
+    this.bus = bus;
+    this.ring = SharedRing.openForWriting(file, capacity);
+    this.records = ring.buffer.duplicate();
+    this.maxRecordLength = capacity / MAX_RECORD_FRACTION;
+    this.tail = ring.tail();
+  }
+
+  /**
+   * Publishes events of {@code type} and its subclasses which are posted to the local bus, encoded by {@code codec},
+   * under the name of {@code type}. Must be called on a thread the local bus accepts registrations from.
+   *
+   * @throws IllegalStateException if the ring's type table is full.
+   */
+  public <T> void forward(Class<T> type, EventCodec<T> codec) {
+    if (type == null) {
+      throw new NullPointerException("Type must not be null.");
+    }
+    if (codec == null) {
+      throw new NullPointerException("Codec must not be null.");
+    }
+    int typeIndex;
+    synchronized (this) {
+      typeIndex = ring.addType(type.getName());
+    }
+    @SuppressWarnings("unchecked")
+    EventCodec<Object> objectCodec = (EventCodec<Object>) codec;
+    SubscriberMethod writer =
+        new SubscriberMethod(new Writer(typeIndex, objectCodec), false, DeliveryMode.POSTING, null);
+    ListenerTemplate template = new ListenerTemplate(Collections.<Class<?>>singletonList(type),
+        Collections.singletonList(writer), Collections.<Class<?>>emptyList(), Collections.<Invoker>emptyList());
+    registrations.add(bus.register(this, template));
+  }
+
+  /** Encodes {@code event} into the ring and publishes it, first padding out the end of the ring if needed. */
+  synchronized void write(int typeIndex, EventCodec<Object> codec, Object event) {
+    if (closed) {
+      throw new IllegalStateException(this + " is closed.");
+    }
+    while (true) {
+      int toEnd = ring.capacity - ((int) tail & ring.mask);
+      int span = Math.min(toEnd, maxRecordLength);
+      int start = ring.offsetOf(tail);
+      // Readers must see that this span may be overwritten before any of it is.
+      ring.announceTailIntent(tail + span);
+      records.limit(start + span);
+      records.position(start + SharedRing.RECORD_HEADER_SIZE);
+      try {
+        codec.encode(event, records);
+      } catch (BufferOverflowException e) {
+        if (span == maxRecordLength) {
+          throw new IllegalArgumentException("Event " + event + " does not fit in a record of " + maxRecordLength
+              + " bytes.");
+        }
+        records.putInt(start, toEnd).putInt(start + SharedRing.TYPE_OFFSET, SharedRing.PADDING);
+        tail += toEnd;
+        continue;
+      }
+      int length = records.position() - start;
+      records.putInt(start, length).putInt(start + SharedRing.TYPE_OFFSET, typeIndex);
+      tail += SharedRing.align(length);
+      ring.publishTail(tail);
+      return;
+    }
+  }
+
+  /** Stops forwarding and closes the file. Readers keep the events already published. */
+  @Override public void close() throws IOException {
+    synchronized (registrations) {
+      for (Registration registration : registrations) {
+        registration.cancel();
+      }
+      registrations.clear();
+    }
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    ring.close();
+  }
+
+  @Override public String toString() {
+    return "[SharedRingWriter for " + ring.file + "]";
+  }
+
+  /** Writes the events of one forwarded type. */
+  private final class Writer extends Invoker {
+    private final int typeIndex;
+    private final EventCodec<Object> codec;
+
+    Writer(int typeIndex, EventCodec<Object> codec) {
+      this.typeIndex = typeIndex;
+      this.codec = codec;
+    }
+
+    @Override Object invoke(Object target, Object argument) {
+      write(typeIndex, codec, argument);
+      return null;
+    }
+
+    @Override public String toString() {
+      return "write type " + typeIndex + " to " + SharedRingWriter.this;
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class SharedRingTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Bus writerBus = new Bus(ThreadEnforcer.ANY, "writer");
+  private final Bus readerBus = new Bus(ThreadEnforcer.ANY, "reader");
+  private final Recorder recorder = new Recorder();
+  private File file;
+  private SharedRingWriter writer;
+  private SharedRingReader reader;
+
+  @Before public void setUp() throws IOException {
+    file = new File(folder.getRoot(), "bus.ring");
+    writer = new SharedRingWriter(writerBus, file, 256);
+    writer.forward(Integer.class, new IntegerCodec());
+    writer.forward(String.class, new StringCodec());
+    reader = newReader(readerBus);
+    readerBus.register(recorder);
+  }
+
+  @After public void tearDown() throws IOException {
+    reader.close();
+    writer.close();
+  }
+
+  @Test public void publishedEventsArePostedInOrderAcrossWraps() {
+    List<Object> expected = new ArrayList<Object>();
+    for (int i = 0; i < 100; i++) {
+      writerBus.post(i);
+      writerBus.post("event " + i);
+      expected.add(i);
+      expected.add("event " + i);
+      // Poll often enough that the reader is never lapped.
+      if (i % 4 == 3) {
+        reader.poll();
+      }
+    }
+    reader.poll();
+
+    assertEquals(expected, new ArrayList<Object>(recorder.events));
+    assertEquals(0, reader.getLapCount());
+  }
+
+  @Test public void everyReaderSeesEveryEvent() throws IOException {
+    Bus otherBus = new Bus(ThreadEnforcer.ANY, "other");
+    Recorder other = new Recorder();
+    otherBus.register(other);
+    SharedRingReader otherReader = newReader(otherBus);
+
+    writerBus.post(1);
+    writerBus.post("two");
+
+    assertEquals(2, reader.poll());
+    assertEquals(2, otherReader.poll());
+    assertEquals(0, reader.poll());
+    assertEquals(new ArrayList<Object>(recorder.events), new ArrayList<Object>(other.events));
+    otherReader.close();
+  }
+
+  @Test public void readerOnlySeesEventsPublishedAfterItOpened() throws IOException {
+    writerBus.post(1);
+    SharedRingReader late = newReader(readerBus);
+    writerBus.post(2);
+
+    assertEquals(1, late.poll());
+    assertEquals(Integer.valueOf(2), recorder.events.poll());
+    late.close();
+  }
+
+  @Test public void lappedReaderSkipsToTheNewestEvents() {
+    for (int i = 0; i < 100; i++) {
+      writerBus.post(i);
+    }
+    reader.poll();
+    assertEquals(1, reader.getLapCount());
+    assertTrue(recorder.events.isEmpty());
+
+    writerBus.post(100);
+    assertEquals(1, reader.poll());
+    assertEquals(Integer.valueOf(100), recorder.events.poll());
+  }
+
+  @Test public void typesWhichAreNotReceivedAreSkipped() throws IOException {
+    Bus otherBus = new Bus(ThreadEnforcer.ANY, "other");
+    Recorder other = new Recorder();
+    otherBus.register(other);
+    SharedRingReader stringReader = new SharedRingReader(otherBus, file);
+    stringReader.receive(String.class, new StringCodec());
+
+    writerBus.post(1);
+    writerBus.post("two");
+
+    assertEquals(1, stringReader.poll());
+    assertEquals("two", other.events.poll());
+    stringReader.close();
+  }
+
+  @Test public void ringHasOneWriter() throws IOException {
+    try {
+      new SharedRingWriter(writerBus, file, 256);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void restartedWriterCarriesOnWhereTheLastOneStopped() throws IOException {
+    writerBus.post(1);
+    writer.close();
+    writerBus.post(2);
+    writer = new SharedRingWriter(writerBus, file, 256);
+    writer.forward(Integer.class, new IntegerCodec());
+    writerBus.post(3);
+
+    reader.poll();
+    assertEquals(Integer.valueOf(1), recorder.events.poll());
+    assertEquals(Integer.valueOf(3), recorder.events.poll());
+  }
+
+  @Test public void eventLargerThanARecordIsRejected() {
+    try {
+      writerBus.post(new String(new char[100]));
+      fail();
+    } catch (RuntimeException expected) {
+      assertTrue(expected.getCause() instanceof IllegalArgumentException);
+    }
+  }
+
+  @Test public void pollingThreadPostsPublishedEvents() throws InterruptedException {
+    reader.start(WaitStrategy.PARK);
+
+    writerBus.post("Hello");
+
+    assertEquals("Hello", recorder.events.poll(10, TimeUnit.SECONDS));
+  }
+
+  @Test public void concurrentReaderOnlySeesWholeRecordsInOrder() throws InterruptedException {
+    final int count = 100000;
+    final CountDownLatch finished = new CountDownLatch(1);
+    final List<String> failures = new CopyOnWriteArrayList<String>();
+    readerBus.register(new Object() {
+      private int last = -1;
+
+      @Subscribe public void onString(String event) {
+        // Both halves must come from the same record, and records must not go back in time.
+        int colon = event.indexOf(':');
+        int sequence = Integer.parseInt(event.substring(0, colon));
+        if (!event.substring(colon + 1).equals(Integer.toString(sequence)) || sequence <= last) {
+          failures.add(event + " after " + last);
+        }
+        last = sequence;
+      }
+
+      @Subscribe public void onInteger(Integer event) {
+        finished.countDown();
+      }
+    });
+    reader.start(WaitStrategy.YIELD);
+
+    for (int i = 0; i < count; i++) {
+      writerBus.post(i + ":" + i);
+    }
+    // The reader may be lapped past any one event, so repeat the last until it arrives.
+    while (!finished.await(10, TimeUnit.MILLISECONDS)) {
+      writerBus.post(count);
+    }
+
+    assertEquals(Collections.<String>emptyList(), failures);
+  }
+
+  @Test public void ringsOfAnEarlierVersionAreRejected() throws IOException {
+    File old = new File(folder.getRoot(), "old.ring");
+    RandomAccessFile raf = new RandomAccessFile(old, "rw");
+    try {
+      raf.setLength(1 << 16);
+      raf.writeInt(SharedRing.MAGIC);
+      raf.writeInt(1);
+    } finally {
+      raf.close();
+    }
+
+    try {
+      new SharedRingReader(readerBus, old);
+      fail();
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("version 1"));
+    }
+  }
+
+  private SharedRingReader newReader(Bus bus) throws IOException {
+    SharedRingReader ringReader = new SharedRingReader(bus, file);
+    ringReader.receive(Integer.class, new IntegerCodec());
+    ringReader.receive(String.class, new StringCodec());
+    return ringReader;
+  }
+
+  public static class Recorder {
+    final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+
+    @Subscribe public void onInteger(Integer event) {
+      events.add(event);
+    }
+
+    @Subscribe public void onString(String event) {
+      events.add(event);
+    }
+  }
+
+  static class IntegerCodec implements EventCodec<Integer> {
+    @Override public void encode(Integer event, ByteBuffer buffer) {
+      buffer.putInt(event);
+    }
+
+    @Override public Integer decode(ByteBuffer buffer) {
+      return buffer.getInt();
+    }
+  }
+
+  static class StringCodec implements EventCodec<String> {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override public void encode(String event, ByteBuffer buffer) {
+      buffer.put(event.getBytes(UTF_8));
+    }
+
+    @Override public String decode(ByteBuffer buffer) {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      return new String(bytes, UTF_8);
+    }
+  }
+}
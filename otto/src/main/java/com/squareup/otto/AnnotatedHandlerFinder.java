@@ -19,10 +19,8 @@ package com.squareup.otto;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -35,32 +33,19 @@ import java.util.concurrent.ConcurrentMap;
  */
 final class AnnotatedHandlerFinder {
 
-  /** Cache event bus producer methods for each class. */
-  private static final ConcurrentMap<Class<?>, Map<Class<?>, Method>> PRODUCERS_CACHE =
-    new ConcurrentHashMap<Class<?>, Map<Class<?>, Method>>();
-
-  /** Cache event bus subscriber methods for each class. */
-  private static final ConcurrentMap<Class<?>, Map<Class<?>, Set<Method>>> SUBSCRIBERS_CACHE =
-    new ConcurrentHashMap<Class<?>, Map<Class<?>, Set<Method>>>();
-
-  private static void loadAnnotatedProducerMethods(Class<?> listenerClass,
-      Map<Class<?>, Method> producerMethods) {
-    Map<Class<?>, Set<Method>> subscriberMethods = new HashMap<Class<?>, Set<Method>>();
-    loadAnnotatedMethods(listenerClass, producerMethods, subscriberMethods);
-  }
-
-  private static void loadAnnotatedSubscriberMethods(Class<?> listenerClass,
-      Map<Class<?>, Set<Method>> subscriberMethods) {
-    Map<Class<?>, Method> producerMethods = new HashMap<Class<?>, Method>();
-    loadAnnotatedMethods(listenerClass, producerMethods, subscriberMethods);
-  }
-
   /**
-   * Load all methods annotated with {@link Produce} or {@link Subscribe} into their respective caches for the
-   * specified class.
+   * Cache of the producer and subscriber methods of each class. Each method is bound to its {@link Invoker} once, when
+   * its class is first seen, so registering further instances does not repeat the binding.
    */
-  private static void loadAnnotatedMethods(Class<?> listenerClass,
-      Map<Class<?>, Method> producerMethods, Map<Class<?>, Set<Method>> subscriberMethods) {
+  private static final ConcurrentMap<Class<?>, ListenerTemplate> TEMPLATES_CACHE =
+    new ConcurrentHashMap<Class<?>, ListenerTemplate>();
+
+  /** Finds all methods of {@code listenerClass} annotated with {@link Produce} or {@link Subscribe}. */
+  private static ListenerTemplate loadAnnotatedMethods(Class<?> listenerClass) {
+    List<Class<?>> subscriberTypes = new ArrayList<Class<?>>();
+    List<SubscriberMethod> subscriberMethods = new ArrayList<SubscriberMethod>();
+    List<Class<?>> producedTypes = new ArrayList<Class<?>>();
+    List<Invoker> producerMethods = new ArrayList<Invoker>();
     for (Method method : listenerClass.getDeclaredMethods()) {
       // The compiler sometimes creates synthetic bridge methods as part of the
       // type erasure process. As of JDK8 these methods now include the same
@@ -81,18 +66,18 @@ final class AnnotatedHandlerFinder {
           throw new IllegalArgumentException("Method " + method + " has @Subscribe annotation on " + eventType
               + " which is an interface.  Subscription must be on a concrete class type.");
         }
+        if (eventType.isPrimitive() && Bus.wrapperOf(eventType) == null) {
+          throw new IllegalArgumentException("Method " + method + " has @Subscribe annotation on " + eventType
+              + ".  Primitive subscribers must take an int, long or double.");
+        }
 
         if ((method.getModifiers() & Modifier.PUBLIC) == 0) {
           String message = ErrorMessages.newNotVisibleMessage(method.toString(), eventType.toString());
           throw new IllegalArgumentException(message);
         }
 
-        Set<Method> methods = subscriberMethods.get(eventType);
-        if (methods == null) {
-          methods = new HashSet<Method>();
-          subscriberMethods.put(eventType, methods);
-        }
-        methods.add(method);
+        subscriberTypes.add(eventType);
+        subscriberMethods.add(new SubscriberMethod(Invoker.forMethod(method), method.getAnnotation(Subscribe.class)));
       } else if (method.isAnnotationPresent(Produce.class)) {
         Class<?>[] parameterTypes = method.getParameterTypes();
         if (parameterTypes.length != 0) {
@@ -118,58 +103,28 @@ final class AnnotatedHandlerFinder {
               + " but is not 'public'.");
         }
 
-        if (producerMethods.containsKey(eventType)) {
+        if (producedTypes.contains(eventType)) {
           throw new IllegalArgumentException("Producer for type " + eventType + " has already been registered.");
         }
-        producerMethods.put(eventType, method);
-      }
-    }
-
-    PRODUCERS_CACHE.put(listenerClass, producerMethods);
-    SUBSCRIBERS_CACHE.put(listenerClass, subscriberMethods);
-  }
-
-  /** This implementation finds all methods marked with a {@link Produce} annotation. */
-  static Map<Class<?>, EventProducer> findAllProducers(Object listener) {
-    final Class<?> listenerClass = listener.getClass();
-    Map<Class<?>, EventProducer> handlersInMethod = new HashMap<Class<?>, EventProducer>();
-
-    Map<Class<?>, Method> methods = PRODUCERS_CACHE.get(listenerClass);
-    if (null == methods) {
-      methods = new HashMap<Class<?>, Method>();
-      loadAnnotatedProducerMethods(listenerClass, methods);
-    }
-    if (!methods.isEmpty()) {
-      for (Map.Entry<Class<?>, Method> e : methods.entrySet()) {
-        EventProducer producer = new EventProducer(listener, e.getValue());
-        handlersInMethod.put(e.getKey(), producer);
+        producedTypes.add(eventType);
+        producerMethods.add(Invoker.forMethod(method));
       }
     }
 
-    return handlersInMethod;
+    return new ListenerTemplate(subscriberTypes, subscriberMethods, producedTypes, producerMethods);
   }
 
-  /** This implementation finds all methods marked with a {@link Subscribe} annotation. */
-  static Map<Class<?>, Set<EventHandler>> findAllSubscribers(Object listener) {
-    Class<?> listenerClass = listener.getClass();
-    Map<Class<?>, Set<EventHandler>> handlersInMethod = new HashMap<Class<?>, Set<EventHandler>>();
-
-    Map<Class<?>, Set<Method>> methods = SUBSCRIBERS_CACHE.get(listenerClass);
-    if (null == methods) {
-      methods = new HashMap<Class<?>, Set<Method>>();
-      loadAnnotatedSubscriberMethods(listenerClass, methods);
-    }
-    if (!methods.isEmpty()) {
-      for (Map.Entry<Class<?>, Set<Method>> e : methods.entrySet()) {
-        Set<EventHandler> handlers = new HashSet<EventHandler>();
-        for (Method m : e.getValue()) {
-          handlers.add(new EventHandler(listener, m));
-        }
-        handlersInMethod.put(e.getKey(), handlers);
+  /** This implementation finds all methods marked with a {@link Produce} or {@link Subscribe} annotation. */
+  static ListenerTemplate findTemplate(Class<?> listenerClass) {
+    ListenerTemplate template = TEMPLATES_CACHE.get(listenerClass);
+    if (template == null) {
+      template = loadAnnotatedMethods(listenerClass);
+      ListenerTemplate previous = TEMPLATES_CACHE.putIfAbsent(listenerClass, template);
+      if (previous != null) {
+        template = previous;
       }
     }
-
-    return handlersInMethod;
+    return template;
   }
 
   private AnnotatedHandlerFinder() {
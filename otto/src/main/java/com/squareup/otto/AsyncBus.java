@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link Bus} which delivers events on an {@link Executor} instead of the posting thread, so that {@link #post}
+ * returns without waiting for handlers to run.
+ *
+ * <p>Each handler has its own lane: it receives events one at a time and in the order they were posted, while
+ * different handlers may run concurrently on the executor's threads. Handlers therefore need to be safe to call from
+ * threads other than the one that registered them. Once a listener is {@link #unregister unregistered} its handlers
+ * are not called again, even for events that were already posted.
+ *
+ * <p>The lane of a handler declared with {@link DeliveryMode#EXECUTOR} or {@link DeliveryMode#BACKGROUND} runs on that
+ * executor or on the bus's background thread instead of the bus's executor, and is otherwise the same.
+ *
+ * <p>Exceptions thrown by handlers are wrapped as by {@link Bus} and propagate to the executor. Producers are still
+ * called on the registering thread, but the events they produce are delivered through the handlers' lanes like any
+ * other.
+ */
+public class AsyncBus extends Bus {
+
+  /** Runs handler lanes. */
+  private final Executor executor;
+
+  /** Lane of every handler which has been posted to, keyed by handler. */
+  private final ConcurrentMap<EventHandler, HandlerLane> lanes = new ConcurrentHashMap<EventHandler, HandlerLane>();
+
+  /** Lanes which the current thread made runnable and has yet to hand to the executor. */
+  private final ThreadLocal<List<HandlerLane>> readyLanes = new ThreadLocal<List<HandlerLane>>() {
+    @Override protected List<HandlerLane> initialValue() {
+      return new ArrayList<HandlerLane>();
+    }
+  };
+
+  /**
+   * Creates a new AsyncBus named "default" that may be used from any thread.
+   *
+   * @param executor Runs event handlers.
+   */
+  public AsyncBus(Executor executor) {
+    this(DEFAULT_IDENTIFIER, executor);
+  }
+
+  /**
+   * Creates a new AsyncBus with the given {@code identifier} that may be used from any thread.
+   *
+   * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
+   * @param executor Runs event handlers.
+   */
+  public AsyncBus(String identifier, Executor executor) {
+    this(ThreadEnforcer.ANY, identifier, executor);
+  }
+
+  /**
+   * Creates a new AsyncBus with the given {@code enforcer} for actions and the given {@code identifier}.
+   *
+   * @param enforcer Thread enforcer for register, unregister, and post actions.
+   * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
+   * @param executor Runs event handlers.
+   */
+  public AsyncBus(ThreadEnforcer enforcer, String identifier, Executor executor) {
+    this(enforcer, identifier, HandlerFinder.GENERATED, executor);
+  }
+
+  /** Test constructor which allows replacing the default {@code HandlerFinder}. */
+  AsyncBus(ThreadEnforcer enforcer, String identifier, HandlerFinder handlerFinder, Executor executor) {
+    super(enforcer, identifier, handlerFinder);
+    if (executor == null) {
+      throw new NullPointerException("Executor must not be null.");
+    }
+    this.executor = executor;
+  }
+
+  @Override void handlersUnregistered(EventHandler[] handlers) {
+    // Handlers are invalidated by now, so a lane which is still running drops any events left in it.
+    for (EventHandler handler : handlers) {
+      HandlerLane lane = lanes.get(handler);
+      if (lane != null && lane.handler == handler) {
+        lanes.remove(handler, lane);
+      }
+    }
+  }
+
+  /** Appends {@code event} to the lane of {@code handler}, which is handed to the executor by the next drain. */
+  @Override protected void enqueueEvent(Object event, EventHandler handler) {
+    if (!handler.isValid()) {
+      DeliveryFuture.skip(event, handler);
+      return;
+    }
+    if (handler.isConflating()) {
+      Object replaced = handler.conflate(event);
+      if (replaced != null) {
+        DeliveryFuture.skip(replaced, handler);
+        return;
+      }
+    }
+    HandlerLane lane = laneFor(handler);
+    lane.events.offer(event);
+    if (lane.scheduled.compareAndSet(false, true)) {
+      readyLanes.get().add(lane);
+    }
+  }
+
+  /** Queues the produced event in the handler's lane, so that it is delivered there rather than by the registration. */
+  @Override void deliverProduced(Object event, EventHandler handler) {
+    enqueueEvent(event, handler);
+    dispatchQueuedEvents();
+  }
+
+  /** Hands every lane made runnable by this thread to its executor. */
+  @Override protected void dispatchQueuedEvents() {
+    List<HandlerLane> ready = readyLanes.get();
+    RuntimeException rejected = null;
+    try {
+      for (int i = 0; i < ready.size(); i++) {
+        HandlerLane lane = ready.get(i);
+        try {
+          lane.executor.execute(lane);
+        } catch (RuntimeException e) {
+          // Leave the events queued; the lane is submitted again the next time it is posted to.
+          lane.scheduled.set(false);
+          if (rejected == null) {
+            rejected = e;
+          }
+        }
+      }
+    } finally {
+      ready.clear();
+    }
+    if (rejected != null) {
+      throw rejected;
+    }
+  }
+
+  private HandlerLane laneFor(EventHandler handler) {
+    while (true) {
+      HandlerLane lane = lanes.get(handler);
+      // An equal handler from a previous registration of the same object may still own a lane.
+      if (lane != null && lane.handler == handler) {
+        return lane;
+      }
+      HandlerLane created = new HandlerLane(handler);
+      if (lane == null ? lanes.putIfAbsent(handler, created) == null : lanes.replace(handler, lane, created)) {
+        return created;
+      }
+    }
+  }
+
+  /** Events waiting for one handler, delivered by at most one executor task at a time. */
+  private final class HandlerLane implements Runnable {
+    final EventHandler handler;
+    /** The bus's executor, or the one the handler's {@link DeliveryMode} calls for. */
+    final Executor executor;
+    final Queue<Object> events = new ConcurrentLinkedQueue<Object>();
+    /** True while the lane is waiting to be submitted, queued on the executor, or running. */
+    final AtomicBoolean scheduled = new AtomicBoolean();
+
+    HandlerLane(EventHandler handler) {
+      this.handler = handler;
+      this.executor =
+          handler.getDelivery() == DeliveryMode.POSTING ? AsyncBus.this.executor : deliveryExecutor(handler);
+    }
+
+    @Override public void run() {
+      try {
+        Object event;
+        while ((event = events.poll()) != null) {
+          if (handler.isConflating()) {
+            event = handler.takeConflated();
+          }
+          if (handler.isValid()) {
+            dispatch(event, handler);
+          } else {
+            DeliveryFuture.skip(event, handler);
+          }
+        }
+      } finally {
+        scheduled.set(false);
+        if (!handler.isValid()) {
+          Object event;
+          while ((event = events.poll()) != null) {
+            DeliveryFuture.skip(handler.isConflating() ? handler.takeConflated() : event, handler);
+          }
+          lanes.remove(handler, this);
+        } else if (!events.isEmpty() && scheduled.compareAndSet(false, true)) {
+          // Events offered after the last poll, or left behind by a throwing handler.
+          executor.execute(this);
+        }
+      }
+    }
+  }
+}
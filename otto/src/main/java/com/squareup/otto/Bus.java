@@ -17,17 +17,26 @@
 
 package com.squareup.otto;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -58,7 +67,8 @@ import java.util.concurrent.CopyOnWriteArraySet;
  *
  * <p>When {@code post} is called, all registered handlers for an event are run in sequence, so handlers should be
  * reasonably quick.  If an event may trigger an extended process (such as a database load), spawn a thread or queue it
- * for later.
+ * for later, or declare the handler with a {@link Subscribe#delivery() delivery mode} which calls it off the posting
+ * thread.
  *
  * <h2>Handler Methods</h2>
  * Event handler methods must accept only one argument: the event.
@@ -66,6 +76,9 @@ import java.util.concurrent.CopyOnWriteArraySet;
  * <p>Handlers should not, in general, throw.  If they do, the Bus will wrap the exception and
  * re-throw it.
  *
+ * <p>Listener classes compiled with the Otto annotation processor have their handler and producer methods called
+ * directly through a generated {@link ListenerAdapter}. All other listeners are called through reflection.
+ *
  * <p>The Bus by default enforces that all interactions occur on the main thread.  You can provide an alternate
  * enforcement by passing a {@link ThreadEnforcer} to the constructor.
  *
@@ -87,9 +100,51 @@ import java.util.concurrent.CopyOnWriteArraySet;
 public class Bus {
   public static final String DEFAULT_IDENTIFIER = "default";
 
+  /** Events buffered for each subscriber of a publisher from {@link #asPublisher(Class)}. */
+  public static final int DEFAULT_PUBLISHER_BUFFER_SIZE = 256;
+
+  /**
+   * Name under which to {@linkplain #registerExecutor register} the executor which makes the timed posts of
+   * {@link #postDelayed} and {@link #postAtFixedRate} and releases {@linkplain Subscribe#debounceMillis() debounced}
+   * events. Without one they run on the bus's timer thread, so a bus whose {@link ThreadEnforcer} confines it to a
+   * thread, such as {@link ThreadEnforcer#MAIN}, needs one which runs them on that thread.
+   */
+  public static final String TIMER_EXECUTOR = "otto.timer";
+
+  /** Resolved handlers of an event class which nothing handles. */
+  private static final EventHandler[] NO_HANDLERS = new EventHandler[0];
+
+  /** Primitive types which handler methods may take. */
+  private static final Class<?>[] PRIMITIVE_EVENT_TYPES = {int.class, long.class, double.class};
+
+  /** Most collected listeners whose registrations are cancelled by one call to {@link #post(Object)} or register. */
+  static final int PURGE_LIMIT = 16;
+
   /** All registered event handlers, indexed by event type. */
-  private final ConcurrentMap<Class<?>, Set<EventHandler>> handlersByType =
-          new ConcurrentHashMap<Class<?>, Set<EventHandler>>();
+  private final ConcurrentMap<Class<?>, HandlerSet> handlersByType =
+          new ConcurrentHashMap<Class<?>, HandlerSet>();
+
+  /**
+   * Every handler an event of a given concrete class is delivered to, resolved across its whole type hierarchy.
+   * Entries are built on the first post of each class after a type in that hierarchy gains or loses handlers, always
+   * while holding {@link #dispatchTableLock}. A class without handlers maps to {@link #NO_HANDLERS}, so posting it
+   * again costs a single lookup until a handler for its hierarchy is registered.
+   */
+  private final ConcurrentMap<Class<?>, EventHandler[]> dispatchTable =
+          new ConcurrentHashMap<Class<?>, EventHandler[]>();
+
+  /** Serializes building and replacing {@link #dispatchTable} entries. */
+  private final Object dispatchTableLock = new Object();
+
+  /**
+   * Classes which have had a {@link #dispatchTable} entry, indexed by every type in their hierarchy, so that a change
+   * to the handlers of a type finds the entries it affects without walking the table. Guarded by
+   * {@link #dispatchTableLock}.
+   */
+  private final Map<Class<?>, Set<Class<?>>> dispatchTableIndex = new HashMap<Class<?>, Set<Class<?>>>();
+
+  /** Incremented whenever {@link #dispatchTable} entries are replaced, so that copies of them can be discarded. */
+  private volatile int dispatchTableVersion;
 
   /** All registered event producers, index by event type. */
   private final ConcurrentMap<Class<?>, EventProducer> producersByType =
@@ -104,18 +159,31 @@ public class Bus {
   /** Used to find handler methods in register and unregister. */
   private final HandlerFinder handlerFinder;
 
-  /** Queues of events for the current thread to dispatch. */
-  private final ThreadLocal<ConcurrentLinkedQueue<EventWithHandler>> eventsToDispatch =
-      new ThreadLocal<ConcurrentLinkedQueue<EventWithHandler>>() {
-        @Override protected ConcurrentLinkedQueue<EventWithHandler> initialValue() {
-          return new ConcurrentLinkedQueue<EventWithHandler>();
-        }
-      };
+  /** Executors for {@link DeliveryMode#EXECUTOR} handlers, by name. */
+  private final ConcurrentMap<String, Executor> executors = new ConcurrentHashMap<String, Executor>();
 
-  /** True if the current thread is currently dispatching an event. */
-  private final ThreadLocal<Boolean> isDispatching = new ThreadLocal<Boolean>() {
-    @Override protected Boolean initialValue() {
-      return false;
+  /** Calls {@link DeliveryMode#BACKGROUND} handlers; created when first needed. */
+  private volatile Executor backgroundLane;
+
+  /** Posts the events of {@link #postDelayed} and {@link #postAtFixedRate}; created when first needed. */
+  private volatile BusTimer timer;
+
+  /**
+   * Whether primitive channels may call handlers directly, without {@link #enqueueEvent} and {@link #dispatch}. False
+   * for subclasses which override either of them or {@link #dispatchQueuedEvents}.
+   */
+  private final boolean dispatchesInline = !overridesDispatch(getClass());
+
+  /** Where the references to weakly registered listeners are enqueued once the listeners have been collected. */
+  private final ReferenceQueue<Object> collectedListeners = new ReferenceQueue<Object>();
+
+  /** Number of handlers removed because their weakly registered listener was collected. */
+  private final AtomicLong reclaimedHandlers = new AtomicLong();
+
+  /** Queue of events for the current thread to dispatch, and whether the thread is currently dispatching them. */
+  private final ThreadLocal<DispatchQueue> dispatchQueue = new ThreadLocal<DispatchQueue>() {
+    @Override protected DispatchQueue initialValue() {
+      return new DispatchQueue();
     }
   };
 
@@ -149,7 +217,7 @@ public class Bus {
    * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
    */
   public Bus(ThreadEnforcer enforcer, String identifier) {
-    this(enforcer, identifier, HandlerFinder.ANNOTATED);
+    this(enforcer, identifier, HandlerFinder.GENERATED);
   }
 
   /**
@@ -179,65 +247,163 @@ public class Bus {
    * the value from the result of calling the producer.
    *
    * @param object object whose handler methods should be registered.
+   * @return a handle which unregisters exactly what this call registered.
+   * @throws NullPointerException if the object is null.
+   */
+  public Registration register(Object object) {
+    return register(object, false);
+  }
+
+  /**
+   * Registers {@code object} like {@link #register(Object)}, but without keeping it reachable. Once the garbage
+   * collector reclaims the object its handlers stop receiving events, and they are removed in batches by later calls
+   * to {@link #post(Object)} and {@code register}. Weak registration suits listeners whose lifecycle ends without a
+   * reliable place to unregister them; it is not a substitute for unregistering, as the handlers keep receiving events
+   * until the object is actually collected.
+   *
+   * @param object object whose handler methods should be registered.
+   * @return a handle which unregisters exactly what this call registered.
    * @throws NullPointerException if the object is null.
+   * @see #getReclaimedHandlerCount()
+   */
+  public Registration registerWeakly(Object object) {
+    return register(object, true);
+  }
+
+  /**
+   * Registers {@code object} with the handler and producer methods of {@code template} instead of those of its class,
+   * for listeners which subscribe programmatically.
    */
-  public void register(Object object) {
+  Registration register(Object object, ListenerTemplate template) {
+    if (object == null) {
+      throw new NullPointerException("Object to register must not be null.");
+    }
+    return register(object, template, false);
+  }
+
+  private Registration register(Object object, boolean weak) {
     if (object == null) {
       throw new NullPointerException("Object to register must not be null.");
     }
+    return register(object, handlerFinder.findTemplate(object.getClass()), weak);
+  }
+
+  private Registration register(Object object, ListenerTemplate template, boolean weak) {
     enforcer.enforce(this);
+    purgeCollectedListeners();
+
+    SubscriberMethod[] subscribers = template.subscribers;
+    for (SubscriberMethod subscriber : subscribers) {
+      String executorName = subscriber.executor;
+      if (executorName != null && !executors.containsKey(executorName)) {
+        throw new IllegalArgumentException("Handler " + subscriber.invoker + " is delivered by executor \""
+            + executorName + "\", but no executor of that name is registered with " + this + ".");
+      }
+    }
 
-    Map<Class<?>, EventProducer> foundProducers = handlerFinder.findAllProducers(object);
-    for (Class<?> type : foundProducers.keySet()) {
+    // Handlers and producers of a weak registration reach the object only through the reference.
+    ListenerReference reference = weak ? new ListenerReference(object, collectedListeners) : null;
+    Object target = weak ? reference : object;
+    EventHandler[] handlers = new EventHandler[subscribers.length];
+    for (int i = 0; i < handlers.length; i++) {
+      handlers[i] = new EventHandler(target, subscribers[i]);
+    }
+    EventProducer[] producers = new EventProducer[template.producers.length];
+    for (int i = 0; i < producers.length; i++) {
+      producers[i] = new EventProducer(target, template.producers[i]);
+    }
+    Registration registration = new Registration(this, template, handlers, producers);
+    if (weak) {
+      // Before anything is installed, so that whatever is installed is purged should the object be collected early.
+      reference.registration = registration;
+    }
 
-      final EventProducer producer = foundProducers.get(type);
+    for (int i = 0; i < producers.length; i++) {
+      Class<?> type = template.producedTypes[i];
+      final EventProducer producer = producers[i];
       EventProducer previousProducer = producersByType.putIfAbsent(type, producer);
+      if (previousProducer != null && previousProducer.getTarget() == null
+          && producersByType.replace(type, previousProducer, producer)) {
+        // The previous producer's object was registered weakly and has been collected.
+        previousProducer.invalidate();
+        previousProducer = null;
+      }
       //checking if the previous producer existed
       if (previousProducer != null) {
         throw new IllegalArgumentException("Producer method for type " + type
-          + " found on type " + producer.target.getClass()
-          + ", but already registered by type " + previousProducer.target.getClass() + ".");
+          + " found on type " + object.getClass()
+          + ", but already registered by type " + previousProducer.getTarget().getClass() + ".");
       }
-      Set<EventHandler> handlers = handlersByType.get(type);
-      if (handlers != null && !handlers.isEmpty()) {
-        for (EventHandler handler : handlers) {
+      Set<EventHandler> typeHandlers = handlersByType.get(type);
+      if (typeHandlers != null && !typeHandlers.isEmpty()) {
+        for (EventHandler handler : typeHandlers) {
           dispatchProducerResultToHandler(handler, producer);
         }
       }
     }
 
-    Map<Class<?>, Set<EventHandler>> foundHandlersMap = handlerFinder.findAllSubscribers(object);
-    for (Class<?> type : foundHandlersMap.keySet()) {
-      Set<EventHandler> handlers = handlersByType.get(type);
-      if (handlers == null) {
-        //concurrent put if absent
-        Set<EventHandler> handlersCreation = new CopyOnWriteArraySet<EventHandler>();
-        handlers = handlersByType.putIfAbsent(type, handlersCreation);
-        if (handlers == null) {
-            handlers = handlersCreation;
+    Class<?>[] types = template.types;
+    try {
+      for (int t = 0; t < types.length; t++) {
+        HandlerSet typeHandlers = handlersByType.get(types[t]);
+        if (typeHandlers == null) {
+          //concurrent put if absent
+          HandlerSet handlersCreation = new HandlerSet();
+          typeHandlers = handlersByType.putIfAbsent(types[t], handlersCreation);
+          if (typeHandlers == null) {
+              typeHandlers = handlersCreation;
+          }
+        }
+        boolean added = false;
+        for (int i = template.typeStarts[t]; i < template.typeStarts[t + 1]; i++) {
+          added |= typeHandlers.add(handlers[i]);
+        }
+        if (!added) {
+          throw new IllegalArgumentException("Object already registered.");
         }
       }
-      final Set<EventHandler> foundHandlers = foundHandlersMap.get(type);
-      if (!handlers.addAll(foundHandlers)) {
-        throw new IllegalArgumentException("Object already registered.");
-      }
+    } finally {
+      refreshDispatchTable(template.subscribedTypes);
     }
 
-    for (Map.Entry<Class<?>, Set<EventHandler>> entry : foundHandlersMap.entrySet()) {
-      Class<?> type = entry.getKey();
-      EventProducer producer = producersByType.get(type);
+    for (int t = 0; t < types.length; t++) {
+      EventProducer producer = producersByType.get(types[t]);
       if (producer != null && producer.isValid()) {
-        Set<EventHandler> foundHandlers = entry.getValue();
-        for (EventHandler foundHandler : foundHandlers) {
+        for (int i = template.typeStarts[t]; i < template.typeStarts[t + 1]; i++) {
           if (!producer.isValid()) {
             break;
           }
-          if (foundHandler.isValid()) {
-            dispatchProducerResultToHandler(foundHandler, producer);
+          if (handlers[i].isValid()) {
+            dispatchProducerResultToHandler(handlers[i], producer);
           }
         }
       }
     }
+
+    return registration;
+  }
+
+  /**
+   * Registers {@code executor} to call the handlers declared with {@link DeliveryMode#EXECUTOR} and an
+   * {@link Subscribe#executor() executor name} of {@code name}. Executors must be registered before the listeners
+   * which use them.
+   *
+   * @param name name used by {@link Subscribe#executor()}.
+   * @param executor calls the handlers.
+   * @throws IllegalArgumentException if an executor is already registered under {@code name}.
+   * @throws NullPointerException if the name or executor is null.
+   */
+  public void registerExecutor(String name, Executor executor) {
+    if (name == null) {
+      throw new NullPointerException("Executor name must not be null.");
+    }
+    if (executor == null) {
+      throw new NullPointerException("Executor must not be null.");
+    }
+    Executor previous = executors.putIfAbsent(name, executor);
+    if (previous != null) {
+      throw new IllegalArgumentException("Executor \"" + name + "\" is already registered with " + this + ".");
+    }
   }
 
   private void dispatchProducerResultToHandler(EventHandler handler, EventProducer producer) {
@@ -250,11 +416,18 @@ public class Bus {
     if (event == null) {
       return;
     }
+    deliverProduced(event, handler);
+  }
+
+  /** Delivers the event a producer made for a newly registered handler, or for a handler of a new producer. */
+  void deliverProduced(Object event, EventHandler handler) {
     dispatch(event, handler);
   }
 
   /**
-   * Unregisters all producer and handler methods on a registered {@code object}.
+   * Unregisters all producer and handler methods on a registered {@code object}. This finds the object's methods
+   * again in order to match them with the registered ones; {@link Registration#cancel()} on the handle returned by
+   * {@link #register(Object)} does not.
    *
    * @param object object whose producer and handler methods should be unregistered.
    * @throws IllegalArgumentException if the object was not previously registered.
@@ -266,13 +439,13 @@ public class Bus {
     }
     enforcer.enforce(this);
 
-    Map<Class<?>, EventProducer> producersInListener = handlerFinder.findAllProducers(object);
-    for (Map.Entry<Class<?>, EventProducer> entry : producersInListener.entrySet()) {
-      final Class<?> key = entry.getKey();
+    ListenerTemplate template = handlerFinder.findTemplate(object.getClass());
+    for (int i = 0; i < template.producers.length; i++) {
+      final Class<?> key = template.producedTypes[i];
       EventProducer producer = getProducerForEventType(key);
-      EventProducer value = entry.getValue();
+      EventProducer value = new EventProducer(object, template.producers[i]);
 
-      if (value == null || !value.equals(producer)) {
+      if (!value.equals(producer)) {
         throw new IllegalArgumentException(
             "Missing event producer for an annotated method. Is " + object.getClass()
                 + " registered?");
@@ -280,24 +453,118 @@ public class Bus {
       producersByType.remove(key).invalidate();
     }
 
-    Map<Class<?>, Set<EventHandler>> handlersInListener = handlerFinder.findAllSubscribers(object);
-    for (Map.Entry<Class<?>, Set<EventHandler>> entry : handlersInListener.entrySet()) {
-      Set<EventHandler> currentHandlers = getHandlersForEventType(entry.getKey());
-      Collection<EventHandler> eventMethodsInListener = entry.getValue();
+    Class<?>[] types = template.types;
+    List<EventHandler> removed = new ArrayList<EventHandler>();
+    try {
+      for (int t = 0; t < types.length; t++) {
+        HandlerSet currentHandlers = handlersByType.get(types[t]);
+        List<EventHandler> eventMethodsInListener = new ArrayList<EventHandler>();
+        for (int i = template.typeStarts[t]; i < template.typeStarts[t + 1]; i++) {
+          eventMethodsInListener.add(new EventHandler(object, template.subscribers[i]));
+        }
 
-      if (currentHandlers == null || !currentHandlers.containsAll(eventMethodsInListener)) {
-        throw new IllegalArgumentException(
-            "Missing event handler for an annotated method. Is " + object.getClass()
-                + " registered?");
+        if (currentHandlers == null || !currentHandlers.containsAll(eventMethodsInListener)) {
+          throw new IllegalArgumentException(
+              "Missing event handler for an annotated method. Is " + object.getClass()
+                  + " registered?");
+        }
+
+        for (EventHandler handler : eventMethodsInListener) {
+          EventHandler registered = currentHandlers.take(handler);
+          if (registered != null) {
+            registered.invalidate();
+            removed.add(registered);
+          }
+        }
+      }
+    } finally {
+      refreshDispatchTable(template.subscribedTypes);
+    }
+    handlersUnregistered(removed.toArray(new EventHandler[removed.size()]));
+  }
+
+  /** Unregisters what {@code registration} installed, if it is still registered. See {@link Registration#cancel()}. */
+  void cancel(Registration registration) {
+    enforcer.enforce(this);
+    if (removeInstalled(registration) != 0) {
+      refreshDispatchTable(registration.template.subscribedTypes);
+      handlersUnregistered(registration.handlers);
+    }
+  }
+
+  /**
+   * Removes and invalidates the handlers and producers installed by {@code registration} which are still registered,
+   * without refreshing the dispatch table. Returns the number of handlers removed.
+   */
+  private int removeInstalled(Registration registration) {
+    ListenerTemplate template = registration.template;
+    EventProducer[] producers = registration.producers;
+    for (int i = 0; i < producers.length; i++) {
+      // Compare by identity, as an equal producer may belong to a later registration of the same object.
+      Class<?> type = template.producedTypes[i];
+      if (producersByType.get(type) == producers[i] && producersByType.remove(type, producers[i])) {
+        producers[i].invalidate();
       }
+    }
 
-      for (EventHandler handler : currentHandlers) {
-        if (eventMethodsInListener.contains(handler)) {
-          handler.invalidate();
+    EventHandler[] handlers = registration.handlers;
+    int removed = 0;
+    for (int t = 0; t < template.types.length; t++) {
+      HandlerSet typeHandlers = handlersByType.get(template.types[t]);
+      for (int i = template.typeStarts[t]; typeHandlers != null && i < template.typeStarts[t + 1]; i++) {
+        if (typeHandlers.discard(handlers[i])) {
+          handlers[i].invalidate();
+          removed++;
         }
       }
-      currentHandlers.removeAll(eventMethodsInListener);
     }
+    return removed;
+  }
+
+  /**
+   * Cancels the registrations of weakly registered listeners which have been collected, at most
+   * {@link #PURGE_LIMIT} of them so that the caller is not held up for long. Any others are left for the next call.
+   */
+  void purgeCollectedListeners() {
+    Reference<?> collected = collectedListeners.poll();
+    if (collected == null) {
+      return;
+    }
+    Set<Class<?>> changedTypes = new HashSet<Class<?>>();
+    List<Registration> purged = new ArrayList<Registration>();
+    for (int polled = 1; collected != null; polled++) {
+      Registration registration = ((ListenerReference) collected).registration;
+      int removed = registration == null ? 0 : removeInstalled(registration);
+      if (removed != 0) {
+        reclaimedHandlers.addAndGet(removed);
+        changedTypes.addAll(registration.template.subscribedTypes);
+        purged.add(registration);
+      }
+      collected = polled < PURGE_LIMIT ? collectedListeners.poll() : null;
+    }
+
+    refreshDispatchTable(changedTypes);
+    for (Registration registration : purged) {
+      handlersUnregistered(registration.handlers);
+    }
+  }
+
+  /**
+   * Returns the number of handlers this bus has removed because the listener they belong to was
+   * {@link #registerWeakly(Object) registered weakly} and then collected without being unregistered. A growing count
+   * points at listeners which are never unregistered.
+   */
+  public long getReclaimedHandlerCount() {
+    return reclaimedHandlers.get();
+  }
+
+  /**
+   * Called after {@code handlers} have been unregistered and invalidated, for subclasses which keep state per handler
+   * or listener. The handlers all belong to one listener.
+   *
+   * @param handlers the handlers which were removed.
+   */
+  void handlersUnregistered(EventHandler[] handlers) {
   }
 
   /**
@@ -305,7 +572,8 @@ public class Bus {
    * all handlers, and regardless of any exceptions thrown by handlers.
    *
    * <p>If no handlers have been subscribed for {@code event}'s class, and {@code event} is not already a
-   * {@link DeadEvent}, it will be wrapped in a DeadEvent and reposted.
+   * {@link DeadEvent}, it will be wrapped in a DeadEvent and reposted. The DeadEvent is only created if a handler
+   * would receive it.
    *
    * @param event event to post.
    * @throws NullPointerException if the event is null.
@@ -315,34 +583,337 @@ public class Bus {
       throw new NullPointerException("Event to post must not be null.");
     }
     enforcer.enforce(this);
+    purgeCollectedListeners();
+
+    postToHandlers(event, getHandlersForEventClass(event.getClass()));
+  }
+
+  /**
+   * Posts an event to all registered handlers, as {@link #post(Object)} does, and returns a future which completes
+   * once every handler it was posted to has been called or unregistered. Handlers which run on the posting thread have
+   * run by the time this method returns unless it is called from a handler; the future tells when the others, such as
+   * those of an {@link AsyncBus} or with an {@link Subscribe#delivery() executor delivery}, are done. An event without
+   * handlers completes at once, and is wrapped in a {@link DeadEvent} as usual.
+   *
+   * @param event event to post.
+   * @return the delivery of the event, which reports what each handler did and how long it took.
+   * @throws NullPointerException if the event is null.
+   */
+  public DeliveryFuture postAsync(Object event) {
+    if (event == null) {
+      throw new NullPointerException("Event to post must not be null.");
+    }
+    enforcer.enforce(this);
+    purgeCollectedListeners();
+
+    DeliveryFuture delivery = new DeliveryFuture(event, getHandlersForEventClass(event.getClass()));
+    // The future is queued in place of the event, and records each handler's outcome as it is dispatched.
+    postToHandlers(delivery.handlers.length != 0 ? delivery : event, delivery.handlers);
+    return delivery;
+  }
+
+  /**
+   * Posts {@code event} once {@code delay} has passed, as {@link #post(Object)} does but from this bus's timer thread
+   * or, if one is registered, its {@link #TIMER_EXECUTOR}, which the bus's {@link ThreadEnforcer} must accept posts
+   * from. Exceptions thrown on the timer thread are passed to its uncaught exception handler. The delay is rounded up
+   * to the timer's 1 ms tick; a negative delay counts as none.
+   *
+   * <p>Scheduled posts are kept in a hierarchical timing wheel, so scheduling and cancelling one take constant time
+   * however many are pending.
+   *
+   * @param event event to post.
+   * @param delay time to wait before posting, in {@code unit}s.
+   * @param unit unit of the delay.
+   * @return a handle which cancels the post.
+   * @throws NullPointerException if the event or unit is null.
+   */
+  public ScheduledPost postDelayed(Object event, long delay, TimeUnit unit) {
+    if (event == null) {
+      throw new NullPointerException("Event to post must not be null.");
+    }
+    if (unit == null) {
+      throw new NullPointerException("Time unit must not be null.");
+    }
+    return timer().schedule(event, Math.max(unit.toNanos(delay), 0), 0);
+  }
+
+  /**
+   * Posts {@code event} once {@code initialDelay} has passed and then every {@code period}, from this bus's timer
+   * thread or {@link #TIMER_EXECUTOR} as {@link #postDelayed} does, until the returned handle is cancelled. Each post
+   * is due one period after the previous one was due, so a post which comes late is followed by the next one as soon
+   * as that is due.
+   *
+   * @param event event to post.
+   * @param initialDelay time to wait before the first post, in {@code unit}s.
+   * @param period time between posts, in {@code unit}s. Rounded up to the timer's 1 ms tick.
+   * @param unit unit of the delay and period.
+   * @return a handle which cancels further posts.
+   * @throws NullPointerException if the event or unit is null.
+   * @throws IllegalArgumentException if the period is not positive.
+   */
+  public ScheduledPost postAtFixedRate(Object event, long initialDelay, long period, TimeUnit unit) {
+    if (event == null) {
+      throw new NullPointerException("Event to post must not be null.");
+    }
+    if (unit == null) {
+      throw new NullPointerException("Time unit must not be null.");
+    }
+    if (period <= 0) {
+      throw new IllegalArgumentException("Period must be positive but was " + period + ".");
+    }
+    return timer().schedule(event, Math.max(unit.toNanos(initialDelay), 0), unit.toNanos(period));
+  }
+
+  /**
+   * Returns a channel which posts events of exactly {@code type} to this bus. Posting through the channel delivers
+   * events as {@link #post(Object)} does, but reuses the handlers it resolved for {@code type} until listeners are
+   * registered or unregistered, instead of looking them up for each event.
+   *
+   * @param type class of the events to post.
+   * @return a channel for {@code type}.
+   * @throws NullPointerException if the type is null.
+   */
+  public <T> Channel<T> channel(Class<T> type) {
+    if (type == null) {
+      throw new NullPointerException("Channel type must not be null.");
+    }
+    return new Channel<T>(this, type);
+  }
+
+  /**
+   * Returns a publisher of the events of {@code type} and its subclasses posted to this bus, which buffers up to
+   * {@link #DEFAULT_PUBLISHER_BUFFER_SIZE} events for each subscriber and fails a subscriber which falls further
+   * behind, as {@link OverflowPolicy#ERROR} describes.
+   *
+   * @see #asPublisher(Class, int, OverflowPolicy)
+   */
+  public <T> Flow.Publisher<T> asPublisher(Class<T> type) {
+    return asPublisher(type, DEFAULT_PUBLISHER_BUFFER_SIZE, OverflowPolicy.ERROR);
+  }
+
+  /**
+   * Returns a publisher of the events of {@code type} and its subclasses posted to this bus. Each subscriber is
+   * registered as a handler when it subscribes, which must be done on a thread this bus accepts registrations from,
+   * and unregistered when it cancels. Events it has not requested yet are buffered, up to {@code bufferSize} of them;
+   * {@code policy} decides what happens to further events. The publisher never completes.
+   *
+   * @param type class of the events to publish.
+   * @param bufferSize most events buffered for a subscriber.
+   * @param policy what to do with an event when a subscriber's buffer is full.
+   * @throws NullPointerException if the type or policy is null.
+   * @throws IllegalArgumentException if the type is an interface or a primitive type, whose events are never posted,
+   *     or if the buffer size is not positive.
+   */
+  public <T> Flow.Publisher<T> asPublisher(Class<T> type, int bufferSize, OverflowPolicy policy) {
+    if (type == null) {
+      throw new NullPointerException("Publisher type must not be null.");
+    }
+    if (type.isInterface()) {
+      throw new IllegalArgumentException("Publisher type " + type + " is an interface.  Events are only published "
+          + "for a concrete class type.");
+    }
+    if (type.isPrimitive()) {
+      throw new IllegalArgumentException("Publisher type " + type + " is primitive.  Publish its wrapper type "
+          + "instead.");
+    }
+    if (policy == null) {
+      throw new NullPointerException("Overflow policy must not be null.");
+    }
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("Buffer size must be positive but was " + bufferSize + ".");
+    }
+    return new BusPublisher<T>(this, type, bufferSize, policy);
+  }
+
+  /**
+   * Returns a channel which posts {@code int} values to this bus. Handlers taking an {@code int} are called with
+   * each value without boxing it; handlers of {@link Integer} and its supertypes receive it boxed.
+   */
+  public IntChannel intChannel() {
+    return new IntChannel(this);
+  }
+
+  /**
+   * Returns a channel which posts {@code long} values to this bus. Handlers taking a {@code long} are called with
+   * each value without boxing it; handlers of {@link Long} and its supertypes receive it boxed.
+   */
+  public LongChannel longChannel() {
+    return new LongChannel(this);
+  }
+
+  /**
+   * Returns a channel which posts {@code double} values to this bus. Handlers taking a {@code double} are called
+   * with each value without boxing it; handlers of {@link Double} and its supertypes receive it boxed.
+   */
+  public DoubleChannel doubleChannel() {
+    return new DoubleChannel(this);
+  }
+
+  /** Checks the posting thread and purges collected listeners before a channel resolves its handlers and posts. */
+  void prepareChannelPost() {
+    enforcer.enforce(this);
+    purgeCollectedListeners();
+  }
 
-    Set<Class<?>> dispatchTypes = flattenHierarchy(event.getClass());
+  /**
+   * Marks the calling thread as dispatching so that a primitive channel can call its handlers directly, and returns
+   * the thread's queue. Returns {@code null} if the value must be posted boxed through
+   * {@link #postToHandlers(Object, EventHandler[])} instead: when the thread is already dispatching, so that the value
+   * waits its turn, or when this bus queues or dispatches events differently. Unless {@code null} is returned, the
+   * caller must {@link #drain(DispatchQueue)} the queue once its handlers have returned and finally reset
+   * {@link DispatchQueue#dispatching}.
+   */
+  DispatchQueue startInlineDispatch() {
+    if (!dispatchesInline) {
+      return null;
+    }
+    DispatchQueue queue = dispatchQueue.get();
+    if (queue.dispatching) {
+      return null;
+    }
+    queue.dispatching = true;
+    return queue;
+  }
+
+  /** Queues {@code event} for {@code wrappers}, resolved for its class, and dispatches the queue. */
+  void postToHandlers(Object event, EventHandler[] wrappers) {
+    for (int i = 0; i < wrappers.length; i++) {
+      enqueueAdmitted(event, wrappers[i]);
+    }
+
+    if (wrappers.length == 0 && !(event instanceof DeadEvent) && hasDeadEventHandlers()) {
+      post(new DeadEvent(this, event));
+    }
+
+    dispatchQueuedEvents();
+  }
+
+  /**
+   * Posts every event in {@code events}, in iteration order. Delivery is the same as calling {@link #post(Object)}
+   * for each event in turn, but the thread is checked once and handlers are looked up once per distinct event class.
+   * The queue is still drained after each event, so that events posted by its handlers come before the next one.
+   *
+   * @param events events to post.
+   * @throws NullPointerException if the collection or any event is null. Nothing is posted in that case.
+   */
+  public void postAll(Collection<?> events) {
+    postAll(events.toArray());
+  }
 
-    boolean dispatched = false;
-    for (Class<?> eventType : dispatchTypes) {
-      Set<EventHandler> wrappers = getHandlersForEventType(eventType);
+  /**
+   * Posts every event in {@code events}, in order. See {@link #postAll(Collection)}.
+   *
+   * @param events events to post.
+   * @throws NullPointerException if the array or any event is null. Nothing is posted in that case.
+   */
+  public void postAll(Object... events) {
+    for (Object event : events) {
+      if (event == null) {
+        throw new NullPointerException("Event to post must not be null.");
+      }
+    }
+    enforcer.enforce(this);
+    purgeCollectedListeners();
 
-      if (wrappers != null && !wrappers.isEmpty()) {
-        dispatched = true;
-        for (EventHandler wrapper : wrappers) {
-          enqueueEvent(event, wrapper);
+    Map<Class<?>, EventHandler[]> resolved = new IdentityHashMap<Class<?>, EventHandler[]>();
+    int resolvedVersion = dispatchTableVersion;
+    DispatchQueue queue = dispatchQueue.get();
+    boolean draining = !queue.dispatching;
+    // Like post, only the outermost call drains; one nested in a handler leaves the events to the drain in progress.
+    queue.dispatching = true;
+    try {
+      for (Object event : events) {
+        if (resolvedVersion != dispatchTableVersion) {
+          // A handler registered or unregistered listeners; later events must see the change.
+          resolved.clear();
+          resolvedVersion = dispatchTableVersion;
+        }
+        queuingBatchEvent(event);
+        if (!enqueueBatchEvent(event, resolved) && !(event instanceof DeadEvent) && hasDeadEventHandlers()) {
+          enqueueBatchEvent(new DeadEvent(this, event), resolved);
+        }
+        if (draining) {
+          // Drain after each event so that events posted by its handlers come before the next one, as with post.
+          if (dispatchesInline) {
+            drain(queue);
+          } else {
+            // A subclass dispatches its own way, which only dispatchQueuedEvents knows.
+            queue.dispatching = false;
+            dispatchQueuedEvents();
+            queue.dispatching = true;
+          }
         }
       }
+    } finally {
+      queue.dispatching = !draining;
     }
 
-    if (!dispatched && !(event instanceof DeadEvent)) {
-      post(new DeadEvent(this, event));
+    dispatchQueuedEvents();
+  }
+
+  /**
+   * Called as each event of {@link #postAll(Object...)} is about to be queued, after the events posted by handlers of
+   * the previous one, in the order {@link #postToHandlers} would see them.
+   */
+  void queuingBatchEvent(Object event) {
+  }
+
+  /** Queues {@code event} for its handlers, looked up through {@code resolved}. Returns false if it has none. */
+  private boolean enqueueBatchEvent(Object event, Map<Class<?>, EventHandler[]> resolved) {
+    Class<?> eventClass = event.getClass();
+    EventHandler[] wrappers = resolved.get(eventClass);
+    if (wrappers == null) {
+      wrappers = getHandlersForEventClass(eventClass);
+      resolved.put(eventClass, wrappers);
+    }
+    for (int i = 0; i < wrappers.length; i++) {
+      enqueueAdmitted(event, wrappers[i]);
+    }
+    return wrappers.length != 0;
+  }
+
+  /**
+   * Queues {@code event} for {@code handler} with {@link #enqueueEvent}, unless the handler is
+   * {@linkplain Subscribe#throttleMillis() throttled} or {@linkplain Subscribe#debounceMillis() debounced} and its
+   * limiter drops the event or holds it back.
+   */
+  final void enqueueAdmitted(Object event, EventHandler handler) {
+    RateLimiter limiter = handler.getRateLimiter();
+    if (limiter == null || limiter.admit(event, handler, this)) {
+      enqueueEvent(event, handler);
     }
+  }
 
+  /**
+   * Queues and dispatches the event a debounced handler held back, once its quiet time has passed. Like a post, this
+   * must happen on a thread the enforcer accepts.
+   */
+  void release(Object event, EventHandler handler) {
+    try {
+      enforcer.enforce(this);
+    } catch (RuntimeException e) {
+      DeliveryFuture.skip(event, handler);
+      throw e;
+    }
+    enqueueEvent(event, handler);
     dispatchQueuedEvents();
   }
 
   /**
    * Queue the {@code event} for dispatch during {@link #dispatchQueuedEvents()}. Events are queued in-order of
-   * occurrence so they can be dispatched in the same order.
+   * occurrence so they can be dispatched in the same order. For a {@linkplain Subscribe#conflate() conflating}
+   * handler which is already queued, {@code event} replaces the queued event instead.
    */
   protected void enqueueEvent(Object event, EventHandler handler) {
-    eventsToDispatch.get().offer(new EventWithHandler(event, handler));
+    if (handler.isConflating()) {
+      Object replaced = handler.conflate(event);
+      if (replaced != null) {
+        // Replaced the event already queued for this handler.
+        DeliveryFuture.skip(replaced, handler);
+        return;
+      }
+    }
+    dispatchQueue.get().offer(event, handler);
   }
 
   /**
@@ -352,35 +923,125 @@ public class Bus {
   protected void dispatchQueuedEvents() {
     // don't dispatch if we're already dispatching, that would allow reentrancy and out-of-order events. Instead, leave
     // the events to be dispatched after the in-progress dispatch is complete.
-    if (isDispatching.get()) {
+    DispatchQueue queue = dispatchQueue.get();
+    if (queue.dispatching) {
       return;
     }
 
-    isDispatching.set(true);
+    queue.dispatching = true;
+    try {
+      drain(queue);
+    } finally {
+      queue.dispatching = false;
+    }
+  }
+
+  /** Dispatches queued events until {@code queue}, including anything queued meanwhile, is empty. */
+  void drain(DispatchQueue queue) {
+    while (!queue.isEmpty()) {
+      Object event = queue.peekEvent();
+      EventHandler handler = queue.peekHandler();
+      queue.remove();
+
+      if (handler.getDelivery() != DeliveryMode.POSTING) {
+        dispatchOffThread(event, handler);
+        continue;
+      }
+      if (handler.isConflating()) {
+        event = handler.takeConflated();
+      }
+      if (handler.isValid()) {
+        dispatch(event, handler);
+      } else {
+        DeliveryFuture.skip(event, handler);
+      }
+    }
+  }
+
+  /** Hands {@code event} to the executor or background lane which calls {@code handler}. */
+  void dispatchOffThread(final Object event, final EventHandler handler) {
+    Executor executor = deliveryExecutor(handler);
     try {
-      while (true) {
-        EventWithHandler eventWithHandler = eventsToDispatch.get().poll();
-        if (eventWithHandler == null) {
-          break;
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          // A conflating handler stays queued until now, so that it is called with the newest event.
+          Object newest = handler.isConflating() ? handler.takeConflated() : event;
+          if (handler.isValid()) {
+            dispatch(newest, handler);
+          } else {
+            DeliveryFuture.skip(newest, handler);
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      DeliveryFuture.skip(handler.isConflating() ? handler.takeConflated() : event, handler);
+      throw e;
+    }
+  }
+
+  /** Returns the executor which calls {@code handler}, whose delivery mode is not {@link DeliveryMode#POSTING}. */
+  Executor deliveryExecutor(EventHandler handler) {
+    return handler.getDelivery() == DeliveryMode.BACKGROUND
+        ? backgroundLane() : executors.get(handler.getExecutorName());
+  }
+
+  private Executor backgroundLane() {
+    Executor lane = backgroundLane;
+    if (lane == null) {
+      synchronized (executors) {
+        lane = backgroundLane;
+        if (lane == null) {
+          lane = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "Otto " + identifier + " background");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+          backgroundLane = lane;
         }
+      }
+    }
+    return lane;
+  }
 
-        if (eventWithHandler.handler.isValid()) {
-          dispatch(eventWithHandler.event, eventWithHandler.handler);
+  /** Returns the executor registered as {@link #TIMER_EXECUTOR}, or {@code null}. */
+  Executor timerExecutor() {
+    return executors.get(TIMER_EXECUTOR);
+  }
+
+  BusTimer timer() {
+    BusTimer current = timer;
+    if (current == null) {
+      synchronized (executors) {
+        current = timer;
+        if (current == null) {
+          current = new BusTimer(this, identifier);
+          timer = current;
         }
       }
-    } finally {
-      isDispatching.set(false);
     }
+    return current;
   }
 
   /**
    * Dispatches {@code event} to the handler in {@code wrapper}.  This method is an appropriate override point for
-   * subclasses that wish to make event delivery asynchronous.
+   * subclasses that wish to make event delivery asynchronous. An event posted with {@link #postAsync(Object)} arrives
+   * as its {@link DeliveryFuture}, which overrides must pass on to this implementation to call the handler.
    *
    * @param event event to dispatch.
    * @param wrapper wrapper that will call the handler.
    */
   protected void dispatch(Object event, EventHandler wrapper) {
+    if (event instanceof DeliveryFuture) {
+      ((DeliveryFuture) event).dispatch(wrapper);
+    } else {
+      invokeHandler(event, wrapper);
+    }
+  }
+
+  /** Calls the handler in {@code wrapper} with {@code event}, wrapping what it throws in a RuntimeException. */
+  static void invokeHandler(Object event, EventHandler wrapper) {
     try {
       wrapper.handleEvent(event);
     } catch (InvocationTargetException e) {
@@ -411,6 +1072,92 @@ public class Bus {
     return handlersByType.get(type);
   }
 
+  /**
+   * Retrieves every handler which receives events of exactly {@code eventClass}, including handlers registered for its
+   * supertypes. The returned array is shared and must not be modified.
+   *
+   * @param eventClass concrete class of a posted event.
+   * @return resolved handlers, possibly empty.
+   */
+  EventHandler[] getHandlersForEventClass(Class<?> eventClass) {
+    EventHandler[] handlers = dispatchTable.get(eventClass);
+    if (handlers == null) {
+      synchronized (dispatchTableLock) {
+        handlers = dispatchTable.get(eventClass);
+        if (handlers == null) {
+          handlers = resolveHandlers(eventClass);
+          dispatchTable.put(eventClass, handlers);
+          indexDispatchTableEntry(eventClass);
+        }
+      }
+    }
+    return handlers;
+  }
+
+  /** Returns a number which changes whenever handlers returned by {@link #getHandlersForEventClass} may be stale. */
+  int getDispatchTableVersion() {
+    return dispatchTableVersion;
+  }
+
+  /**
+   * Returns true if an event without handlers must still be passed to {@link #postToHandlers}, which is when a
+   * {@link DeadEvent} would be delivered to at least one handler.
+   */
+  boolean observesUnhandledEvents() {
+    return hasDeadEventHandlers();
+  }
+
+  /** Returns true if a {@link DeadEvent} would be delivered to at least one handler. */
+  boolean hasDeadEventHandlers() {
+    return getHandlersForEventClass(DeadEvent.class).length != 0;
+  }
+
+  /**
+   * Drops the {@link #dispatchTable} entry of every posted class whose hierarchy includes one of
+   * {@code changedTypes}, so that it is resolved again on the next post. Must be called after the handler sets of
+   * those types have been modified. Resolving lazily keeps registering many listeners of a type linear in their
+   * number.
+   */
+  private void refreshDispatchTable(Set<Class<?>> changedTypes) {
+    if (changedTypes.isEmpty()) {
+      return;
+    }
+    synchronized (dispatchTableLock) {
+      for (Class<?> changedType : changedTypes) {
+        Set<Class<?>> eventClasses = dispatchTableIndex.get(changedType);
+        if (eventClasses != null) {
+          for (Class<?> eventClass : eventClasses) {
+            dispatchTable.remove(eventClass);
+          }
+        }
+      }
+      dispatchTableVersion++;
+    }
+  }
+
+  /** Records the new {@link #dispatchTable} entry of {@code eventClass} under every type in its hierarchy. */
+  private void indexDispatchTableEntry(Class<?> eventClass) {
+    for (Class<?> eventType : flattenHierarchy(eventClass)) {
+      Set<Class<?>> eventClasses = dispatchTableIndex.get(eventType);
+      if (eventClasses == null) {
+        eventClasses = new HashSet<Class<?>>();
+        dispatchTableIndex.put(eventType, eventClasses);
+      }
+      eventClasses.add(eventClass);
+    }
+  }
+
+  private EventHandler[] resolveHandlers(Class<?> eventClass) {
+    List<EventHandler> handlers = new ArrayList<EventHandler>();
+    for (Class<?> eventType : flattenHierarchy(eventClass)) {
+      HandlerSet wrappers = handlersByType.get(eventType);
+      if (wrappers != null) {
+        handlers.addAll(Arrays.asList(wrappers.snapshot()));
+      }
+    }
+    return handlers.isEmpty() ? NO_HANDLERS : handlers.toArray(new EventHandler[handlers.size()]);
+  }
+
   /**
    * Flattens a class's type hierarchy into a set of Class objects.  The set will include all superclasses
    * (transitively), and all interfaces implemented by these superclasses.
@@ -446,15 +1193,56 @@ public class Bus {
         parents.add(parent);
       }
     }
+    // Handlers taking the primitive type receive events of its wrapper class, unboxed.
+    for (Class<?> primitive : PRIMITIVE_EVENT_TYPES) {
+      if (wrapperOf(primitive) == concreteClass) {
+        classes.add(primitive);
+      }
+    }
     return classes;
   }
 
+  /** Returns the wrapper class of {@code type} if handlers may take that primitive type, otherwise {@code null}. */
+  static Class<?> wrapperOf(Class<?> type) {
+    if (type == int.class) {
+      return Integer.class;
+    }
+    if (type == long.class) {
+      return Long.class;
+    }
+    if (type == double.class) {
+      return Double.class;
+    }
+    return null;
+  }
+
+  /** Returns true if {@code busClass} overrides how events are queued or dispatched. */
+  private static boolean overridesDispatch(Class<?> busClass) {
+    for (Class<?> type = busClass; type != Bus.class; type = type.getSuperclass()) {
+      if (declares(type, "enqueueEvent", Object.class, EventHandler.class)
+          || declares(type, "dispatchQueuedEvents")
+          || declares(type, "dispatch", Object.class, EventHandler.class)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean declares(Class<?> type, String name, Class<?>... parameterTypes) {
+    try {
+      type.getDeclaredMethod(name, parameterTypes);
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
   /**
    * Throw a {@link RuntimeException} with given message and cause lifted from an {@link
    * InvocationTargetException}. If the specified {@link InvocationTargetException} does not have a
    * cause, neither will the {@link RuntimeException}.
    */
-  private static void throwRuntimeException(String msg, InvocationTargetException e) {
+  static void throwRuntimeException(String msg, InvocationTargetException e) {
     Throwable cause = e.getCause();
     if (cause != null) {
       throw new RuntimeException(msg + ": " + cause.getMessage(), cause);
@@ -466,14 +1254,65 @@ public class Bus {
   private final ConcurrentMap<Class<?>, Set<Class<?>>> flattenHierarchyCache =
       new ConcurrentHashMap<Class<?>, Set<Class<?>>>();
 
-  /** Simple struct representing an event and its handler. */
-  static class EventWithHandler {
-    final Object event;
-    final EventHandler handler;
+  /**
+   * Per-thread FIFO of events and their handlers, stored in parallel ring buffers so that queueing allocates nothing
+   * once the buffers have grown to the thread's peak backlog. Only ever touched by its owning thread.
+   */
+  static final class DispatchQueue {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** True while the owning thread is draining this queue. */
+    boolean dispatching;
+
+    private Object[] events = new Object[INITIAL_CAPACITY];
+    private EventHandler[] handlers = new EventHandler[INITIAL_CAPACITY];
+    /** Index of the oldest entry. */
+    private int head;
+    private int size;
+
+    void offer(Object event, EventHandler handler) {
+      if (size == events.length) {
+        grow();
+      }
+      int tail = (head + size) & (events.length - 1);
+      events[tail] = event;
+      handlers[tail] = handler;
+      size++;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    Object peekEvent() {
+      return events[head];
+    }
+
+    EventHandler peekHandler() {
+      return handlers[head];
+    }
+
+    /** Removes the oldest entry, releasing its references. */
+    void remove() {
+      events[head] = null;
+      handlers[head] = null;
+      head = (head + 1) & (events.length - 1);
+      size--;
+    }
 
-    public EventWithHandler(Object event, EventHandler handler) {
-      this.event = event;
-      this.handler = handler;
+    /** Doubles the capacity, unwrapping the entries to start at index 0. */
+    private void grow() {
+      int capacity = events.length;
+      Object[] newEvents = new Object[capacity << 1];
+      EventHandler[] newHandlers = new EventHandler[capacity << 1];
+      int firstPart = capacity - head;
+      System.arraycopy(events, head, newEvents, 0, firstPart);
+      System.arraycopy(events, 0, newEvents, firstPart, head);
+      System.arraycopy(handlers, head, newHandlers, 0, firstPart);
+      System.arraycopy(handlers, 0, newHandlers, firstPart, head);
+      events = newEvents;
+      handlers = newHandlers;
+      head = 0;
     }
   }
 }
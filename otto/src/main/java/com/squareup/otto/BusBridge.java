@@ -0,0 +1,550 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Connects a {@link Bus} to a bus in another process over a byte channel, usually a local socket. Events of the
+ * {@linkplain #forward forwarded} types posted to the local bus are encoded and sent; events of the
+ * {@linkplain #receive received} types arriving from the other side are decoded and posted to the local bus.
+ *
+ * <p>Forwarded events are encoded on the posting thread into one of two direct buffers, while a writer thread sends
+ * the other; each write sends every event encoded since the previous one as a single frame. When both buffers are full
+ * because the channel cannot keep up, posting blocks until the writer has sent a frame. A reader thread decodes each
+ * received frame straight from its direct buffer and posts the events in the order they were sent, so the local bus
+ * must accept posts from that thread.
+ *
+ * <p>The bridge suits Unix domain sockets, which {@link #connectUnixSocket} and {@link #bindUnixSocket} open on Java 16
+ * and later, and works over any blocking channel, such as a loopback TCP socket on older runtimes. A type may be
+ * forwarded or received, but not both, so that events do not echo between two bridged buses.
+ */
+public final class BusBridge implements Closeable {
+  /** Size of the send and receive buffers unless given: 64 KiB. */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  /** Largest buffer size, which also bounds the frames a bridge accepts from the other side: 64 MiB. */
+  public static final int MAX_BUFFER_SIZE = 64 * 1024 * 1024;
+
+  /** Length of the records which follow in the frame. */
+  private static final int FRAME_HEADER_SIZE = 4;
+  /** Length of the record, and the index of its type or, if negative, of the type it names. */
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final int TYPE_OFFSET = 4;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final Bus bus;
+  private final ByteChannel channel;
+  private final int bufferSize;
+
+  /** Codecs of received types, by type name. */
+  private final ConcurrentMap<String, EventCodec<?>> receivedTypes = new ConcurrentHashMap<String, EventCodec<?>>();
+  /** Forwarded types, by name. */
+  private final ConcurrentMap<String, Class<?>> forwardedTypes = new ConcurrentHashMap<String, Class<?>>();
+  private final List<Registration> registrations = Collections.synchronizedList(new ArrayList<Registration>());
+
+  /** Guards the send buffers and the state below. */
+  private final Object lock = new Object();
+  /** Buffer forwarded events are encoded into, starting after the frame header. */
+  private ByteBuffer filling;
+  /** Buffer being sent by the writer thread. */
+  private ByteBuffer sending;
+  /** Index of each type named on the channel so far, by name. */
+  private final Map<String, Integer> sentTypes = new HashMap<String, Integer>();
+  private boolean started;
+  private boolean closed;
+  /** Why sending stopped, if the channel failed. */
+  private IOException failure;
+
+  private Thread writer;
+  private Thread reader;
+
+  /**
+   * Creates a bridge between {@code bus} and the other side of {@code channel}, with send and receive buffers of
+   * {@link #DEFAULT_BUFFER_SIZE}. Nothing is sent or received until it is {@link #start() started}.
+   *
+   * @param bus The local bus.
+   * @param channel A connected, blocking channel to the other side.
+   */
+  public BusBridge(Bus bus, ByteChannel channel) {
+    this(bus, channel, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a bridge between {@code bus} and the other side of {@code channel}. Nothing is sent or received until it
+   * is {@link #start() started}.
+   *
+   * @param bus The local bus.
+   * @param channel A connected, blocking channel to the other side.
+   * @param bufferSize Size of each send buffer, which bounds the size of an encoded event, and of the receive buffer.
+   *     At most {@link #MAX_BUFFER_SIZE}.
+   */
+  public BusBridge(Bus bus, ByteChannel channel, int bufferSize) {
+    if (bus == null) {
+      throw new NullPointerException("Bus must not be null.");
+    }
+    if (channel == null) {
+      throw new NullPointerException("Channel must not be null.");
+    }
+    if (bufferSize < FRAME_HEADER_SIZE + RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("Buffer size " + bufferSize + " is too small.");
+    }
+    if (bufferSize > MAX_BUFFER_SIZE) {
+      throw new IllegalArgumentException("Buffer size " + bufferSize + " is larger than " + MAX_BUFFER_SIZE + ".");
+    }
+    this.bus = bus;
+    this.channel = channel;
+    this.bufferSize = bufferSize;
+    this.filling = newSendBuffer(bufferSize);
+    this.sending = newSendBuffer(bufferSize);
+  }
+
+  /**
+   * Sends events of {@code type} and its subclasses which are posted to the local bus to the other side, encoded by
+   * {@code codec}, under the name of {@code type}. Must be called on a thread the local bus accepts registrations
+   * from.
+   *
+   * @throws IllegalArgumentException if {@code type} is already forwarded or received.
+   */
+  public <T> void forward(Class<T> type, EventCodec<T> codec) {
+    checkType(type, codec);
+    if (forwardedTypes.putIfAbsent(type.getName(), type) != null) {
+      throw new IllegalArgumentException("Type " + type + " is already forwarded.");
+    }
+    @SuppressWarnings("unchecked")
+    EventCodec<Object> objectCodec = (EventCodec<Object>) codec;
+    SubscriberMethod forwarder =
+        new SubscriberMethod(new Forwarder(type.getName(), objectCodec), false, DeliveryMode.POSTING, null);
+    ListenerTemplate template = new ListenerTemplate(Collections.<Class<?>>singletonList(type),
+        Collections.singletonList(forwarder), Collections.<Class<?>>emptyList(), Collections.<Invoker>emptyList());
+    registrations.add(bus.register(this, template));
+  }
+
+  /**
+   * Posts events of {@code type} sent by the other side to the local bus, decoded by {@code codec}. Events of types
+   * which are not received are skipped.
+   *
+   * @throws IllegalArgumentException if {@code type} is already forwarded or received.
+   */
+  public <T> void receive(Class<T> type, EventCodec<T> codec) {
+    checkType(type, codec);
+    if (receivedTypes.putIfAbsent(type.getName(), codec) != null) {
+      throw new IllegalArgumentException("Type " + type + " is already received.");
+    }
+  }
+
+  private void checkType(Class<?> type, EventCodec<?> codec) {
+    if (type == null) {
+      throw new NullPointerException("Type must not be null.");
+    }
+    if (codec == null) {
+      throw new NullPointerException("Codec must not be null.");
+    }
+    if (forwardedTypes.containsKey(type.getName()) || receivedTypes.containsKey(type.getName())) {
+      throw new IllegalArgumentException("Type " + type + " is already bridged.");
+    }
+  }
+
+  /** Starts the threads which send and receive events. */
+  public void start() {
+    synchronized (lock) {
+      if (started || closed) {
+        throw new IllegalStateException(this + " has already been started.");
+      }
+      started = true;
+      writer = newThread(new Runnable() {
+        @Override public void run() {
+          writeFrames();
+        }
+      }, "writer");
+      reader = newThread(new Runnable() {
+        @Override public void run() {
+          readFrames();
+        }
+      }, "reader");
+    }
+    writer.start();
+    reader.start();
+  }
+
+  /**
+   * Stops forwarding, waits until the events already forwarded have been sent, and closes the channel, which stops
+   * receiving.
+   *
+   * @throws IOException if the channel failed, the other side sent a malformed frame, or the channel cannot be closed.
+   */
+  @Override public void close() throws IOException {
+    synchronized (registrations) {
+      for (Registration registration : registrations) {
+        registration.cancel();
+      }
+      registrations.clear();
+    }
+    Thread writerThread;
+    synchronized (lock) {
+      if (closed && failure == null) {
+        return;
+      }
+      closed = true;
+      lock.notifyAll();
+      writerThread = writer;
+    }
+    try {
+      if (writerThread != null && writerThread != Thread.currentThread()) {
+        writerThread.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      channel.close();
+    }
+    synchronized (lock) {
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  /** Appends {@code event} to the frame being filled, waiting while both buffers are full. */
+  void send(String typeName, EventCodec<Object> codec, Object event) {
+    synchronized (lock) {
+      while (true) {
+        if (closed) {
+          throw new IllegalStateException(this + " is closed.", failure);
+        }
+        boolean wasEmpty = filling.position() == FRAME_HEADER_SIZE;
+        if (append(typeName, codec, event)) {
+          if (wasEmpty) {
+            lock.notifyAll();
+          }
+          return;
+        }
+        if (wasEmpty) {
+          throw new IllegalArgumentException("Event " + event + " does not fit in a bridge buffer of " + bufferSize
+              + " bytes.");
+        }
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while waiting to forward " + event + ".", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Encodes the event into {@link #filling}, naming its type first if needed. Returns false, leaving the buffer and the
+   * named types as they were, if it does not fit.
+   */
+  private boolean append(String typeName, EventCodec<Object> codec, Object event) {
+    ByteBuffer buffer = filling;
+    int mark = buffer.position();
+    Integer index = sentTypes.get(typeName);
+    boolean naming = index == null;
+    if (naming) {
+      byte[] name = typeName.getBytes(UTF_8);
+      if (buffer.remaining() < RECORD_HEADER_SIZE + name.length) {
+        return false;
+      }
+      index = sentTypes.size();
+      buffer.position(mark + RECORD_HEADER_SIZE);
+      buffer.put(name);
+      buffer.putInt(mark, buffer.position() - mark).putInt(mark + TYPE_OFFSET, -index - 1);
+    }
+
+    int start = buffer.position();
+    boolean encoded = false;
+    if (buffer.remaining() >= RECORD_HEADER_SIZE) {
+      buffer.position(start + RECORD_HEADER_SIZE);
+      try {
+        codec.encode(event, buffer);
+        encoded = true;
+      } catch (BufferOverflowException e) {
+        // Does not fit.
+      } finally {
+        buffer.limit(buffer.capacity());
+      }
+    }
+    if (!encoded) {
+      // Drop the type's name too: the frame would otherwise look empty to send while holding it.
+      buffer.position(mark);
+      return false;
+    }
+    buffer.putInt(start, buffer.position() - start).putInt(start + TYPE_OFFSET, index);
+    if (naming) {
+      sentTypes.put(typeName, index);
+    }
+    return true;
+  }
+
+  /** Sends frames until the bridge is closed and everything forwarded has been sent. */
+  private void writeFrames() {
+    while (true) {
+      ByteBuffer frame;
+      synchronized (lock) {
+        while (filling.position() == FRAME_HEADER_SIZE && !closed) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            closed = true;
+          }
+        }
+        if (filling.position() == FRAME_HEADER_SIZE || failure != null) {
+          return;
+        }
+        frame = filling;
+        filling = sending;
+        sending = frame;
+        filling.clear();
+        filling.position(FRAME_HEADER_SIZE);
+        // Posting threads waiting for room can fill the other buffer while this one is sent.
+        lock.notifyAll();
+      }
+      frame.flip();
+      frame.putInt(0, frame.limit() - FRAME_HEADER_SIZE);
+      try {
+        while (frame.hasRemaining()) {
+          channel.write(frame);
+        }
+      } catch (IOException e) {
+        fail(e);
+        return;
+      }
+    }
+  }
+
+  /** Posts the events of received frames until the channel is closed. */
+  private void readFrames() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+    List<String> types = new ArrayList<String>();
+    try {
+      while (true) {
+        buffer.clear();
+        buffer.limit(FRAME_HEADER_SIZE);
+        if (!readFully(buffer, true)) {
+          return;
+        }
+        int length = buffer.getInt(0);
+        if (length < RECORD_HEADER_SIZE || length > MAX_BUFFER_SIZE - FRAME_HEADER_SIZE) {
+          throw new IOException("Malformed bridge frame of length " + length + ".");
+        }
+        if (length > buffer.capacity()) {
+          // The other side sends larger frames than this side receives.
+          buffer = ByteBuffer.allocateDirect(length);
+        }
+        buffer.clear();
+        buffer.limit(length);
+        readFully(buffer, false);
+        buffer.flip();
+        postFrame(buffer, types);
+      }
+    } catch (ClosedChannelException e) {
+      // Closed by this side.
+    } catch (IOException e) {
+      fail(e);
+      Thread thread = Thread.currentThread();
+      thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+  }
+
+  /**
+   * Stops the bridge because the channel failed or the other side broke the protocol: forwarding stops, the channel is
+   * closed, and {@link #close()} throws {@code failure}.
+   */
+  private void fail(IOException failure) {
+    synchronized (lock) {
+      if (this.failure == null) {
+        this.failure = failure;
+      }
+      closed = true;
+      lock.notifyAll();
+    }
+    try {
+      channel.close();
+    } catch (IOException ignored) {
+      // Already failed.
+    }
+  }
+
+  /** Fills {@code buffer}. Returns false if the channel ended before any byte when {@code atFrameStart}. */
+  private boolean readFully(ByteBuffer buffer, boolean atFrameStart) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        if (atFrameStart && buffer.position() == 0) {
+          return false;
+        }
+        throw new EOFException("Bridge channel ended within a frame.");
+      }
+    }
+    return true;
+  }
+
+  /** Decodes and posts the events of one frame, learning the types it names. */
+  private void postFrame(ByteBuffer frame, List<String> types) throws IOException {
+    while (frame.hasRemaining()) {
+      int start = frame.position();
+      int length = frame.getInt(start);
+      if (length < RECORD_HEADER_SIZE || length > frame.limit() - start) {
+        throw new IOException("Malformed bridge record of length " + length + ".");
+      }
+      int type = frame.getInt(start + TYPE_OFFSET);
+      ByteBuffer record = frame.duplicate();
+      record.position(start + RECORD_HEADER_SIZE);
+      record.limit(start + length);
+      frame.position(start + length);
+      if (type < 0) {
+        byte[] name = new byte[record.remaining()];
+        record.get(name);
+        types.add(new String(name, UTF_8));
+        continue;
+      }
+      if (type >= types.size()) {
+        throw new IOException("Bridge record of undefined type " + type + ".");
+      }
+      EventCodec<?> codec = receivedTypes.get(types.get(type));
+      if (codec == null) {
+        continue;
+      }
+      try {
+        bus.post(codec.decode(record.slice()));
+      } catch (RuntimeException e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+      }
+    }
+  }
+
+  private Thread newThread(Runnable runnable, String role) {
+    Thread thread = new Thread(runnable, "Otto bridge " + role + " for " + bus);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  private static ByteBuffer newSendBuffer(int size) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    buffer.position(FRAME_HEADER_SIZE);
+    return buffer;
+  }
+
+  @Override public String toString() {
+    return "[BusBridge for " + bus + "]";
+  }
+
+  /**
+   * Connects to the Unix domain socket at {@code path}.
+   *
+   * @throws UnsupportedOperationException if the runtime has no Unix domain socket channels (before Java 16).
+   */
+  public static SocketChannel connectUnixSocket(File path) throws IOException {
+    SocketChannel channel = (SocketChannel) openUnixChannel(SocketChannel.class);
+    try {
+      channel.connect(unixAddress(path));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+
+  /**
+   * Opens a server channel listening on a Unix domain socket at {@code path}, from which connections are
+   * {@linkplain ServerSocketChannel#accept() accepted}. The socket file must not exist, and is not removed when the
+   * channel is closed.
+   *
+   * @throws UnsupportedOperationException if the runtime has no Unix domain socket channels (before Java 16).
+   */
+  public static ServerSocketChannel bindUnixSocket(File path) throws IOException {
+    ServerSocketChannel channel = (ServerSocketChannel) openUnixChannel(ServerSocketChannel.class);
+    try {
+      channel.bind(unixAddress(path));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+
+  /** Calls {@code open(StandardProtocolFamily.UNIX)} on {@code channelClass}, which exists from Java 16 on. */
+  private static Object openUnixChannel(Class<?> channelClass) throws IOException {
+    try {
+      Class<?> familyClass = Class.forName("java.net.ProtocolFamily");
+      Object unix = Class.forName("java.net.StandardProtocolFamily").getField("UNIX").get(null);
+      return channelClass.getMethod("open", familyClass).invoke(null, unix);
+    } catch (NoSuchFieldException e) {
+      throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later.");
+    } catch (ClassNotFoundException e) {
+      throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later.");
+    } catch (java.lang.reflect.InvocationTargetException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException("Unable to open Unix domain socket channel.", e.getCause());
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to open Unix domain socket channel.", e);
+    }
+  }
+
+  /** Returns {@code UnixDomainSocketAddress.of(path)}. */
+  private static SocketAddress unixAddress(File path) {
+    try {
+      return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class)
+          .invoke(null, path.getPath());
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to create Unix domain socket address for " + path + ".", e);
+    }
+  }
+
+  /** Sends the events of one forwarded type. */
+  private final class Forwarder extends Invoker {
+    private final String typeName;
+    private final EventCodec<Object> codec;
+
+    Forwarder(String typeName, EventCodec<Object> codec) {
+      this.typeName = typeName;
+      this.codec = codec;
+    }
+
+    @Override Object invoke(Object target, Object argument) {
+      send(typeName, codec, argument);
+      return null;
+    }
+
+    @Override public String toString() {
+      return "forward " + typeName + " over " + BusBridge.this;
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the events of one type posted to a {@link Bus}. Each subscription registers a handler which buffers the
+ * events the subscriber has not requested yet, up to a bound and subject to an {@link OverflowPolicy}.
+ *
+ * <p>Events are delivered by whichever thread makes them deliverable: the posting thread if the subscriber has
+ * outstanding demand, otherwise the thread which requests them. Signals are never concurrent, and a request made from
+ * within {@link Flow.Subscriber#onNext} is served once it returns rather than recursively.
+ */
+final class BusPublisher<T> implements Flow.Publisher<T> {
+  private final Bus bus;
+  private final Class<T> type;
+  private final int bufferSize;
+  private final OverflowPolicy policy;
+  /** Delivers each event to the {@link BusSubscription} it is registered for. */
+  private final ListenerTemplate template;
+
+  BusPublisher(Bus bus, Class<T> type, int bufferSize, OverflowPolicy policy) {
+    this.bus = bus;
+    this.type = type;
+    this.bufferSize = bufferSize;
+    this.policy = policy;
+    SubscriberMethod offer = new SubscriberMethod(new Invoker() {
+      @Override Object invoke(Object target, Object argument) {
+        ((BusSubscription<?>) target).offer(argument);
+        return null;
+      }
+
+      @Override public String toString() {
+        return "offer to subscriber of " + BusPublisher.this;
+      }
+    }, false, DeliveryMode.POSTING, null);
+    this.template = new ListenerTemplate(Collections.<Class<?>>singletonList(type), Collections.singletonList(offer),
+        Collections.<Class<?>>emptyList(), Collections.<Invoker>emptyList());
+  }
+
+  /**
+   * Registers a handler for {@code subscriber} on the bus, which must be done on a thread the bus accepts
+   * registrations from; otherwise the failure is signalled to the subscriber.
+   */
+  @Override public void subscribe(Flow.Subscriber<? super T> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("Subscriber must not be null.");
+    }
+    BusSubscription<T> subscription = new BusSubscription<T>(subscriber, bufferSize, policy);
+    subscriber.onSubscribe(subscription);
+    if (subscription.cancelled) {
+      return;
+    }
+    try {
+      subscription.registration = bus.register(subscription, template);
+    } catch (RuntimeException e) {
+      subscription.fail(e);
+      return;
+    }
+    if (subscription.cancelled) {
+      // Cancelled by another thread while registering.
+      subscription.unregister();
+    }
+  }
+
+  @Override public String toString() {
+    return "[Publisher of " + type.getName() + " on " + bus + "]";
+  }
+
+  /** The buffer and demand of one subscriber. */
+  static final class BusSubscription<T> implements Flow.Subscription {
+    private final Flow.Subscriber<? super T> subscriber;
+    private final int bufferSize;
+    private final OverflowPolicy policy;
+    /** Events not yet delivered. Guarded by itself. */
+    private final ArrayDeque<Object> buffer = new ArrayDeque<Object>();
+    /** Events requested but not yet delivered, or {@link Long#MAX_VALUE} if unbounded. */
+    private final AtomicLong requested = new AtomicLong();
+    /** Nonzero while a thread is delivering, counting the calls to {@link #drain()} it has to make up for. */
+    private final AtomicInteger work = new AtomicInteger();
+    volatile boolean cancelled;
+    /** Failure to signal to the subscriber, or {@code null}. */
+    private volatile Throwable failure;
+    volatile Registration registration;
+
+    BusSubscription(Flow.Subscriber<? super T> subscriber, int bufferSize, OverflowPolicy policy) {
+      this.subscriber = subscriber;
+      this.bufferSize = bufferSize;
+      this.policy = policy;
+    }
+
+    /** Buffers an event posted to the bus, on the posting thread, and delivers it if it has been requested. */
+    void offer(Object event) {
+      if (cancelled) {
+        // Cancelled on a thread the bus does not accept unregistrations from.
+        unregister();
+        return;
+      }
+      synchronized (buffer) {
+        if (buffer.size() < bufferSize || policy == OverflowPolicy.DROP_OLDEST) {
+          if (buffer.size() == bufferSize) {
+            buffer.poll();
+          }
+          buffer.add(event);
+        } else if (policy == OverflowPolicy.DROP_NEWEST) {
+          return;
+        } else {
+          failure = new IllegalStateException("Subscriber did not keep up with the events; its buffer of "
+              + bufferSize + " events overflowed.");
+        }
+      }
+      drain();
+    }
+
+    @Override public void request(long n) {
+      if (n <= 0) {
+        fail(new IllegalArgumentException("Requested " + n + " events, but requests must be positive."));
+        return;
+      }
+      while (true) {
+        long current = requested.get();
+        long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        if (requested.compareAndSet(current, next)) {
+          break;
+        }
+      }
+      drain();
+    }
+
+    @Override public void cancel() {
+      cancelled = true;
+      try {
+        unregister();
+      } catch (IllegalStateException e) {
+        // The bus enforces a thread. The next event offered on it unregisters instead.
+      }
+      synchronized (buffer) {
+        buffer.clear();
+      }
+    }
+
+    /** Cancels the subscription and signals {@code throwable} to the subscriber unless it already cancelled. */
+    void fail(Throwable throwable) {
+      failure = throwable;
+      drain();
+    }
+
+    void unregister() {
+      Registration current = registration;
+      if (current != null) {
+        current.cancel();
+      }
+    }
+
+    /** Delivers buffered events while they are requested, or the failure, unless another thread is doing so. */
+    private void drain() {
+      if (work.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      while (true) {
+        long demand = requested.get();
+        long delivered = 0;
+        while (delivered != demand && !cancelled && failure == null) {
+          Object event;
+          synchronized (buffer) {
+            event = buffer.poll();
+          }
+          if (event == null) {
+            break;
+          }
+          @SuppressWarnings("unchecked")
+          T item = (T) event;
+          subscriber.onNext(item);
+          delivered++;
+        }
+        if (cancelled) {
+          return;
+        }
+        Throwable throwable = failure;
+        if (throwable != null) {
+          cancel();
+          subscriber.onError(throwable);
+          return;
+        }
+        if (delivered != 0 && demand != Long.MAX_VALUE) {
+          requested.addAndGet(-delivered);
+        }
+        missed = work.addAndGet(-missed);
+        if (missed == 0) {
+          return;
+        }
+      }
+    }
+  }
+}
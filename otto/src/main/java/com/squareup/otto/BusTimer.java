@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts the {@link ScheduledPost}s of one bus when they are due, and runs the bus's own timed tasks such as releasing
+ * {@linkplain Subscribe#debounceMillis() debounced} events. A daemon thread keeps them in a {@link TimingWheel} ticking
+ * every millisecond, and makes the posts itself unless the bus has a {@link Bus#TIMER_EXECUTOR}. Scheduling and
+ * cancelling a post take constant time under the timer's lock; while no post is scheduled the thread waits without
+ * ticking.
+ */
+final class BusTimer implements Runnable {
+  static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final Bus bus;
+  /** Guarded by this timer. */
+  private final TimingWheel wheel = new TimingWheel();
+  /** Time of tick 0. */
+  private final long origin = System.nanoTime();
+
+  BusTimer(Bus bus, String identifier) {
+    this.bus = bus;
+    Thread thread = new Thread(this, "Otto " + identifier + " timer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Schedules {@code event} to be posted after {@code delayNanos}, then every {@code periodNanos} unless that is 0. */
+  ScheduledPost schedule(Object event, long delayNanos, long periodNanos) {
+    long now = System.nanoTime();
+    // Rounded up, so that the event is never posted early.
+    ScheduledPost post = new ScheduledPost(this, event, ticks(now - origin) + ticks(delayNanos), ticks(periodNanos));
+    schedule(post, now);
+    return post;
+  }
+
+  /** Schedules {@code task} to run on the timer thread once, after {@code delayNanos}. */
+  ScheduledPost schedule(Runnable task, long delayNanos) {
+    long now = System.nanoTime();
+    ScheduledPost post = new ScheduledPost(this, null, task, ticks(now - origin) + ticks(delayNanos), 0);
+    schedule(post, now);
+    return post;
+  }
+
+  private synchronized void schedule(ScheduledPost post, long now) {
+    if (wheel.size() == 0) {
+      // The thread stopped ticking when the wheel emptied; catch the wheel up with the clock and wake the thread.
+      wheel.skipTo((now - origin) / TICK_NANOS);
+      notify();
+    }
+    wheel.schedule(post);
+  }
+
+  synchronized boolean cancel(ScheduledPost post) {
+    if (post.state != ScheduledPost.SCHEDULED) {
+      return false;
+    }
+    post.state = ScheduledPost.CANCELLED;
+    wheel.unlink(post);
+    return true;
+  }
+
+  @Override public void run() {
+    while (true) {
+      ScheduledPost due;
+      synchronized (this) {
+        try {
+          while (true) {
+            if (wheel.size() == 0) {
+              wait();
+              continue;
+            }
+            long wait = origin + wheel.nextTick() * TICK_NANOS - System.nanoTime();
+            if (wait <= 0) {
+              break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, wait);
+          }
+        } catch (InterruptedException ignored) {
+          continue;
+        }
+        due = wheel.advance();
+        for (ScheduledPost post = due; post != null; post = post.next) {
+          if (post.period == 0) {
+            post.state = ScheduledPost.DONE;
+          }
+        }
+      }
+      while (due != null) {
+        ScheduledPost post = due;
+        due = post.next;
+        post.next = null;
+        if (post.state != ScheduledPost.CANCELLED) {
+          fire(post);
+        }
+        if (post.period != 0) {
+          reschedule(post);
+        }
+      }
+    }
+  }
+
+  /** Runs or posts {@code post} here, or hands it to the bus's {@link Bus#TIMER_EXECUTOR} if it has one. */
+  private void fire(final ScheduledPost post) {
+    try {
+      Executor executor = bus.timerExecutor();
+      if (executor == null) {
+        deliver(post);
+      } else {
+        executor.execute(new Runnable() {
+          @Override public void run() {
+            deliver(post);
+          }
+        });
+      }
+    } catch (RuntimeException e) {
+      Thread thread = Thread.currentThread();
+      thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+  }
+
+  private void deliver(ScheduledPost post) {
+    if (post.state == ScheduledPost.CANCELLED) {
+      // Cancelled while waiting for the executor.
+      return;
+    }
+    if (post.task != null) {
+      post.task.run();
+    } else {
+      bus.post(post.event);
+    }
+  }
+
+  /** Puts a periodic post back into the wheel for its next period, measured from its last deadline. */
+  private synchronized void reschedule(ScheduledPost post) {
+    if (post.state == ScheduledPost.SCHEDULED) {
+      post.deadline += post.period;
+      wheel.schedule(post);
+    }
+  }
+
+  /** Returns the number of whole ticks in {@code nanos}, rounded up. */
+  private static long ticks(long nanos) {
+    return nanos / TICK_NANOS + (nanos % TICK_NANOS != 0 ? 1 : 0);
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+/**
+ * Posts events of one exact type to a {@link Bus}, from {@link Bus#channel(Class)}.
+ *
+ * <p>The handlers of the type are resolved once and kept until listeners are registered or unregistered on the bus,
+ * so posting through a channel skips the lookup {@link Bus#post(Object)} makes for every event. Delivery is otherwise
+ * the same. An event whose class is a subtype of the channel's type is posted through {@link Bus#post(Object)}, so
+ * that handlers of the subtype receive it.
+ *
+ * @param <T> type of the events posted through this channel.
+ */
+public final class Channel<T> {
+  private final Bus bus;
+  private final Class<T> type;
+
+  /** Handlers of {@link #type}, and the dispatch table version they were resolved at. */
+  private volatile Snapshot snapshot;
+
+  Channel(Bus bus, Class<T> type) {
+    this.bus = bus;
+    this.type = type;
+  }
+
+  /** Returns the class of the events posted through this channel. */
+  public Class<T> getType() {
+    return type;
+  }
+
+  /**
+   * Posts an event to all handlers registered for the channel's type and its supertypes, as {@link Bus#post(Object)}
+   * does.
+   *
+   * @param event event to post.
+   * @throws NullPointerException if the event is null.
+   */
+  public void post(T event) {
+    if (event == null) {
+      throw new NullPointerException("Event to post must not be null.");
+    }
+    if (event.getClass() != type) {
+      bus.post(event);
+      return;
+    }
+    bus.prepareChannelPost();
+    bus.postToHandlers(event, handlers());
+  }
+
+  /** Returns the handlers of the channel's type, resolving them again if listeners have changed since. */
+  EventHandler[] handlers() {
+    Snapshot current = snapshot;
+    int version = bus.getDispatchTableVersion();
+    if (current == null || current.version != version) {
+      // Read the version first: a change after it makes this snapshot stale rather than wrongly current.
+      current = new Snapshot(version, bus.getHandlersForEventClass(type));
+      snapshot = current;
+    }
+    return current.handlers;
+  }
+
+  @Override public String toString() {
+    return "[Channel of " + type.getName() + " on " + bus + "]";
+  }
+
+  /** Resolved handlers, kept together with their version so that both are replaced at once. */
+  private static final class Snapshot {
+    final int version;
+    final EventHandler[] handlers;
+
+    Snapshot(int version, EventHandler[] handlers) {
+      this.version = version;
+      this.handlers = handlers;
+    }
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * The pending result of {@link Bus#postAsync(Object)}, which completes with a {@link DeliveryReport} once every
+ * handler the event was posted to has run, failed, or been unregistered before it could run.
+ *
+ * <p>The future travels through the bus's queues in place of its event, and records each handler's outcome as the bus
+ * calls it, so tracking costs one counter and a few slots per handler rather than an object per handler. Handler
+ * failures are reported, not thrown by {@link #get()}; they still propagate as they would for {@link Bus#post}.
+ * Delivery cannot be cancelled.
+ *
+ * <p>Use {@link #addListener} to run the next stage of a pipeline on completion. On Java 8 and later, a listener which
+ * completes a {@code CompletableFuture} with {@link #get()} adapts it.
+ */
+public final class DeliveryFuture implements Future<DeliveryReport> {
+  private static final AtomicIntegerFieldUpdater<DeliveryFuture> REMAINING =
+      AtomicIntegerFieldUpdater.newUpdater(DeliveryFuture.class, "remaining");
+  /** Fewer handlers are found by searching {@link #handlers}, which is as fast as looking them up. */
+  private static final int INDEXED_HANDLER_COUNT = 8;
+  private static final int HASH_SPREAD_SHIFT = 16;
+
+  final Object event;
+  final EventHandler[] handlers;
+  /**
+   * One more than the index of each handler, in an open-addressed table by the handler's hash code, so that finishing
+   * a handler takes constant time; {@code null} for few handlers.
+   */
+  private final int[] indexTable;
+  /** Nanoseconds each handler ran for, or {@link DeliveryReport#NOT_CALLED}. */
+  private final long[] nanos;
+  /** Handlers which have not finished. */
+  private volatile int remaining;
+
+  // Guarded by this.
+  /** What each handler threw, or {@code null} while none has failed. */
+  private Throwable[] failures;
+  private DeliveryReport report;
+  /** Listeners and their executors, alternately, or {@code null} while none was added. */
+  private List<Object> listeners;
+
+  DeliveryFuture(Object event, EventHandler[] handlers) {
+    this.event = event;
+    this.handlers = handlers;
+    this.indexTable = handlers.length >= INDEXED_HANDLER_COUNT ? indexTable(handlers) : null;
+    this.nanos = new long[handlers.length];
+    this.remaining = handlers.length;
+    if (handlers.length == 0) {
+      complete();
+    }
+  }
+
+  /** Returns the event {@code queued} stands for: itself, unless it is a future queued in place of its event. */
+  static Object eventOf(Object queued) {
+    return queued instanceof DeliveryFuture ? ((DeliveryFuture) queued).event : queued;
+  }
+
+  /** Records that {@code handler} will not be called with {@code queued}, if it is a future. */
+  static void skip(Object queued, EventHandler handler) {
+    if (queued instanceof DeliveryFuture) {
+      ((DeliveryFuture) queued).finish(handler, DeliveryReport.NOT_CALLED, null);
+    }
+  }
+
+  /** Calls {@code handler} with the event, as {@link Bus#dispatch} does, and records how it went. */
+  void dispatch(EventHandler handler) {
+    long start = System.nanoTime();
+    Throwable failure = null;
+    try {
+      Bus.invokeHandler(event, handler);
+    } catch (RuntimeException e) {
+      failure = e.getCause() != null ? e.getCause() : e;
+      throw e;
+    } catch (Error e) {
+      failure = e;
+      throw e;
+    } finally {
+      finish(handler, System.nanoTime() - start, failure);
+    }
+  }
+
+  private void finish(EventHandler handler, long elapsed, Throwable failure) {
+    int index = indexOf(handler);
+    nanos[index] = elapsed;
+    if (failure != null) {
+      synchronized (this) {
+        if (failures == null) {
+          failures = new Throwable[handlers.length];
+        }
+        failures[index] = failure;
+      }
+    }
+    if (REMAINING.decrementAndGet(this) == 0) {
+      complete();
+    }
+  }
+
+  /** Returns a table of twice as many slots as handlers, or more, holding one more than the index of each handler. */
+  private static int[] indexTable(EventHandler[] handlers) {
+    int[] table = new int[Integer.highestOneBit(handlers.length * 2 - 1) << 1];
+    int mask = table.length - 1;
+    for (int i = 0; i < handlers.length; i++) {
+      int slot = spread(handlers[i].hashCode()) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = i + 1;
+    }
+    return table;
+  }
+
+  private int indexOf(EventHandler handler) {
+    if (indexTable == null) {
+      int index = 0;
+      while (handlers[index] != handler) {
+        index++;
+      }
+      return index;
+    }
+    int mask = indexTable.length - 1;
+    int slot = spread(handler.hashCode()) & mask;
+    while (handlers[indexTable[slot] - 1] != handler) {
+      slot = (slot + 1) & mask;
+    }
+    return indexTable[slot] - 1;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> HASH_SPREAD_SHIFT);
+  }
+
+  private void complete() {
+    List<Object> toNotify;
+    synchronized (this) {
+      report = new DeliveryReport(event, handlers, nanos, failures);
+      notifyAll();
+      toNotify = listeners;
+      listeners = null;
+    }
+    if (toNotify != null) {
+      for (int i = 0; i < toNotify.size(); i += 2) {
+        execute((Runnable) toNotify.get(i), (Executor) toNotify.get(i + 1));
+      }
+    }
+  }
+
+  /**
+   * Runs {@code listener} on {@code executor} once delivery is complete, or right away if it already is. Exceptions
+   * thrown by the executor are passed to the current thread's uncaught exception handler.
+   */
+  public void addListener(Runnable listener, Executor executor) {
+    if (listener == null) {
+      throw new NullPointerException("Listener must not be null.");
+    }
+    if (executor == null) {
+      throw new NullPointerException("Executor must not be null.");
+    }
+    synchronized (this) {
+      if (report == null) {
+        if (listeners == null) {
+          listeners = new ArrayList<Object>(2);
+        }
+        listeners.add(listener);
+        listeners.add(executor);
+        return;
+      }
+    }
+    execute(listener, executor);
+  }
+
+  private static void execute(Runnable listener, Executor executor) {
+    try {
+      executor.execute(listener);
+    } catch (RuntimeException e) {
+      Thread thread = Thread.currentThread();
+      thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+  }
+
+  /** Returns false: handlers already posted to are called regardless. */
+  @Override public boolean cancel(boolean mayInterruptIfRunning) {
+    return false;
+  }
+
+  @Override public boolean isCancelled() {
+    return false;
+  }
+
+  @Override public synchronized boolean isDone() {
+    return report != null;
+  }
+
+  /** Waits until every handler has finished and returns the report. */
+  @Override public synchronized DeliveryReport get() throws InterruptedException {
+    while (report == null) {
+      wait();
+    }
+    return report;
+  }
+
+  @Override public synchronized DeliveryReport get(long timeout, TimeUnit unit)
+      throws InterruptedException, TimeoutException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (report == null) {
+      long remainingNanos = deadline - System.nanoTime();
+      if (remainingNanos <= 0) {
+        throw new TimeoutException("Event " + event + " is still being delivered.");
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+    }
+    return report;
+  }
+
+  @Override public String toString() {
+    return "[DeliveryFuture of " + event + " to " + handlers.length + " handlers, " + remaining + " remaining]";
+  }
+}
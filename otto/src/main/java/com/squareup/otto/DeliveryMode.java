@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+/**
+ * Where a {@link Subscribe} method is called when an event is delivered to it.
+ *
+ * @see Subscribe#delivery()
+ */
+public enum DeliveryMode {
+  /** On the thread which posted the event, before {@link Bus#post(Object)} returns. This is the default. */
+  POSTING,
+  /**
+   * On the executor registered with {@link Bus#registerExecutor(String, java.util.concurrent.Executor)} under the
+   * name given by {@link Subscribe#executor()}.
+   */
+  EXECUTOR,
+  /**
+   * On the bus's background thread, which calls all handlers in this mode one at a time in the order their events
+   * were posted.
+   */
+  BACKGROUND
+}
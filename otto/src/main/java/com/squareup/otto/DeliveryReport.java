@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+/**
+ * How an event posted with {@link Bus#postAsync(Object)} was handled: for each handler it was posted to, in the order
+ * they were resolved, whether it was called, how long it ran and what it threw.
+ */
+public final class DeliveryReport {
+  /** Returned by {@link #getNanos(int)} for a handler which was unregistered before it could be called. */
+  public static final long NOT_CALLED = -1;
+
+  private final Object event;
+  private final EventHandler[] handlers;
+  private final long[] nanos;
+  /** What each handler threw, or {@code null} if none failed. */
+  private final Throwable[] failures;
+
+  DeliveryReport(Object event, EventHandler[] handlers, long[] nanos, Throwable[] failures) {
+    this.event = event;
+    this.handlers = handlers;
+    this.nanos = nanos;
+    this.failures = failures;
+  }
+
+  /** Returns the event which was posted. */
+  public Object getEvent() {
+    return event;
+  }
+
+  /** Returns the number of handlers the event was posted to. */
+  public int getHandlerCount() {
+    return handlers.length;
+  }
+
+  /** Returns the listener of the handler at {@code index}, or {@code null} if it was weakly held and collected. */
+  public Object getListener(int index) {
+    return handlers[index].getTarget();
+  }
+
+  /** Returns true if the handler at {@code index} was called. */
+  public boolean wasCalled(int index) {
+    return nanos[index] != NOT_CALLED;
+  }
+
+  /** Returns how many nanoseconds the handler at {@code index} ran for, or {@link #NOT_CALLED}. */
+  public long getNanos(int index) {
+    return nanos[index];
+  }
+
+  /** Returns what the handler at {@code index} threw, or {@code null} if it returned normally or was not called. */
+  public Throwable getFailure(int index) {
+    return failures == null ? null : failures[index];
+  }
+
+  /** Returns true if no handler threw. */
+  public boolean isSuccessful() {
+    return failures == null;
+  }
+
+  @Override public String toString() {
+    StringBuilder builder = new StringBuilder("[DeliveryReport of ").append(event);
+    for (int i = 0; i < handlers.length; i++) {
+      builder.append(i == 0 ? ": " : ", ").append(handlers[i]);
+      if (!wasCalled(i)) {
+        builder.append(" not called");
+      } else {
+        builder.append(' ').append(nanos[i]).append(" ns");
+        if (getFailure(i) != null) {
+          builder.append(" threw ").append(getFailure(i));
+        }
+      }
+    }
+    return builder.append(']').toString();
+  }
+}
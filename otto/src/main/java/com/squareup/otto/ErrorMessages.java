@@ -11,6 +11,10 @@ public final class ErrorMessages {
   private static final String INVALID_ARG_LIST = "Method %s has @Subscribe annotation but requires %d arguments. "
           + "Methods must require a single argument.";
   private static final String NOT_VISIBLE = "Method %s has @Subscribe annotation on %s but is not 'public'.";
+  private static final String INVALID_DELIVERY = "Method %s has @Subscribe annotation with delivery %s and executor "
+          + "\"%s\". An executor must be named if and only if delivery is EXECUTOR.";
+  private static final String INVALID_RATE_LIMIT = "Method %s has @Subscribe annotation with debounceMillis %d and "
+          + "throttleMillis %d. Neither may be negative, and only one of them may be set.";
 
   public static String newInvalidArgumentListMessage(String methodName, int argumentCount) {
     return String.format(Locale.US, INVALID_ARG_LIST, methodName, argumentCount);
@@ -19,4 +23,12 @@ public final class ErrorMessages {
   public static String newNotVisibleMessage(String name, String eventType) {
     return String.format(Locale.US, NOT_VISIBLE, name, eventType);
   }
+
+  public static String newInvalidDeliveryMessage(String methodName, String delivery, String executor) {
+    return String.format(Locale.US, INVALID_DELIVERY, methodName, delivery, executor == null ? "" : executor);
+  }
+
+  public static String newInvalidRateLimitMessage(String methodName, long debounceMillis, long throttleMillis) {
+    return String.format(Locale.US, INVALID_RATE_LIMIT, methodName, debounceMillis, throttleMillis);
+  }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts events of one type to and from bytes for a {@link JournalingBus}.
+ *
+ * <p>Codecs write straight into the journal's memory-mapped segment and read straight out of it, so neither side
+ * copies the encoded bytes. A journaling bus encodes one event at a time, but {@link JournalReplayer} decodes
+ * segments in parallel, so {@link #decode} must be safe to call from several threads at once.
+ *
+ * @param <T> type of the events this codec handles.
+ */
+public interface EventCodec<T> {
+
+  /**
+   * Writes {@code event} into {@code buffer}, starting at its position and advancing it past the last byte written.
+   *
+   * @throws java.nio.BufferOverflowException if the event does not fit in the buffer's remaining bytes. The journal
+   *     then retries in a new segment.
+   */
+  void encode(T event, ByteBuffer buffer);
+
+  /** Reads an event from {@code buffer}, whose remaining bytes are exactly those written by {@link #encode}. */
+  T decode(ByteBuffer buffer);
+}
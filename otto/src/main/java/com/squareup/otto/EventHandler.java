@@ -19,6 +19,7 @@ package com.squareup.otto;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Wraps a single-argument 'handler' method on a specific object.
@@ -33,16 +34,35 @@ import java.lang.reflect.Method;
  */
 class EventHandler {
 
-  /** Object sporting the handler method. */
+  /**
+   * Object sporting the handler method, or the {@link ListenerReference} through which it is reached if it was
+   * registered weakly.
+   */
   private final Object target;
-  /** Handler method. */
-  private final Method method;
+  /** The handler method and its options, shared by every handler of the listener's class. */
+  private final SubscriberMethod method;
   /** Object hash code. */
   private final int hashCode;
+  /** Newest undelivered event of a conflating handler, or {@code null} if the handler does not conflate. */
+  private final AtomicReference<Object> pendingEvent;
+  /** Decides which events a throttled or debounced handler receives, or {@code null} if it is not rate limited. */
+  private final RateLimiter rateLimiter;
   /** Should this handler receive events? */
-  private boolean valid = true;
+  private volatile boolean valid = true;
 
   EventHandler(Object target, Method method) {
+    this(target, method == null ? null : Invoker.forMethod(method));
+  }
+
+  EventHandler(Object target, Invoker invoker) {
+    this(target, invoker == null ? null : new SubscriberMethod(invoker, false, DeliveryMode.POSTING, null));
+  }
+
+  /**
+   * @param target the listener, or a {@link ListenerReference} to it if it is registered weakly.
+   * @param method the handler method of the listener's class.
+   */
+  EventHandler(Object target, SubscriberMethod method) {
     if (target == null) {
       throw new NullPointerException("EventHandler target cannot be null.");
     }
@@ -52,18 +72,70 @@ class EventHandler {
 
     this.target = target;
     this.method = method;
-    method.setAccessible(true);
+    this.pendingEvent = method.conflate ? new AtomicReference<Object>() : null;
+    this.rateLimiter = RateLimiter.forMethod(method);
 
-    // Compute hash code eagerly since we know it will be used frequently and we cannot estimate the runtime of the
-    // target's hashCode call.
+    // Compute hash code eagerly since we know it will be used frequently. Targets are compared by identity, so their
+    // own hashCode, which may be slow or change, is never called.
     final int prime = 31;
-    hashCode = (prime + method.hashCode()) * prime + target.hashCode();
+    hashCode = (prime + method.invoker.hashCode()) * prime + System.identityHashCode(getTarget());
   }
 
   public boolean isValid() {
     return valid;
   }
 
+  /** Where the handler method is called. See {@link Subscribe#delivery()}. */
+  DeliveryMode getDelivery() {
+    return method.delivery;
+  }
+
+  /** Name of the executor which calls the handler method, or {@code null} unless delivered by an executor. */
+  String getExecutorName() {
+    return method.executor;
+  }
+
+  /** Whether a newer event should replace one already queued for this handler. See {@link Subscribe#conflate()}. */
+  boolean isConflating() {
+    return pendingEvent != null;
+  }
+
+  /**
+   * Makes {@code event} the one this conflating handler is next called with.
+   *
+   * @return {@code null} if no event was pending, in which case the caller must queue the handler; otherwise the
+   *     pending event it replaced, in which case the handler is already queued.
+   */
+  Object conflate(Object event) {
+    return pendingEvent.getAndSet(event);
+  }
+
+  /** Removes and returns the newest event queued for this conflating handler. */
+  Object takeConflated() {
+    return pendingEvent.getAndSet(null);
+  }
+
+  /**
+   * Returns what decides which events this handler receives if it is {@linkplain Subscribe#throttleMillis() throttled}
+   * or {@linkplain Subscribe#debounceMillis() debounced}, otherwise {@code null}.
+   */
+  RateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  /** Returns the object whose handler method this wraps, or {@code null} if it was registered weakly and collected. */
+  Object getTarget() {
+    return target instanceof ListenerReference ? ((ListenerReference) target).get() : target;
+  }
+
+  /**
+   * Returns an object which identifies the target for as long as this handler is registered, without keeping a
+   * weakly registered target reachable.
+   */
+  Object getTargetKey() {
+    return target;
+  }
+
   /**
    * If invalidated, will subsequently refuse to handle events.
    *
@@ -82,23 +154,74 @@ class EventHandler {
    *     an {@link Error} ({@code Error}s are propagated as-is).
    */
   public void handleEvent(Object event) throws InvocationTargetException {
-    if (!valid) {
-      throw new IllegalStateException(toString() + " has been invalidated and can no longer handle events.");
+    Object target = targetToHandle();
+    if (target == null) {
+      return;
+    }
+    try {
+      method.invoker.invoke(target, event);
+    } catch (Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new InvocationTargetException(e);
+    }
+  }
+
+  /** Invokes the wrapped handler method, which takes an {@code int}, as {@link #handleEvent(Object)} does. */
+  void handleInt(int value) throws InvocationTargetException {
+    Object target = targetToHandle();
+    if (target == null) {
+      return;
     }
     try {
-      method.invoke(target, event);
-    } catch (IllegalAccessException e) {
-      throw new AssertionError(e);
-    } catch (InvocationTargetException e) {
-      if (e.getCause() instanceof Error) {
-        throw (Error) e.getCause();
-      }
+      method.invoker.invokeInt(target, value);
+    } catch (Error e) {
       throw e;
+    } catch (Throwable e) {
+      throw new InvocationTargetException(e);
     }
   }
 
+  /** Invokes the wrapped handler method, which takes a {@code long}, as {@link #handleEvent(Object)} does. */
+  void handleLong(long value) throws InvocationTargetException {
+    Object target = targetToHandle();
+    if (target == null) {
+      return;
+    }
+    try {
+      method.invoker.invokeLong(target, value);
+    } catch (Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new InvocationTargetException(e);
+    }
+  }
+
+  /** Invokes the wrapped handler method, which takes a {@code double}, as {@link #handleEvent(Object)} does. */
+  void handleDouble(double value) throws InvocationTargetException {
+    Object target = targetToHandle();
+    if (target == null) {
+      return;
+    }
+    try {
+      method.invoker.invokeDouble(target, value);
+    } catch (Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new InvocationTargetException(e);
+    }
+  }
+
+  /** Returns the target to call, or {@code null} if it was registered weakly and collected but not yet purged. */
+  private Object targetToHandle() {
+    if (!valid) {
+      throw new IllegalStateException(toString() + " has been invalidated and can no longer handle events.");
+    }
+    return getTarget();
+  }
+
   @Override public String toString() {
-    return "[EventHandler " + method + "]";
+    return "[EventHandler " + method.invoker + "]";
   }
 
   @Override public int hashCode() {
@@ -120,7 +243,11 @@ class EventHandler {
 
     final EventHandler other = (EventHandler) obj;
 
-    return method.equals(other.method) && target == other.target;
+    if (!method.invoker.equals(other.method.invoker)) {
+      return false;
+    }
+    Object target = getTarget();
+    return target != null ? target == other.getTarget() : this.target == other.target;
   }
 
 }
@@ -29,31 +29,46 @@ import java.lang.reflect.Method;
  */
 class EventProducer {
 
-  /** Object sporting the producer method. */
-  final Object target;
-  /** Producer method. */
-  private final Method method;
+  /**
+   * Object sporting the producer method, or the {@link ListenerReference} through which it is reached if it was
+   * registered weakly.
+   */
+  private final Object target;
+  /** Calls the producer method. */
+  private final Invoker invoker;
   /** Object hash code. */
   private final int hashCode;
   /** Should this producer produce events? */
-  private boolean valid = true;
+  private volatile boolean valid = true;
 
   EventProducer(Object target, Method method) {
+    this(target, method == null ? null : Invoker.forMethod(method));
+  }
+
+  /**
+   * @param target the listener, or a {@link ListenerReference} to it if it is registered weakly.
+   * @param invoker calls the producer method.
+   */
+  EventProducer(Object target, Invoker invoker) {
     if (target == null) {
       throw new NullPointerException("EventProducer target cannot be null.");
     }
-    if (method == null) {
+    if (invoker == null) {
       throw new NullPointerException("EventProducer method cannot be null.");
     }
 
     this.target = target;
-    this.method = method;
-    method.setAccessible(true);
+    this.invoker = invoker;
 
     // Compute hash code eagerly since we know it will be used frequently and we cannot estimate the runtime of the
     // target's hashCode call.
     final int prime = 31;
-    hashCode = (prime + method.hashCode()) * prime + target.hashCode();
+    hashCode = (prime + invoker.hashCode()) * prime + getTarget().hashCode();
+  }
+
+  /** Returns the object whose producer method this wraps, or {@code null} if it was registered weakly and collected. */
+  Object getTarget() {
+    return target instanceof ListenerReference ? ((ListenerReference) target).get() : target;
   }
 
   public boolean isValid() {
@@ -70,7 +85,7 @@ class EventProducer {
   }
 
   /**
-   * Invokes the wrapped producer method.
+   * Invokes the wrapped producer method. Returns {@code null} if the target was registered weakly and collected.
    *
    * @throws java.lang.IllegalStateException  if previously invalidated.
    * @throws java.lang.reflect.InvocationTargetException  if the wrapped method throws any {@link Throwable} that is not
@@ -80,20 +95,21 @@ class EventProducer {
     if (!valid) {
       throw new IllegalStateException(toString() + " has been invalidated and can no longer produce events.");
     }
+    Object target = getTarget();
+    if (target == null) {
+      return null;
+    }
     try {
-      return method.invoke(target);
-    } catch (IllegalAccessException e) {
-      throw new AssertionError(e);
-    } catch (InvocationTargetException e) {
-      if (e.getCause() instanceof Error) {
-        throw (Error) e.getCause();
-      }
+      return invoker.invoke(target, null);
+    } catch (Error e) {
       throw e;
+    } catch (Throwable e) {
+      throw new InvocationTargetException(e);
     }
   }
 
   @Override public String toString() {
-    return "[EventProducer " + method + "]";
+    return "[EventProducer " + invoker + "]";
   }
 
   @Override public int hashCode() {
@@ -115,6 +131,10 @@ class EventProducer {
 
     final EventProducer other = (EventProducer) obj;
 
-    return method.equals(other.method) && target == other.target;
+    if (!invoker.equals(other.invoker)) {
+      return false;
+    }
+    Object target = getTarget();
+    return target != null ? target == other.getTarget() : this.target == other.target;
   }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+/**
+ * The interfaces of the Reactive Streams protocol, as returned by {@link Bus#asPublisher(Class)}. They match those
+ * nested in {@code java.util.concurrent.Flow} and those of {@code org.reactivestreams} method for method, so adapting
+ * to either takes one forwarding call per signal, and are here because Otto runs where neither is available.
+ */
+public final class Flow {
+  private Flow() {
+    // No instances.
+  }
+
+  /** A source of events, which are delivered to each {@link Subscriber} as it requests them. */
+  public interface Publisher<T> {
+    /**
+     * Adds {@code subscriber}, which is first passed its {@link Subscription} and then sent events as it requests
+     * them. Failures are reported to {@link Subscriber#onError(Throwable)} rather than thrown.
+     *
+     * @throws NullPointerException if the subscriber is null.
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+  }
+
+  /** Receives events from a {@link Publisher}, one signal at a time. */
+  public interface Subscriber<T> {
+    /** Called once, before any other signal, with the subscription through which events are requested. */
+    void onSubscribe(Subscription subscription);
+
+    /** Called with each event, never more often than requested. */
+    void onNext(T item);
+
+    /** Called once if the publisher fails, after which no more signals are sent. */
+    void onError(Throwable throwable);
+
+    /** Called once if the publisher has no more events, after which no more signals are sent. */
+    void onComplete();
+  }
+
+  /** The link between a {@link Publisher} and one of its {@link Subscriber}s. */
+  public interface Subscription {
+    /** Asks for {@code n} more events. {@code n} must be positive; {@link Long#MAX_VALUE} means unbounded. */
+    void request(long n);
+
+    /** Stops sending events to the subscriber. */
+    void cancel();
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a {@link JournalingBus} forces the events it has appended to its memory-mapped segments out to the
+ * storage device, trading durability against the cost of the flush. Events are always forced when the bus is closed,
+ * and under every policy but {@link #NONE} when a segment is completed.
+ */
+public final class ForcePolicy {
+
+  /**
+   * Leaves writing appended events to the operating system, even from completed segments, so they survive the process
+   * but not the host.
+   */
+  public static final ForcePolicy NONE = new ForcePolicy(0, 0);
+
+  /**
+   * Forces the segment on the posting thread once {@code count} events have been appended since the last force, so
+   * at most {@code count - 1} events are lost if the host fails.
+   */
+  public static ForcePolicy everyEvents(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("Event count must be at least 1 but was " + count + ".");
+    }
+    return new ForcePolicy(count, 0);
+  }
+
+  /**
+   * Forces the segment from a background thread every {@code interval}, if any events were appended since the last
+   * force, so posting never waits for the device.
+   */
+  public static ForcePolicy every(long interval, TimeUnit unit) {
+    long nanos = unit.toNanos(interval);
+    if (nanos <= 0) {
+      throw new IllegalArgumentException("Interval must be positive but was " + interval + " " + unit + ".");
+    }
+    return new ForcePolicy(0, nanos);
+  }
+
+  /** Events appended between forces, or 0. */
+  final int events;
+  /** Nanoseconds between timed forces, or 0. */
+  final long intervalNanos;
+
+  private ForcePolicy(int events, long intervalNanos) {
+    this.events = events;
+    this.intervalNanos = intervalNanos;
+  }
+
+  /** Whether a segment is forced when it is completed, so that no event is left unforced behind the current one. */
+  boolean forcesCompletedSegments() {
+    return this != NONE;
+  }
+
+  @Override public String toString() {
+    if (events != 0) {
+      return "[ForcePolicy every " + events + " events]";
+    }
+    if (intervalNanos != 0) {
+      return "[ForcePolicy every " + intervalNanos + " ns]";
+    }
+    return "[ForcePolicy NONE]";
+  }
+}
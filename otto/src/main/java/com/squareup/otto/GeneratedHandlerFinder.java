@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Finds producer and subscriber methods through the {@link ListenerAdapter} generated for a listener class, falling
+ * back to {@link AnnotatedHandlerFinder} for classes which were not run through the annotation processor.
+ */
+final class GeneratedHandlerFinder {
+
+  /** Marks listener classes which have no generated adapter. */
+  private static final ListenerAdapter NO_ADAPTER = new ListenerAdapter(Object.class) {
+    @Override protected void handleEvent(Object listener, int index, Object event) {
+      throw new AssertionError();
+    }
+
+    @Override protected Object produceEvent(Object listener, int index) {
+      throw new AssertionError();
+    }
+  };
+
+  /** Cache of the generated adapter (or {@link #NO_ADAPTER}) for each listener class. */
+  private static final ConcurrentMap<Class<?>, ListenerAdapter> ADAPTERS_CACHE =
+      new ConcurrentHashMap<Class<?>, ListenerAdapter>();
+
+  /** Returns the generated adapter for {@code listenerClass}, or {@code null} if it has none. */
+  static ListenerAdapter findAdapter(Class<?> listenerClass) {
+    ListenerAdapter adapter = ADAPTERS_CACHE.get(listenerClass);
+    if (adapter == null) {
+      adapter = loadAdapter(listenerClass);
+      ListenerAdapter previous = ADAPTERS_CACHE.putIfAbsent(listenerClass, adapter);
+      if (previous != null) {
+        adapter = previous;
+      }
+    }
+    return adapter == NO_ADAPTER ? null : adapter;
+  }
+
+  private static ListenerAdapter loadAdapter(Class<?> listenerClass) {
+    String adapterName = listenerClass.getName() + ListenerAdapter.SUFFIX;
+    Class<?> adapterClass;
+    try {
+      adapterClass = Class.forName(adapterName, true, listenerClass.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      return NO_ADAPTER;
+    }
+    try {
+      return (ListenerAdapter) adapterClass.newInstance();
+    } catch (InstantiationException e) {
+      throw new RuntimeException("Unable to create generated adapter " + adapterName, e);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException("Unable to create generated adapter " + adapterName, e);
+    }
+  }
+
+  /** Returns the methods declared by the generated adapter of {@code listenerClass}, or found by reflection. */
+  static ListenerTemplate findTemplate(Class<?> listenerClass) {
+    ListenerAdapter adapter = findAdapter(listenerClass);
+    if (adapter == null) {
+      return AnnotatedHandlerFinder.findTemplate(listenerClass);
+    }
+    return adapter.template();
+  }
+
+  private GeneratedHandlerFinder() {
+    // No instances.
+  }
+}
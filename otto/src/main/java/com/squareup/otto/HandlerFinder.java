@@ -16,26 +16,25 @@
 
 package com.squareup.otto;
 
-import java.util.Map;
-import java.util.Set;
-
 /** Finds producer and subscriber methods. */
 interface HandlerFinder {
 
-  Map<Class<?>, EventProducer> findAllProducers(Object listener);
-
-  Map<Class<?>, Set<EventHandler>> findAllSubscribers(Object listener);
+  /** Returns the producer and subscriber methods of {@code listenerClass}. */
+  ListenerTemplate findTemplate(Class<?> listenerClass);
 
 
   HandlerFinder ANNOTATED = new HandlerFinder() {
     @Override
-    public Map<Class<?>, EventProducer> findAllProducers(Object listener) {
-      return AnnotatedHandlerFinder.findAllProducers(listener);
+    public ListenerTemplate findTemplate(Class<?> listenerClass) {
+      return AnnotatedHandlerFinder.findTemplate(listenerClass);
     }
+  };
 
+  /** Uses generated {@link ListenerAdapter}s when present and falls back to {@link #ANNOTATED} otherwise. */
+  HandlerFinder GENERATED = new HandlerFinder() {
     @Override
-    public Map<Class<?>, Set<EventHandler>> findAllSubscribers(Object listener) {
-      return AnnotatedHandlerFinder.findAllSubscribers(listener);
+    public ListenerTemplate findTemplate(Class<?> listenerClass) {
+      return GeneratedHandlerFinder.findTemplate(listenerClass);
     }
   };
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The handlers registered for one event type. Adding and removing a handler take constant time, and the handlers are
+ * also available as an array which is only rebuilt after the set has changed, so posting never takes a lock once the
+ * array is built. Iteration order is registration order, and iterators traverse a snapshot taken when they are
+ * created.
+ */
+final class HandlerSet extends AbstractSet<EventHandler> {
+  private static final EventHandler[] EMPTY = new EventHandler[0];
+
+  /** Each registered handler, mapped to itself so that an equal handler finds the registered instance. */
+  private final Map<EventHandler, EventHandler> handlers = new LinkedHashMap<EventHandler, EventHandler>();
+
+  /** The registered handlers, or {@code null} if they changed since the array was last built. */
+  private volatile EventHandler[] snapshot = EMPTY;
+
+  @Override public synchronized boolean add(EventHandler handler) {
+    if (handlers.containsKey(handler)) {
+      return false;
+    }
+    handlers.put(handler, handler);
+    snapshot = null;
+    return true;
+  }
+
+  @Override public boolean remove(Object handler) {
+    return handler instanceof EventHandler && take((EventHandler) handler) != null;
+  }
+
+  /** Removes the handler equal to {@code handler} and returns the registered instance, or {@code null}. */
+  synchronized EventHandler take(EventHandler handler) {
+    EventHandler registered = handlers.remove(handler);
+    if (registered != null) {
+      snapshot = null;
+    }
+    return registered;
+  }
+
+  /** Removes {@code handler} itself, but not an equal handler registered in its place. Returns true if removed. */
+  synchronized boolean discard(EventHandler handler) {
+    if (handlers.get(handler) != handler) {
+      return false;
+    }
+    handlers.remove(handler);
+    snapshot = null;
+    return true;
+  }
+
+  @Override public synchronized boolean contains(Object handler) {
+    return handlers.containsKey(handler);
+  }
+
+  @Override public synchronized int size() {
+    return handlers.size();
+  }
+
+  /** Returns the registered handlers. The array is shared and must not be modified. */
+  EventHandler[] snapshot() {
+    EventHandler[] array = snapshot;
+    if (array == null) {
+      synchronized (this) {
+        array = snapshot;
+        if (array == null) {
+          array = handlers.keySet().toArray(new EventHandler[handlers.size()]);
+          snapshot = array;
+        }
+      }
+    }
+    return array;
+  }
+
+  @Override public Iterator<EventHandler> iterator() {
+    final EventHandler[] array = snapshot();
+    return new Iterator<EventHandler>() {
+      private int next;
+
+      @Override public boolean hasNext() {
+        return next < array.length;
+      }
+
+      @Override public EventHandler next() {
+        if (next == array.length) {
+          throw new NoSuchElementException();
+        }
+        return array[next++];
+      }
+
+      @Override public void remove() {
+        if (next == 0) {
+          throw new IllegalStateException();
+        }
+        take(array[next - 1]);
+      }
+    };
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Posts {@code int} values to a {@link Bus}, from {@link Bus#intChannel()}.
+ *
+ * <p>Handler methods taking an {@code int} are called with each value directly, without boxing it, when they are
+ * called on the posting thread and the thread is not already dispatching. Otherwise, and for handlers of
+ * {@link Integer} and its supertypes, the value is boxed and delivered as by {@link Bus#post(Object)}. Handlers are
+ * resolved once and kept until listeners are registered or unregistered on the bus.
+ */
+public final class IntChannel extends PrimitiveChannel {
+
+  IntChannel(Bus bus) {
+    super(bus, int.class);
+  }
+
+  /**
+   * Posts {@code value} to all handlers taking an {@code int}, {@link Integer} or a supertype.
+   *
+   * @param value value to post.
+   */
+  public void post(int value) {
+    Handlers current = prepare();
+    Bus.DispatchQueue queue = current.direct.length != 0 ? bus.startInlineDispatch() : null;
+    if (queue == null) {
+      postBoxed(value, current);
+      return;
+    }
+    try {
+      if (current.boxed.length != 0) {
+        enqueueBoxed(value, current);
+      }
+      EventHandler[] direct = current.direct;
+      for (int i = 0; i < direct.length; i++) {
+        EventHandler handler = direct[i];
+        if (handler.isValid()) {
+          try {
+            handler.handleInt(value);
+          } catch (InvocationTargetException e) {
+            Bus.throwRuntimeException("Could not dispatch event: int to handler " + handler, e);
+          }
+        }
+      }
+      bus.drain(queue);
+    } finally {
+      queue.dispatching = false;
+    }
+  }
+}
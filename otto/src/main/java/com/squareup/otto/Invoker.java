@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Calls a single handler or producer method on behalf of {@link EventHandler} and {@link EventProducer}.
+ *
+ * <p>Two invokers are equal when they call the same method.
+ */
+abstract class Invoker {
+
+  /**
+   * Calls the method on {@code target}. Handler methods receive {@code argument}, producer methods ignore it.
+   *
+   * @return the value returned by the method, or {@code null} for handler methods.
+   * @throws Throwable anything thrown by the method itself, unwrapped.
+   */
+  abstract Object invoke(Object target, Object argument) throws Throwable;
+
+  /** Calls a handler method which takes an {@code int}. Boxes {@code value} unless the invoker can pass it as is. */
+  void invokeInt(Object target, int value) throws Throwable {
+    invoke(target, value);
+  }
+
+  /** Calls a handler method which takes a {@code long}. Boxes {@code value} unless the invoker can pass it as is. */
+  void invokeLong(Object target, long value) throws Throwable {
+    invoke(target, value);
+  }
+
+  /** Calls a handler method which takes a {@code double}. Boxes {@code value} unless the invoker can pass it as is. */
+  void invokeDouble(Object target, double value) throws Throwable {
+    invoke(target, value);
+  }
+
+  /** True if {@link LambdaInvoker} can be loaded on this runtime. */
+  private static final boolean HAS_LAMBDAS = hasLambdas();
+
+  /**
+   * Creates the fastest invoker available for {@code method}: a spun {@link LambdaInvoker} where the runtime and the
+   * method's visibility allow one, and reflection otherwise.
+   */
+  static Invoker forMethod(Method method) {
+    if (HAS_LAMBDAS) {
+      Invoker invoker = LambdaInvoker.create(method);
+      if (invoker != null) {
+        return invoker;
+      }
+    }
+    return reflective(method);
+  }
+
+  /** Creates an invoker which calls {@code method} through reflection. */
+  static Invoker reflective(Method method) {
+    return new ReflectiveInvoker(method);
+  }
+
+  private static boolean hasLambdas() {
+    try {
+      Class.forName(LambdaInvoker.METAFACTORY_CLASS, false, Invoker.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  /** Calls a method through {@link Method#invoke(Object, Object...)}. */
+  private static final class ReflectiveInvoker extends Invoker {
+    private final Method method;
+    private final boolean takesArgument;
+
+    ReflectiveInvoker(Method method) {
+      this.method = method;
+      this.takesArgument = method.getParameterTypes().length != 0;
+      method.setAccessible(true);
+    }
+
+    @Override Object invoke(Object target, Object argument) throws Throwable {
+      try {
+        return takesArgument ? method.invoke(target, argument) : method.invoke(target);
+      } catch (IllegalAccessException e) {
+        throw new AssertionError(e);
+      } catch (InvocationTargetException e) {
+        throw e.getCause() != null ? e.getCause() : e;
+      }
+    }
+
+    @Override public String toString() {
+      return method.toString();
+    }
+
+    @Override public int hashCode() {
+      return method.hashCode();
+    }
+
+    @Override public boolean equals(Object obj) {
+      return obj instanceof ReflectiveInvoker && method.equals(((ReflectiveInvoker) obj).method);
+    }
+  }
+}
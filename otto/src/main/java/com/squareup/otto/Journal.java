@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only log of encoded events, kept in a directory as a series of memory-mapped segment files. Appending
+ * writes into the mapped segment, so it makes no system call until the segment is full or a {@link ForcePolicy}
+ * forces it.
+ *
+ * <p>Each segment is named after the sequence number of its first event and starts with a {@link #MAGIC} number, the
+ * format {@link #VERSION} and that sequence number. Records follow back to back, each made of its total length, a
+ * type index, the event's sequence number and timestamp, and the encoded event. A record with a negative type index
+ * instead defines the name of the event type at index {@code -index - 1} within that segment, in UTF-8, so segments
+ * can be read on their own. The length is written last, and the unused rest of a segment is zero, so a reader stops at
+ * the first record without a valid length, including one torn by a crash.
+ */
+final class Journal implements Closeable {
+  static final int MAGIC = 0x4f74746f;
+  static final int VERSION = 1;
+  static final String SUFFIX = ".journal";
+  /** Magic number, version and first sequence number. */
+  static final int SEGMENT_HEADER_SIZE = 16;
+  /** Length, type index, sequence number and timestamp. */
+  static final int RECORD_HEADER_SIZE = 24;
+  /** Offsets of the fields following the length in a record header. */
+  static final int TYPE_OFFSET = 4;
+  static final int SEQUENCE_OFFSET = 8;
+  static final int TIMESTAMP_OFFSET = 16;
+  /** Digits in the zero-padded first sequence number which names a segment. */
+  private static final int SEGMENT_NAME_DIGITS = 20;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File directory;
+  private final int segmentSize;
+  private final ForcePolicy policy;
+  /** Wall-clock time and {@link System#nanoTime()} when the journal was opened, from which timestamps are taken. */
+  private final long baseMillis = System.currentTimeMillis();
+  private final long baseNanos = System.nanoTime();
+  /** Forces the segment for {@link ForcePolicy#every}, or {@code null}. */
+  private final ScheduledExecutorService forcer;
+
+  // Guarded by this.
+  private Segment segment;
+  private long nextSequence;
+  /** Events appended since the segment was last forced. */
+  private int unforced;
+  private boolean closed;
+
+  Journal(File directory, int segmentSize, ForcePolicy policy) throws IOException {
+    if (segmentSize < SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("Segment size " + segmentSize + " is too small.");
+    }
+    if (policy == null) {
+      throw new NullPointerException("Force policy must not be null.");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create journal directory " + directory);
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.policy = policy;
+    this.nextSequence = lastSequence(directory) + 1;
+    this.forcer = policy.intervalNanos != 0 ? startForcer(policy.intervalNanos) : null;
+  }
+
+  /**
+   * Appends {@code event}, encoded by {@code codec}, as an event of type {@code typeName}, starting a new segment if
+   * the current one is full.
+   *
+   * @return the sequence number of the event.
+   * @throws IllegalArgumentException if the encoded event does not fit in an empty segment.
+   */
+  long append(String typeName, EventCodec<Object> codec, Object event) throws IOException {
+    MappedByteBuffer toForce = null;
+    long sequence;
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("Journal in " + directory + " is closed.");
+      }
+      sequence = nextSequence;
+      long timestamp = TimeUnit.MILLISECONDS.toNanos(baseMillis) + System.nanoTime() - baseNanos;
+      if (segment == null || !segment.append(typeName, codec, event, sequence, timestamp)) {
+        startSegment(sequence);
+        if (!segment.append(typeName, codec, event, sequence, timestamp)) {
+          throw new IllegalArgumentException("Event " + event + " does not fit in a journal segment of "
+              + segmentSize + " bytes.");
+        }
+      }
+      nextSequence++;
+      unforced++;
+      if (policy.events != 0 && unforced >= policy.events) {
+        unforced = 0;
+        toForce = segment.buffer;
+      }
+    }
+    if (toForce != null) {
+      // Forcing only reads the mapping, so other threads may keep appending meanwhile.
+      toForce.force();
+    }
+    return sequence;
+  }
+
+  /** Forces the current segment if events were appended since it was last forced. */
+  void force() {
+    MappedByteBuffer toForce = null;
+    synchronized (this) {
+      if (segment != null && unforced != 0) {
+        unforced = 0;
+        toForce = segment.buffer;
+      }
+    }
+    if (toForce != null) {
+      toForce.force();
+    }
+  }
+
+  /** Forces and closes the current segment. Later appends fail. */
+  @Override public void close() throws IOException {
+    if (forcer != null) {
+      forcer.shutdown();
+    }
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (segment != null) {
+        segment.close(true);
+        segment = null;
+      }
+    }
+  }
+
+  /** Completes the current segment, if any, and starts a new one whose first event is {@code firstSequence}. */
+  private void startSegment(long firstSequence) throws IOException {
+    if (segment != null) {
+      segment.close(policy.forcesCompletedSegments());
+      segment = null;
+      unforced = 0;
+    }
+    File file = new File(directory, segmentName(firstSequence));
+    // Only a segment left without events by a crash can have the same first sequence; its bytes must not be reused.
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Unable to replace empty journal segment " + file);
+    }
+    segment = new Segment(file, segmentSize, firstSequence);
+  }
+
+  @Override public String toString() {
+    return "[Journal " + directory + "]";
+  }
+
+  /** Returns the segment files in {@code directory}, oldest first. */
+  static File[] segments(File directory) {
+    File[] files = directory.listFiles(new FileFilter() {
+      @Override public boolean accept(File file) {
+        return file.isFile() && file.getName().endsWith(SUFFIX);
+      }
+    });
+    if (files == null) {
+      return new File[0];
+    }
+    // Names are zero-padded sequence numbers, so they sort in order.
+    Arrays.sort(files);
+    return files;
+  }
+
+  static String segmentName(long firstSequence) {
+    String digits = Long.toString(firstSequence);
+    StringBuilder name = new StringBuilder();
+    for (int i = digits.length(); i < SEGMENT_NAME_DIGITS; i++) {
+      name.append('0');
+    }
+    return name.append(digits).append(SUFFIX).toString();
+  }
+
+  /** Returns the sequence number of the last event journaled in {@code directory}, or -1 if it has none. */
+  private static long lastSequence(File directory) throws IOException {
+    File[] files = segments(directory);
+    if (files.length == 0) {
+      return -1;
+    }
+    SegmentReader reader = new SegmentReader(files[files.length - 1]);
+    long last = reader.firstSequence - 1;
+    while (reader.next()) {
+      last = reader.sequence;
+    }
+    return last;
+  }
+
+  /** Starts the daemon thread which forces the segment every {@code intervalNanos}. */
+  private ScheduledExecutorService startForcer(long intervalNanos) {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "Otto journal " + directory.getName());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override public void run() {
+        force();
+      }
+    }, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    return executor;
+  }
+
+  /** A segment being written. */
+  private static final class Segment {
+    final MappedByteBuffer buffer;
+    private final RandomAccessFile file;
+    /** Index of each event type defined in this segment, by name. */
+    private final Map<String, Integer> types = new HashMap<String, Integer>();
+
+    Segment(File path, int size, long firstSequence) throws IOException {
+      file = new RandomAccessFile(path, "rw");
+      try {
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      } catch (IOException e) {
+        file.close();
+        throw e;
+      }
+      buffer.putInt(MAGIC).putInt(VERSION).putLong(firstSequence);
+    }
+
+    /** Appends the event, defining its type first if needed. Returns false if it does not fit. */
+    boolean append(String typeName, EventCodec<Object> codec, Object event, long sequence, long timestamp) {
+      Integer index = types.get(typeName);
+      if (index == null) {
+        byte[] name = typeName.getBytes(UTF_8);
+        if (buffer.remaining() < RECORD_HEADER_SIZE + name.length) {
+          return false;
+        }
+        index = types.size();
+        int start = buffer.position();
+        buffer.position(start + RECORD_HEADER_SIZE);
+        buffer.put(name);
+        publish(start, -index - 1, 0, 0);
+        types.put(typeName, index);
+      }
+
+      int start = buffer.position();
+      if (buffer.remaining() < RECORD_HEADER_SIZE) {
+        return false;
+      }
+      buffer.position(start + RECORD_HEADER_SIZE);
+      boolean encoded = false;
+      try {
+        codec.encode(event, buffer);
+        encoded = true;
+      } catch (BufferOverflowException e) {
+        return false;
+      } finally {
+        buffer.limit(buffer.capacity());
+        if (!encoded) {
+          buffer.position(start);
+        }
+      }
+      publish(start, index, sequence, timestamp);
+      return true;
+    }
+
+    /** Fills in the header of the record from {@code start} to the buffer's position, writing its length last. */
+    private void publish(int start, int type, long sequence, long timestamp) {
+      buffer.putInt(start + TYPE_OFFSET, type).putLong(start + SEQUENCE_OFFSET, sequence)
+          .putLong(start + TIMESTAMP_OFFSET, timestamp);
+      buffer.putInt(start, buffer.position() - start);
+    }
+
+    void close(boolean force) throws IOException {
+      if (force) {
+        buffer.force();
+      }
+      file.close();
+    }
+  }
+
+  /** Reads the events of one segment in order. */
+  static final class SegmentReader {
+    final long firstSequence;
+    private final ByteBuffer buffer;
+    private final List<String> types = new ArrayList<String>();
+
+    /** Type name, sequence number, timestamp and encoded bytes of the current event. */
+    String typeName;
+    long sequence;
+    long timestamp;
+    ByteBuffer payload;
+
+    SegmentReader(File path) throws IOException {
+      RandomAccessFile file = new RandomAccessFile(path, "r");
+      try {
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+      } finally {
+        file.close();
+      }
+      if (buffer.remaining() < SEGMENT_HEADER_SIZE || buffer.getInt() != MAGIC) {
+        throw new IOException(path + " is not a journal segment.");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException(path + " has unsupported journal version " + version + ".");
+      }
+      firstSequence = buffer.getLong();
+    }
+
+    /** Advances to the next event, returning false once there are no more. */
+    boolean next() {
+      while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+        int start = buffer.position();
+        int length = buffer.getInt(start);
+        if (length < RECORD_HEADER_SIZE || length > buffer.limit() - start) {
+          // The unused end of the segment, or a record torn by a crash.
+          return false;
+        }
+        int type = buffer.getInt(start + TYPE_OFFSET);
+        ByteBuffer record = buffer.duplicate();
+        record.position(start + RECORD_HEADER_SIZE);
+        record.limit(start + length);
+        buffer.position(start + length);
+        if (type < 0) {
+          byte[] name = new byte[record.remaining()];
+          record.get(name);
+          types.add(new String(name, UTF_8));
+          continue;
+        }
+        if (type >= types.size()) {
+          throw new IllegalStateException("Journal record at " + start + " has undefined type " + type + ".");
+        }
+        typeName = types.get(type);
+        sequence = buffer.getLong(start + SEQUENCE_OFFSET);
+        timestamp = buffer.getLong(start + TIMESTAMP_OFFSET);
+        payload = record.slice();
+        return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Posts the events recorded by a {@link JournalingBus} into another bus, to reproduce what flowed through it.
+ *
+ * <p>Segments are memory-mapped and decoded by a pool of threads, several segments at once, while the thread calling
+ * {@link #replay} posts the decoded events in the order they were journaled. Events of each type, and of all types
+ * together, are therefore posted in their original order. At most {@code parallelism} segments are decoded at once,
+ * each only a few chunks of events ahead of the posting thread, so the memory a replay holds does not grow with the
+ * size of the segments.
+ *
+ * <p>Events are posted as fast as possible, or {@linkplain #replay(Bus, double) time-scaled} to follow the gaps between
+ * their journal timestamps. Every journaled type needs a {@linkplain #registerCodec codec}.
+ */
+public final class JournalReplayer {
+  /** Decoded events are handed to the posting thread in chunks of this many. */
+  static final int CHUNK_SIZE = 256;
+  /** Chunks a decoder may get ahead of the posting thread. */
+  static final int CHUNKS_AHEAD = 4;
+
+  private final File directory;
+  private final int parallelism;
+
+  /** Codecs by the name of the type they were registered for. */
+  private final ConcurrentMap<String, EventCodec<?>> codecs = new ConcurrentHashMap<String, EventCodec<?>>();
+
+  /**
+   * Creates a replayer of the journal in {@code directory} which decodes on one thread per processor.
+   *
+   * @param directory Where a {@link JournalingBus} wrote its segment files.
+   */
+  public JournalReplayer(File directory) {
+    this(directory, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a replayer of the journal in {@code directory}.
+   *
+   * @param directory Where a {@link JournalingBus} wrote its segment files.
+   * @param parallelism Number of segments decoded at once.
+   */
+  public JournalReplayer(File directory, int parallelism) {
+    if (directory == null) {
+      throw new NullPointerException("Directory must not be null.");
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1 but was " + parallelism + ".");
+    }
+    this.directory = directory;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Decodes events journaled as {@code type} with {@code codec}. This is the type the codec was registered for on the
+   * {@link JournalingBus}, which may be a superclass of the events it encoded.
+   *
+   * @throws IllegalArgumentException if {@code type} already has a codec.
+   */
+  public <T> void registerCodec(Class<T> type, EventCodec<T> codec) {
+    if (type == null) {
+      throw new NullPointerException("Type must not be null.");
+    }
+    if (codec == null) {
+      throw new NullPointerException("Codec must not be null.");
+    }
+    if (codecs.putIfAbsent(type.getName(), codec) != null) {
+      throw new IllegalArgumentException("Codec for type " + type + " has already been registered.");
+    }
+  }
+
+  /**
+   * Posts every journaled event to {@code bus}, in order, as fast as the bus accepts them.
+   *
+   * @return the number of events posted.
+   * @throws IOException if a segment cannot be read.
+   * @throws IllegalStateException if an event type has no codec.
+   * @throws InterruptedException if the calling thread is interrupted while waiting for a segment to be decoded.
+   */
+  public long replay(Bus bus) throws IOException, InterruptedException {
+    return post(bus, 0);
+  }
+
+  /**
+   * Posts every journaled event to {@code bus}, in order, spaced out by the time between their journal timestamps
+   * divided by {@code speed}. A speed of 1 replays at the original pace, 2 twice as fast. The time between journals
+   * written by separate runs is replayed as well. Events fall behind schedule rather than being skipped if the bus or
+   * the decoders cannot keep up.
+   *
+   * @return the number of events posted.
+   * @throws IOException if a segment cannot be read.
+   * @throws IllegalStateException if an event type has no codec.
+   * @throws InterruptedException if the calling thread is interrupted while waiting.
+   */
+  public long replay(Bus bus, double speed) throws IOException, InterruptedException {
+    if (!(speed > 0) || Double.isInfinite(speed)) {
+      throw new IllegalArgumentException("Speed must be positive but was " + speed + ".");
+    }
+    return post(bus, speed);
+  }
+
+  /** Posts every journaled event to {@code bus}, time-scaled by {@code speed} unless it is 0. */
+  private long post(Bus bus, double speed) throws IOException, InterruptedException {
+    if (bus == null) {
+      throw new NullPointerException("Bus must not be null.");
+    }
+    File[] segments = Journal.segments(directory);
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(segments.length, 1)),
+        new ThreadFactory() {
+          @Override public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Otto replay " + directory.getName());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    try {
+      Decoder[] decoders = new Decoder[segments.length];
+      @SuppressWarnings("unchecked")
+      Future<Void>[] decoding = new Future[segments.length];
+      int submitted = 0;
+      long posted = 0;
+      long firstTimestamp = 0;
+      long start = 0;
+      for (int i = 0; i < segments.length; i++) {
+        // Every decoder submitted gets a thread, so the one for this segment is running.
+        for (; submitted < segments.length && submitted < i + parallelism; submitted++) {
+          decoders[submitted] = new Decoder(segments[submitted]);
+          decoding[submitted] = pool.submit(decoders[submitted]);
+        }
+        BlockingQueue<Chunk> chunks = decoders[i].chunks;
+        decoders[i] = null;
+        for (Chunk chunk = chunks.take(); chunk != Chunk.END; chunk = chunks.take()) {
+          for (int e = 0; e < chunk.size; e++) {
+            if (speed != 0) {
+              if (posted == 0) {
+                firstTimestamp = chunk.timestamps[e];
+                start = System.nanoTime();
+              } else {
+                waitUntil(start + (long) ((chunk.timestamps[e] - firstTimestamp) / speed));
+              }
+            }
+            bus.post(chunk.events[e]);
+            posted++;
+          }
+        }
+        // Throws if the decoder failed before the end of its segment.
+        await(decoding[i]);
+        decoding[i] = null;
+      }
+      return posted;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Override public String toString() {
+    return "[JournalReplayer " + directory + "]";
+  }
+
+  private static void await(Future<Void> future) throws IOException, InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private static void waitUntil(long deadline) throws InterruptedException {
+    for (long remaining = deadline - System.nanoTime(); remaining > 0; remaining = deadline - System.nanoTime()) {
+      LockSupport.parkNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(1)));
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  /**
+   * Decodes every event of one segment into chunks for the posting thread, waiting while it is {@link #CHUNKS_AHEAD}
+   * chunks ahead. Ends with {@link Chunk#END}, even if decoding fails.
+   */
+  private final class Decoder implements Callable<Void> {
+    final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<Chunk>(CHUNKS_AHEAD);
+    private final File file;
+
+    Decoder(File file) {
+      this.file = file;
+    }
+
+    @Override public Void call() throws IOException, InterruptedException {
+      try {
+        Journal.SegmentReader reader = new Journal.SegmentReader(file);
+        Chunk chunk = new Chunk(CHUNK_SIZE);
+        while (reader.next()) {
+          EventCodec<?> codec = codecs.get(reader.typeName);
+          if (codec == null) {
+            throw new IllegalStateException("No codec registered for journaled type " + reader.typeName + " in "
+                + file + ".");
+          }
+          Object event = codec.decode(reader.payload);
+          if (event == null) {
+            throw new IllegalStateException(codec + " decoded event " + reader.sequence + " in " + file + " as null.");
+          }
+          chunk.events[chunk.size] = event;
+          chunk.timestamps[chunk.size] = reader.timestamp;
+          chunk.size++;
+          if (chunk.size == CHUNK_SIZE) {
+            chunks.put(chunk);
+            chunk = new Chunk(CHUNK_SIZE);
+          }
+        }
+        if (chunk.size != 0) {
+          chunks.put(chunk);
+        }
+      } finally {
+        chunks.put(Chunk.END);
+      }
+      return null;
+    }
+  }
+
+  /** Consecutive events of a segment and their timestamps, in journal order. */
+  private static final class Chunk {
+    /** Marks the end of a segment. */
+    static final Chunk END = new Chunk(0);
+
+    final Object[] events;
+    final long[] timestamps;
+    int size;
+
+    Chunk(int capacity) {
+      events = new Object[capacity];
+      timestamps = new long[capacity];
+    }
+  }
+}
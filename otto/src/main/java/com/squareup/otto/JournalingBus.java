@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link Bus} which records every event it is posted in a journal before delivering it, as an audit trail of what
+ * flowed through it.
+ *
+ * <p>The journal is a directory of memory-mapped segment files of a fixed size. Events are encoded by the
+ * {@link EventCodec} {@linkplain #registerCodec registered} for their class or its nearest superclass straight into
+ * the mapped segment, so posting makes no system call except when a segment fills up, or when the
+ * {@link ForcePolicy} forces appended events out to the device. Events without a codec, and {@link DeadEvent}s, are
+ * delivered without being journaled. Posting through an {@link IntChannel}, {@link LongChannel} or
+ * {@link DoubleChannel} journals the boxed value.
+ *
+ * <p>Opening a journal directory which already holds segments continues their sequence numbers in a new segment.
+ * {@link #close()} forces and closes the journal, after which posting fails.
+ *
+ * <p>Journaling is built into this bus rather than wrapped around another one, so an existing bus cannot be
+ * journaled, nor can a bus which delivers its own way, such as an {@link AsyncBus} or a {@link RingBufferBus}. Create
+ * the journaling bus in place of the plain {@link Bus} whose events are to be recorded.
+ */
+public class JournalingBus extends Bus implements Closeable {
+  /** Size of each segment file unless given: 64 MiB. */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  /** Marks event classes which have no codec. */
+  private static final Object NO_CODEC = new Object();
+
+  private final Journal journal;
+
+  /** Codecs by the type they were registered for. */
+  private final ConcurrentMap<Class<?>, EventCodec<?>> codecs = new ConcurrentHashMap<Class<?>, EventCodec<?>>();
+
+  /** Registered type (or {@link #NO_CODEC}) whose codec encodes each posted event class. */
+  private final ConcurrentMap<Class<?>, Object> codecTypes = new ConcurrentHashMap<Class<?>, Object>();
+
+  /**
+   * Creates a new JournalingBus named "default" that enforces actions on the main thread, journaling to
+   * {@code directory}.
+   *
+   * @param directory Where the segment files are written. Created if missing.
+   * @param policy When appended events are forced to the device.
+   * @throws IOException if the directory cannot be created or its existing segments cannot be read.
+   */
+  public JournalingBus(File directory, ForcePolicy policy) throws IOException {
+    this(ThreadEnforcer.MAIN, DEFAULT_IDENTIFIER, directory, DEFAULT_SEGMENT_SIZE, policy);
+  }
+
+  /**
+   * Creates a new JournalingBus with the given {@code enforcer} for actions and the given {@code identifier},
+   * journaling to {@code directory}.
+   *
+   * @param enforcer Thread enforcer for register, unregister, and post actions.
+   * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
+   * @param directory Where the segment files are written. Created if missing.
+   * @param segmentSize Size of each segment file in bytes, which bounds the size of an encoded event.
+   * @param policy When appended events are forced to the device.
+   * @throws IOException if the directory cannot be created or its existing segments cannot be read.
+   */
+  public JournalingBus(ThreadEnforcer enforcer, String identifier, File directory, int segmentSize,
+      ForcePolicy policy) throws IOException {
+    this(enforcer, identifier, HandlerFinder.GENERATED, directory, segmentSize, policy);
+  }
+
+  /** Test constructor which allows replacing the default {@code HandlerFinder}. */
+  JournalingBus(ThreadEnforcer enforcer, String identifier, HandlerFinder handlerFinder, File directory,
+      int segmentSize, ForcePolicy policy) throws IOException {
+    super(enforcer, identifier, handlerFinder);
+    this.journal = new Journal(directory, segmentSize, policy);
+  }
+
+  /**
+   * Journals events of {@code type} and its subclasses with {@code codec}, unless a subclass has a codec of its own.
+   * Events are recorded under the name of {@code type}, which is what a reader looks their codec up by. Codecs
+   * should be registered before events of their type are posted.
+   *
+   * @throws IllegalArgumentException if {@code type} already has a codec.
+   */
+  public <T> void registerCodec(Class<T> type, EventCodec<T> codec) {
+    if (type == null) {
+      throw new NullPointerException("Type must not be null.");
+    }
+    if (codec == null) {
+      throw new NullPointerException("Codec must not be null.");
+    }
+    if (codecs.putIfAbsent(type, codec) != null) {
+      throw new IllegalArgumentException("Codec for type " + type + " has already been registered.");
+    }
+    codecTypes.clear();
+  }
+
+  /** Journals {@code event}, then delivers it as {@link Bus} does. */
+  @Override void postToHandlers(Object event, EventHandler[] wrappers) {
+    journal(DeliveryFuture.eventOf(event));
+    super.postToHandlers(event, wrappers);
+  }
+
+  /** Journals each event of a batch as it is queued, so that events posted by its handlers are journaled first. */
+  @Override void queuingBatchEvent(Object event) {
+    journal(event);
+  }
+
+  /** Values posted to primitive channels without handlers are journaled too. */
+  @Override boolean observesUnhandledEvents() {
+    return true;
+  }
+
+  /** Primitive channels post boxed values, so that they are journaled. */
+  @Override DispatchQueue startInlineDispatch() {
+    return null;
+  }
+
+  /**
+   * Forces and closes the journal. Posting afterwards fails with an {@link IllegalStateException}.
+   *
+   * @throws IOException if the journal cannot be closed.
+   */
+  @Override public void close() throws IOException {
+    journal.close();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void journal(Object event) {
+    if (event instanceof DeadEvent) {
+      // The event it wraps was journaled when it was posted.
+      return;
+    }
+    Class<?> type = codecTypeOf(event.getClass());
+    if (type == null) {
+      return;
+    }
+    try {
+      journal.append(type.getName(), (EventCodec<Object>) codecs.get(type), event);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to journal event " + event + " in " + journal + ".", e);
+    }
+  }
+
+  /** Returns the type whose codec encodes events of {@code eventClass}, or {@code null} if there is none. */
+  private Class<?> codecTypeOf(Class<?> eventClass) {
+    Object type = codecTypes.get(eventClass);
+    if (type == null) {
+      type = NO_CODEC;
+      for (Class<?> clazz = eventClass; clazz != null; clazz = clazz.getSuperclass()) {
+        if (codecs.containsKey(clazz)) {
+          type = clazz;
+          break;
+        }
+      }
+      codecTypes.put(eventClass, type);
+    }
+    return type == NO_CODEC ? null : (Class<?>) type;
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Calls a method through a functional interface spun once by {@code java.lang.invoke.LambdaMetafactory}, making
+ * each call a plain interface call the JIT can inline.
+ *
+ * <p>This class must only be loaded once {@link Invoker#forMethod(Method)} has found {@link #METAFACTORY_CLASS},
+ * since {@code java.lang.invoke} is missing from Java 6 and most Android releases.
+ */
+abstract class LambdaInvoker extends Invoker {
+
+  /** Functional interface implemented for handler methods. */
+  interface HandlerCall {
+    void call(Object target, Object event);
+  }
+
+  /** Functional interface implemented for handler methods which take an {@code int}. */
+  interface IntHandlerCall {
+    void call(Object target, int value);
+  }
+
+  /** Functional interface implemented for handler methods which take a {@code long}. */
+  interface LongHandlerCall {
+    void call(Object target, long value);
+  }
+
+  /** Functional interface implemented for handler methods which take a {@code double}. */
+  interface DoubleHandlerCall {
+    void call(Object target, double value);
+  }
+
+  /** Functional interface implemented for producer methods. */
+  interface ProducerCall {
+    Object call(Object target);
+  }
+
+  static final String METAFACTORY_CLASS = "java.lang.invoke.LambdaMetafactory";
+
+  /** {@code LambdaMetafactory.metafactory}, or {@code null} if this runtime does not have it. */
+  private static final Method METAFACTORY = findMetafactory();
+
+  private final Method method;
+
+  LambdaInvoker(Method method) {
+    this.method = method;
+  }
+
+  /**
+   * Binds {@code method}, returning {@code null} if it cannot be bound. Lambdas are spun inside Otto's own package
+   * and class loader, so only public instance methods on public classes visible to that loader qualify.
+   */
+  static Invoker create(Method method) {
+    if (METAFACTORY == null || !isBindable(method)) {
+      return null;
+    }
+    Class<?> declaringClass = method.getDeclaringClass();
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    try {
+      method.setAccessible(true);
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      MethodHandle implementation = lookup.unreflect(method);
+      if (parameterTypes.length == 1 && parameterTypes[0].isPrimitive()) {
+        return createPrimitiveHandler(method, lookup, implementation, parameterTypes[0]);
+      }
+      if (parameterTypes.length == 1) {
+        HandlerCall call = (HandlerCall) spin(lookup, implementation, HandlerCall.class,
+            MethodType.methodType(void.class, Object.class, Object.class),
+            MethodType.methodType(void.class, declaringClass, parameterTypes[0]));
+        return new Handler(method, call);
+      }
+      ProducerCall call = (ProducerCall) spin(lookup, implementation, ProducerCall.class,
+          MethodType.methodType(Object.class, Object.class),
+          MethodType.methodType(Object.class, declaringClass));
+      return new Producer(method, call);
+    } catch (Exception e) {
+      return null;
+    } catch (LinkageError e) {
+      return null;
+    }
+  }
+
+  /** Binds a handler method taking {@code parameterType}, one of {@code int}, {@code long} and {@code double}. */
+  private static Invoker createPrimitiveHandler(Method method, MethodHandles.Lookup lookup,
+      MethodHandle implementation, Class<?> parameterType) throws Exception {
+    Class<?> declaringClass = method.getDeclaringClass();
+    MethodType erasedType = MethodType.methodType(void.class, Object.class, parameterType);
+    MethodType instantiatedType = MethodType.methodType(void.class, declaringClass, parameterType);
+    if (parameterType == int.class) {
+      return new IntHandler(method,
+          (IntHandlerCall) spin(lookup, implementation, IntHandlerCall.class, erasedType, instantiatedType));
+    }
+    if (parameterType == long.class) {
+      return new LongHandler(method,
+          (LongHandlerCall) spin(lookup, implementation, LongHandlerCall.class, erasedType, instantiatedType));
+    }
+    if (parameterType == double.class) {
+      return new DoubleHandler(method,
+          (DoubleHandlerCall) spin(lookup, implementation, DoubleHandlerCall.class, erasedType, instantiatedType));
+    }
+    return null;
+  }
+
+  private static Object spin(MethodHandles.Lookup lookup, MethodHandle implementation, Class<?> callType,
+      MethodType erasedType, MethodType instantiatedType) throws Exception {
+    CallSite site = (CallSite) METAFACTORY.invoke(null, lookup, "call", MethodType.methodType(callType), erasedType,
+        implementation, instantiatedType);
+    try {
+      return site.getTarget().invokeWithArguments();
+    } catch (Exception e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static boolean isBindable(Method method) {
+    if (Modifier.isStatic(method.getModifiers()) || !Modifier.isPublic(method.getModifiers())) {
+      return false;
+    }
+    for (Class<?> type = method.getDeclaringClass(); type != null; type = type.getEnclosingClass()) {
+      if (!Modifier.isPublic(type.getModifiers())) {
+        return false;
+      }
+    }
+    if (!isVisible(method.getDeclaringClass()) || !isVisible(method.getReturnType())) {
+      return false;
+    }
+    for (Class<?> parameterType : method.getParameterTypes()) {
+      if (!isVisible(parameterType)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns true if {@code type} resolves to the same class from Otto's class loader. */
+  private static boolean isVisible(Class<?> type) {
+    while (type.isArray()) {
+      type = type.getComponentType();
+    }
+    if (type.isPrimitive()) {
+      return true;
+    }
+    try {
+      return Class.forName(type.getName(), false, LambdaInvoker.class.getClassLoader()) == type;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private static Method findMetafactory() {
+    try {
+      return Class.forName(METAFACTORY_CLASS).getMethod("metafactory", MethodHandles.Lookup.class, String.class,
+          MethodType.class, MethodType.class, MethodHandle.class, MethodType.class);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  @Override public String toString() {
+    return method.toString();
+  }
+
+  @Override public int hashCode() {
+    return method.hashCode();
+  }
+
+  @Override public boolean equals(Object obj) {
+    return obj instanceof LambdaInvoker && method.equals(((LambdaInvoker) obj).method);
+  }
+
+  /** Invokes a handler method. */
+  private static final class Handler extends LambdaInvoker {
+    private final HandlerCall call;
+
+    Handler(Method method, HandlerCall call) {
+      super(method);
+      this.call = call;
+    }
+
+    @Override Object invoke(Object target, Object argument) {
+      call.call(target, argument);
+      return null;
+    }
+  }
+
+  /** Invokes a handler method which takes an {@code int}, unboxing events posted as objects. */
+  private static final class IntHandler extends LambdaInvoker {
+    private final IntHandlerCall call;
+
+    IntHandler(Method method, IntHandlerCall call) {
+      super(method);
+      this.call = call;
+    }
+
+    @Override Object invoke(Object target, Object argument) {
+      call.call(target, (Integer) argument);
+      return null;
+    }
+
+    @Override void invokeInt(Object target, int value) {
+      call.call(target, value);
+    }
+  }
+
+  /** Invokes a handler method which takes a {@code long}, unboxing events posted as objects. */
+  private static final class LongHandler extends LambdaInvoker {
+    private final LongHandlerCall call;
+
+    LongHandler(Method method, LongHandlerCall call) {
+      super(method);
+      this.call = call;
+    }
+
+    @Override Object invoke(Object target, Object argument) {
+      call.call(target, (Long) argument);
+      return null;
+    }
+
+    @Override void invokeLong(Object target, long value) {
+      call.call(target, value);
+    }
+  }
+
+  /** Invokes a handler method which takes a {@code double}, unboxing events posted as objects. */
+  private static final class DoubleHandler extends LambdaInvoker {
+    private final DoubleHandlerCall call;
+
+    DoubleHandler(Method method, DoubleHandlerCall call) {
+      super(method);
+      this.call = call;
+    }
+
+    @Override Object invoke(Object target, Object argument) {
+      call.call(target, (Double) argument);
+      return null;
+    }
+
+    @Override void invokeDouble(Object target, double value) {
+      call.call(target, value);
+    }
+  }
+
+  /** Invokes a producer method. */
+  private static final class Producer extends LambdaInvoker {
+    private final ProducerCall call;
+
+    Producer(Method method, ProducerCall call) {
+      super(method);
+      this.call = call;
+    }
+
+    @Override Object invoke(Object target, Object argument) {
+      return call.call(target);
+    }
+  }
+}
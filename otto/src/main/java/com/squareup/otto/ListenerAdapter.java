@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calls the {@link Subscribe} and {@link Produce} methods of a single listener class directly instead of through
+ * reflection.
+ *
+ * <p>Subclasses are generated by the Otto annotation processor into the listener's package and named after the
+ * listener's binary name with a {@value #SUFFIX} suffix. They declare each method in their constructor through
+ * {@link #subscribe(String, Class)} and {@link #produce(String, Class)}, and then dispatch on the returned index.
+ * This class is not intended to be extended by hand.
+ */
+public abstract class ListenerAdapter {
+  /** Suffix appended to a listener class's binary name to form the name of its generated adapter. */
+  public static final String SUFFIX = "$$OttoAdapter";
+
+  private final String listenerName;
+  private final List<Class<?>> subscribedTypes = new ArrayList<Class<?>>();
+  private final List<SubscriberMethod> subscriberMethods = new ArrayList<SubscriberMethod>();
+  private final List<Class<?>> producedTypes = new ArrayList<Class<?>>();
+  private final List<Invoker> producerInvokers = new ArrayList<Invoker>();
+  /** Built from the declared methods on first use, once the subclass constructor has declared them all. */
+  private volatile ListenerTemplate template;
+
+  /** @param listenerClass the class whose annotated methods this adapter calls. */
+  protected ListenerAdapter(Class<?> listenerClass) {
+    this.listenerName = listenerClass.getName();
+  }
+
+  /**
+   * Declares a {@link Subscribe} method.
+   *
+   * @return the index which will be passed to {@link #handleEvent(Object, int, Object)} for this method.
+   */
+  protected final int subscribe(String methodName, Class<?> eventType) {
+    return subscribe(methodName, eventType, false);
+  }
+
+  /**
+   * Declares a {@link Subscribe} method whose annotation sets {@link Subscribe#conflate()}.
+   *
+   * @return the index which will be passed to {@link #handleEvent(Object, int, Object)} for this method.
+   */
+  protected final int subscribe(String methodName, Class<?> eventType, boolean conflate) {
+    return subscribe(methodName, eventType, conflate, DeliveryMode.POSTING, "");
+  }
+
+  /**
+   * Declares a {@link Subscribe} method with the options set on its annotation.
+   *
+   * @return the index which will be passed to {@link #handleEvent(Object, int, Object)} for this method.
+   */
+  protected final int subscribe(String methodName, Class<?> eventType, boolean conflate, DeliveryMode delivery,
+      String executor) {
+    return subscribe(methodName, eventType, conflate, delivery, executor, 0, 0);
+  }
+
+  /**
+   * Declares a {@link Subscribe} method with the options set on its annotation, including a
+   * {@linkplain Subscribe#debounceMillis() debounce} or {@linkplain Subscribe#throttleMillis() throttle} time.
+   *
+   * @return the index which will be passed to {@link #handleEvent(Object, int, Object)} for this method.
+   */
+  protected final int subscribe(String methodName, Class<?> eventType, boolean conflate, DeliveryMode delivery,
+      String executor, long debounceMillis, long throttleMillis) {
+    int index = subscribedTypes.size();
+    subscribedTypes.add(eventType);
+    Invoker invoker = new SubscriberInvoker(index, describe(methodName, eventType));
+    subscriberMethods.add(new SubscriberMethod(invoker, conflate, delivery, executor, debounceMillis, throttleMillis));
+    return index;
+  }
+
+  /**
+   * Declares a {@link Produce} method.
+   *
+   * @return the index which will be passed to {@link #produceEvent(Object, int)} for this method.
+   */
+  protected final int produce(String methodName, Class<?> eventType) {
+    int index = producedTypes.size();
+    producedTypes.add(eventType);
+    producerInvokers.add(new ProducerInvoker(index, describe(methodName, null)));
+    return index;
+  }
+
+  /** Calls the subscriber method declared at {@code index} on {@code listener}. */
+  protected abstract void handleEvent(Object listener, int index, Object event) throws Throwable;
+
+  /** Calls the producer method declared at {@code index} on {@code listener} and returns its result. */
+  protected abstract Object produceEvent(Object listener, int index) throws Throwable;
+
+  /** Returns the methods declared by the constructor. */
+  ListenerTemplate template() {
+    ListenerTemplate result = template;
+    if (result == null) {
+      // Racing threads build equal templates, so it does not matter whose is kept.
+      result = new ListenerTemplate(subscribedTypes, subscriberMethods, producedTypes, producerInvokers);
+      template = result;
+    }
+    return result;
+  }
+
+  private String describe(String methodName, Class<?> parameterType) {
+    return listenerName + "." + methodName + "(" + (parameterType == null ? "" : parameterType.getName()) + ")";
+  }
+
+  /** Identity-equal invoker for one subscriber method of this adapter. */
+  private final class SubscriberInvoker extends Invoker {
+    private final int index;
+    private final String description;
+
+    SubscriberInvoker(int index, String description) {
+      this.index = index;
+      this.description = description;
+    }
+
+    @Override Object invoke(Object target, Object argument) throws Throwable {
+      handleEvent(target, index, argument);
+      return null;
+    }
+
+    @Override public String toString() {
+      return description;
+    }
+  }
+
+  /** Identity-equal invoker for one producer method of this adapter. */
+  private final class ProducerInvoker extends Invoker {
+    private final int index;
+    private final String description;
+
+    ProducerInvoker(int index, String description) {
+      this.index = index;
+      this.description = description;
+    }
+
+    @Override Object invoke(Object target, Object argument) throws Throwable {
+      return produceEvent(target, index);
+    }
+
+    @Override public String toString() {
+      return description;
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Weak reference to a listener registered with {@link Bus#registerWeakly(Object)}, through which its handlers and
+ * producers reach it. Once the listener is collected the reference is enqueued, and the bus cancels its registration.
+ */
+final class ListenerReference extends WeakReference<Object> {
+  /** Set once the listener's handlers and producers are installed. */
+  volatile Registration registration;
+
+  ListenerReference(Object listener, ReferenceQueue<Object> queue) {
+    super(listener, queue);
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@link Subscribe} and {@link Produce} methods of one listener class, found once and shared by every instance
+ * registered. Registering an instance only binds it to these methods, without looking them up or copying them.
+ */
+final class ListenerTemplate {
+  static final ListenerTemplate EMPTY = new ListenerTemplate(Collections.<Class<?>>emptyList(),
+      Collections.<SubscriberMethod>emptyList(), Collections.<Class<?>>emptyList(), Collections.<Invoker>emptyList());
+
+  /** Every event type with at least one subscriber method. */
+  final Set<Class<?>> subscribedTypes;
+  /** The distinct types of {@link #subscribedTypes}, in the order their subscribers appear in {@link #subscribers}. */
+  final Class<?>[] types;
+  /** Index into {@link #subscribers} of the first method for each of {@link #types}, followed by the total count. */
+  final int[] typeStarts;
+  /** The subscriber methods, grouped by event type. */
+  final SubscriberMethod[] subscribers;
+  /** The event type of each producer method. */
+  final Class<?>[] producedTypes;
+  final Invoker[] producers;
+
+  /**
+   * @param subscriberTypes the event type of each of {@code subscribers}.
+   * @param subscribers the subscriber methods, in the order they are called for a shared event type.
+   * @param producedTypes the event type of each of {@code producers}.
+   * @param producers the producer methods.
+   */
+  ListenerTemplate(List<Class<?>> subscriberTypes, List<SubscriberMethod> subscribers, List<Class<?>> producedTypes,
+      List<Invoker> producers) {
+    Map<Class<?>, List<SubscriberMethod>> byType = new LinkedHashMap<Class<?>, List<SubscriberMethod>>();
+    for (int i = 0; i < subscribers.size(); i++) {
+      List<SubscriberMethod> methods = byType.get(subscriberTypes.get(i));
+      if (methods == null) {
+        methods = new ArrayList<SubscriberMethod>();
+        byType.put(subscriberTypes.get(i), methods);
+      }
+      methods.add(subscribers.get(i));
+    }
+
+    this.subscribedTypes = Collections.unmodifiableSet(new LinkedHashSet<Class<?>>(byType.keySet()));
+    this.types = byType.keySet().toArray(new Class<?>[byType.size()]);
+    this.typeStarts = new int[types.length + 1];
+    this.subscribers = new SubscriberMethod[subscribers.size()];
+    int next = 0;
+    for (int t = 0; t < types.length; t++) {
+      typeStarts[t] = next;
+      for (SubscriberMethod method : byType.get(types[t])) {
+        this.subscribers[next++] = method;
+      }
+    }
+    typeStarts[types.length] = next;
+    this.producedTypes = producedTypes.toArray(new Class<?>[producedTypes.size()]);
+    this.producers = producers.toArray(new Invoker[producers.size()]);
+  }
+}
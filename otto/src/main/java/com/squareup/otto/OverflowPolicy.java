@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+/**
+ * What a publisher from {@link Bus#asPublisher(Class, int, OverflowPolicy)} does with an event posted while its buffer
+ * is full because the subscriber has not requested the events before it.
+ */
+public enum OverflowPolicy {
+  /** Removes the oldest buffered event to make room, so the subscriber gets the newest ones. */
+  DROP_OLDEST,
+  /** Drops the new event, so the subscriber gets the oldest ones. */
+  DROP_NEWEST,
+  /**
+   * Cancels the subscription and signals an {@link IllegalStateException} to the subscriber, dropping the buffered
+   * events. This is the default.
+   */
+  ERROR
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Shared state of {@link IntChannel}, {@link LongChannel} and {@link DoubleChannel}: the handlers of one primitive
+ * type and its wrapper class, resolved once and kept until listeners are registered or unregistered on the bus.
+ */
+abstract class PrimitiveChannel {
+  final Bus bus;
+  private final Class<?> primitiveType;
+  private final Class<?> wrapperType;
+
+  /** Handlers of {@link #wrapperType}, and the dispatch table version they were resolved at. */
+  private volatile Handlers handlers;
+
+  PrimitiveChannel(Bus bus, Class<?> primitiveType) {
+    this.bus = bus;
+    this.primitiveType = primitiveType;
+    this.wrapperType = Bus.wrapperOf(primitiveType);
+  }
+
+  /** Checks the posting thread and returns the current handlers, resolving them again if listeners have changed. */
+  final Handlers prepare() {
+    bus.prepareChannelPost();
+    Handlers current = handlers;
+    // Read the version first: a change after it makes the handlers resolved below stale rather than wrongly current.
+    int version = bus.getDispatchTableVersion();
+    if (current == null || current.version != version) {
+      current = resolve(version);
+      handlers = current;
+    }
+    return current;
+  }
+
+  /** Posts {@code value}, boxed, to every handler, as {@link Bus#post(Object)} would. */
+  final void postBoxed(Object value, Handlers current) {
+    if (current.all.length != 0 || bus.observesUnhandledEvents()) {
+      bus.postToHandlers(value, current.all);
+    }
+  }
+
+  /** Queues {@code value}, boxed, for the handlers which cannot be called with it directly. */
+  final void enqueueBoxed(Object value, Handlers current) {
+    EventHandler[] boxed = current.boxed;
+    for (int i = 0; i < boxed.length; i++) {
+      bus.enqueueAdmitted(value, boxed[i]);
+    }
+  }
+
+  private Handlers resolve(int version) {
+    Set<EventHandler> primitiveHandlers = bus.getHandlersForEventType(primitiveType);
+    List<EventHandler> direct = new ArrayList<EventHandler>();
+    List<EventHandler> boxed = new ArrayList<EventHandler>();
+    for (EventHandler handler : bus.getHandlersForEventClass(wrapperType)) {
+      if (primitiveHandlers != null && primitiveHandlers.contains(handler)
+          && handler.getDelivery() == DeliveryMode.POSTING && !handler.isConflating()
+          && handler.getRateLimiter() == null) {
+        direct.add(handler);
+      } else {
+        boxed.add(handler);
+      }
+    }
+    List<EventHandler> all = new ArrayList<EventHandler>(direct);
+    all.addAll(boxed);
+    return new Handlers(version, toArray(all), toArray(direct), toArray(boxed));
+  }
+
+  private static EventHandler[] toArray(List<EventHandler> handlers) {
+    return handlers.toArray(new EventHandler[handlers.size()]);
+  }
+
+  @Override public String toString() {
+    return "[" + getClass().getSimpleName() + " on " + bus + "]";
+  }
+
+  /** Resolved handlers, kept together with their version so that all of them are replaced at once. */
+  static final class Handlers {
+    final int version;
+    /** Every handler: the direct ones followed by the boxed ones, the order in which both kinds of post call them. */
+    final EventHandler[] all;
+    /** Handlers taking the primitive type which are called on the posting thread, so can be called directly. */
+    final EventHandler[] direct;
+    /** The other handlers, which receive the value boxed. */
+    final EventHandler[] boxed;
+
+    Handlers(int version, EventHandler[] all, EventHandler[] direct, EventHandler[] boxed) {
+      this.version = version;
+      this.all = all;
+      this.direct = direct;
+      this.boxed = boxed;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which events a {@linkplain Subscribe#throttleMillis() throttled} or
+ * {@linkplain Subscribe#debounceMillis() debounced} handler receives. The bus asks its handler's limiter before
+ * queueing an event for the handler; an event the limiter drops or replaces is reported to its {@link DeliveryFuture}
+ * as not delivered to the handler.
+ */
+abstract class RateLimiter {
+
+  /** Returns the limiter for a handler of {@code method}, or {@code null} if it is not rate limited. */
+  static RateLimiter forMethod(SubscriberMethod method) {
+    if (method.debounceMillis != 0) {
+      return new Debounce(TimeUnit.MILLISECONDS.toNanos(method.debounceMillis));
+    }
+    if (method.throttleMillis != 0) {
+      return new Throttle(TimeUnit.MILLISECONDS.toNanos(method.throttleMillis));
+    }
+    return null;
+  }
+
+  /**
+   * Called as {@code event} is posted to {@code handler} on {@code bus}. Returns true if the bus should queue the
+   * event for the handler now; otherwise the limiter has dropped the event or holds it back.
+   */
+  abstract boolean admit(Object event, EventHandler handler, Bus bus);
+
+  /** Admits the first event, then each event which arrives once the window started by the last admitted one is over. */
+  static final class Throttle extends RateLimiter {
+    private final long windowNanos;
+    /** When the current window ends. */
+    private final AtomicLong windowEnd = new AtomicLong(System.nanoTime());
+
+    Throttle(long windowNanos) {
+      this.windowNanos = windowNanos;
+    }
+
+    @Override boolean admit(Object event, EventHandler handler, Bus bus) {
+      long now = System.nanoTime();
+      long end = windowEnd.get();
+      // Of the events racing into a new window, only the one which starts it is admitted.
+      if (now - end >= 0 && windowEnd.compareAndSet(end, now + windowNanos)) {
+        return true;
+      }
+      DeliveryFuture.skip(event, handler);
+      return false;
+    }
+  }
+
+  /**
+   * Holds back every event, keeping only the newest, and releases that one from the bus's timer once no event has
+   * arrived for the quiet time. The timer is armed once per burst of events rather than for each event: when it goes
+   * off early because more events arrived, it is armed again for the rest of the quiet time.
+   */
+  static final class Debounce extends RateLimiter implements Runnable {
+    private final long quietNanos;
+
+    // Guarded by this limiter.
+    private Object held;
+    private long lastArrival;
+    private boolean armed;
+    private EventHandler handler;
+    private Bus bus;
+
+    Debounce(long quietNanos) {
+      this.quietNanos = quietNanos;
+    }
+
+    @Override boolean admit(Object event, EventHandler handler, Bus bus) {
+      Object replaced;
+      boolean arm;
+      synchronized (this) {
+        replaced = held;
+        held = event;
+        lastArrival = System.nanoTime();
+        arm = !armed;
+        armed = true;
+        this.handler = handler;
+        this.bus = bus;
+      }
+      if (replaced != null) {
+        DeliveryFuture.skip(replaced, handler);
+      }
+      if (arm) {
+        bus.timer().schedule(this, quietNanos);
+      }
+      return false;
+    }
+
+    /** Releases the held event if the quiet time has passed, or arms the timer for the rest of it. */
+    @Override public void run() {
+      Object event;
+      EventHandler target;
+      Bus owner;
+      long remaining;
+      synchronized (this) {
+        remaining = lastArrival + quietNanos - System.nanoTime();
+        event = held;
+        target = handler;
+        owner = bus;
+        if (remaining <= 0) {
+          held = null;
+          armed = false;
+        }
+      }
+      if (remaining > 0) {
+        owner.timer().schedule(this, remaining);
+      } else {
+        owner.release(event, target);
+      }
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+/**
+ * The handlers and producers installed by one call to {@link Bus#register(Object)}.
+ *
+ * <p>{@link #cancel()} removes exactly those handlers and producers without looking them up again, so it is much
+ * cheaper than {@link Bus#unregister(Object)}, which has to find the listener's methods and match them against the
+ * registered ones.
+ */
+public final class Registration {
+  final Bus bus;
+  /** The methods of the listener's class, which {@link #handlers} and {@link #producers} bind to the listener. */
+  final ListenerTemplate template;
+  /** A handler for each of the template's subscriber methods, in the same order. */
+  final EventHandler[] handlers;
+  /** A producer for each of the template's producer methods, in the same order. */
+  final EventProducer[] producers;
+
+  Registration(Bus bus, ListenerTemplate template, EventHandler[] handlers, EventProducer[] producers) {
+    this.bus = bus;
+    this.template = template;
+    this.handlers = handlers;
+    this.producers = producers;
+  }
+
+  /**
+   * Unregisters the handlers and producers installed by this registration. Has no effect if they were already
+   * removed, whether by an earlier call or by {@link Bus#unregister(Object)}; a later registration of the same
+   * listener is never affected.
+   */
+  public void cancel() {
+    bus.cancel(this);
+  }
+
+  @Override public String toString() {
+    return "[Registration of " + handlers.length + " handlers and " + producers.length + " producers on " + bus + "]";
+  }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link Bus} for many posting threads, which hands events to dedicated consumer threads through a preallocated
+ * ring of slots. Posting claims a slot with a compare-and-set on a shared sequence, stores the event and publishes it,
+ * so it allocates nothing and never blocks unless the ring is full. Consumers take events in sequence order and call
+ * every handler registered for them, waiting for new events according to a {@link WaitStrategy}.
+ *
+ * <p>With a single consumer, handlers see events in the order their slots were claimed, and the events of any one
+ * posting thread in the order it posted them. With several consumers, events are shared out among them and may be
+ * handled concurrently and out of order.
+ *
+ * <p>This bus may be used from any thread. Exceptions thrown by handlers are wrapped as by {@link Bus} and passed to
+ * the consumer thread's uncaught exception handler; the consumer keeps running. Producers are still called on the
+ * registering thread.
+ *
+ * <p>Handlers declared with {@link DeliveryMode#EXECUTOR} or {@link DeliveryMode#BACKGROUND} are handed their events
+ * by the consumers, as by {@link Bus}. A {@linkplain Subscribe#conflate() conflating} handler skips the events which
+ * arrive while an earlier one is still waiting for it on its executor or on another consumer.
+ */
+public class RingBufferBus extends Bus {
+
+  /** Events by slot. A slot may only be read once its sequence is published. */
+  private final Object[] entries;
+
+  /** For each slot, the lap of the ring in which its event was last published, or -1. */
+  private final AtomicIntegerArray published;
+
+  private final int mask;
+  private final int indexShift;
+
+  /** Highest sequence claimed by a posting thread. */
+  private final AtomicLong cursor = new AtomicLong(-1);
+
+  /** Highest sequence claimed by a consumer. */
+  private final AtomicLong workSequence = new AtomicLong(-1);
+
+  /** Last known lowest consumer sequence, so posting rarely has to look at every consumer. */
+  private final AtomicLong gatingCache = new AtomicLong(-1);
+
+  private final Consumer[] consumers;
+  private final WaitStrategy waitStrategy;
+  private volatile boolean shutdown;
+
+  /**
+   * Creates a new RingBufferBus named "default" and starts its consumer threads.
+   *
+   * @param bufferSize Number of slots in the ring. Must be a power of two.
+   * @param consumerCount Number of consumer threads.
+   * @param waitStrategy What consumers do while no event is ready.
+   */
+  public RingBufferBus(int bufferSize, int consumerCount, WaitStrategy waitStrategy) {
+    this(DEFAULT_IDENTIFIER, bufferSize, consumerCount, waitStrategy);
+  }
+
+  /**
+   * Creates a new RingBufferBus with the given {@code identifier} and starts its consumer threads.
+   *
+   * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
+   * @param bufferSize Number of slots in the ring. Must be a power of two.
+   * @param consumerCount Number of consumer threads.
+   * @param waitStrategy What consumers do while no event is ready.
+   */
+  public RingBufferBus(String identifier, int bufferSize, int consumerCount, WaitStrategy waitStrategy) {
+    this(identifier, HandlerFinder.GENERATED, daemonThreads(identifier), bufferSize, consumerCount, waitStrategy);
+  }
+
+  /** Test constructor which allows replacing the default {@code HandlerFinder} and consumer threads. */
+  RingBufferBus(String identifier, HandlerFinder handlerFinder, ThreadFactory threadFactory, int bufferSize,
+      int consumerCount, WaitStrategy waitStrategy) {
+    super(ThreadEnforcer.ANY, identifier, handlerFinder);
+    if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1) {
+      throw new IllegalArgumentException("Buffer size must be a power of two but was " + bufferSize + ".");
+    }
+    if (consumerCount < 1) {
+      throw new IllegalArgumentException("Consumer count must be at least 1 but was " + consumerCount + ".");
+    }
+    if (waitStrategy == null) {
+      throw new NullPointerException("Wait strategy must not be null.");
+    }
+    this.entries = new Object[bufferSize];
+    this.published = new AtomicIntegerArray(bufferSize);
+    for (int i = 0; i < bufferSize; i++) {
+      published.set(i, -1);
+    }
+    this.mask = bufferSize - 1;
+    this.indexShift = Integer.numberOfTrailingZeros(bufferSize);
+    this.waitStrategy = waitStrategy;
+
+    consumers = new Consumer[consumerCount];
+    for (int i = 0; i < consumerCount; i++) {
+      consumers[i] = new Consumer();
+    }
+    for (Consumer consumer : consumers) {
+      threadFactory.newThread(consumer).start();
+    }
+  }
+
+  /**
+   * Publishes an event for the consumer threads, waiting only if the ring is full.
+   *
+   * @param event event to post.
+   * @throws NullPointerException if the event is null.
+   * @throws IllegalStateException if the bus has been shut down.
+   */
+  @Override public void post(Object event) {
+    if (event == null) {
+      throw new NullPointerException("Event to post must not be null.");
+    }
+    purgeCollectedListeners();
+    long sequence = claim(1);
+    publish(sequence, event);
+  }
+
+  /** Publishes the event of a channel; consumers look up its handlers again when they take it. */
+  @Override void postToHandlers(Object event, EventHandler[] handlers) {
+    publish(claim(1), event);
+  }
+
+  /** Primitive channels always publish boxed values, since handlers are called by the consumers. */
+  @Override DispatchQueue startInlineDispatch() {
+    return null;
+  }
+
+  /**
+   * Publishes every event in {@code events}, in order, claiming slots for as many of them at once as the ring holds.
+   *
+   * @param events events to post.
+   * @throws NullPointerException if the array or any event is null. Nothing is posted in that case.
+   * @throws IllegalStateException if the bus has been shut down.
+   */
+  @Override public void postAll(Object... events) {
+    for (Object event : events) {
+      if (event == null) {
+        throw new NullPointerException("Event to post must not be null.");
+      }
+    }
+    purgeCollectedListeners();
+    for (int start = 0; start < events.length; start += entries.length) {
+      int count = Math.min(events.length - start, entries.length);
+      long first = claim(count) - count + 1;
+      for (int i = 0; i < count; i++) {
+        publish(first + i, events[start + i]);
+      }
+    }
+  }
+
+  private void publish(long sequence, Object event) {
+    int index = (int) sequence & mask;
+    entries[index] = event;
+    published.set(index, (int) (sequence >>> indexShift));
+  }
+
+  /**
+   * Stops the consumer threads once they have handled every event posted before this call. Events posted while this
+   * method runs may be dropped, and later posts fail.
+   */
+  public void shutdown() {
+    shutdown = true;
+  }
+
+  /** Claims the next {@code count} sequences, at most the ring size, and returns the highest. */
+  private long claim(int count) {
+    while (true) {
+      if (shutdown) {
+        throw new IllegalStateException(this + " has been shut down.");
+      }
+      long current = cursor.get();
+      long next = current + count;
+      long wrapPoint = next - entries.length;
+      if (wrapPoint > gatingCache.get()) {
+        long gating = minimumConsumerSequence();
+        gatingCache.set(gating);
+        if (wrapPoint > gating) {
+          // The ring is full; wait for the slowest consumer to free the slot.
+          LockSupport.parkNanos(1);
+          continue;
+        }
+      }
+      if (cursor.compareAndSet(current, next)) {
+        return next;
+      }
+    }
+  }
+
+  private long minimumConsumerSequence() {
+    long minimum = Long.MAX_VALUE;
+    for (Consumer consumer : consumers) {
+      minimum = Math.min(minimum, consumer.sequence);
+    }
+    return minimum;
+  }
+
+  /**
+   * Calls every handler of {@code event}, or hands it to the executor its {@link DeliveryMode} calls for, reporting
+   * rather than propagating their exceptions. The future of an event posted with {@link #postAsync} carries the
+   * handlers resolved when it was posted.
+   */
+  private void deliver(Object event) {
+    EventHandler[] handlers = event instanceof DeliveryFuture
+        ? ((DeliveryFuture) event).handlers : getHandlersForEventClass(event.getClass());
+    for (int i = 0; i < handlers.length; i++) {
+      EventHandler handler = handlers[i];
+      if (handler.isValid()) {
+        RateLimiter limiter = handler.getRateLimiter();
+        if (limiter != null && !limiter.admit(event, handler, this)) {
+          continue;
+        }
+        try {
+          deliver(event, handler);
+        } catch (RuntimeException e) {
+          Thread thread = Thread.currentThread();
+          thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+      } else {
+        DeliveryFuture.skip(event, handler);
+      }
+    }
+    if (handlers.length == 0 && !(event instanceof DeadEvent) && hasDeadEventHandlers()) {
+      deliver(new DeadEvent(this, event));
+    }
+  }
+
+  private void deliver(Object event, EventHandler handler) {
+    if (handler.isConflating()) {
+      Object replaced = handler.conflate(event);
+      if (replaced != null) {
+        // Another consumer or the handler's executor has yet to take the pending event, and now takes this one.
+        DeliveryFuture.skip(replaced, handler);
+        return;
+      }
+    }
+    if (handler.getDelivery() != DeliveryMode.POSTING) {
+      dispatchOffThread(event, handler);
+      return;
+    }
+    dispatch(handler.isConflating() ? handler.takeConflated() : event, handler);
+  }
+
+  private static ThreadFactory daemonThreads(final String identifier) {
+    return new ThreadFactory() {
+      private int count;
+
+      @Override public synchronized Thread newThread(Runnable consumer) {
+        Thread thread = new Thread(consumer, "Otto " + identifier + " consumer " + count++);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  /** Claims sequences from {@link #workSequence} and delivers their events. */
+  private final class Consumer implements Runnable {
+    /** Every sequence up to and including this one has been handled by this consumer or claimed by another. */
+    volatile long sequence = -1;
+
+    @Override public void run() {
+      boolean handled = true;
+      long next = 0;
+      int attempts = 0;
+      while (true) {
+        if (handled) {
+          handled = false;
+          do {
+            next = workSequence.get() + 1;
+            sequence = next - 1;
+          } while (!workSequence.compareAndSet(next - 1, next));
+        }
+
+        int index = (int) next & mask;
+        if (published.get(index) == (int) (next >>> indexShift)) {
+          Object event = entries[index];
+          entries[index] = null;
+          deliver(event);
+          handled = true;
+          attempts = 0;
+        } else if (shutdown && next > cursor.get()) {
+          return;
+        } else {
+          waitStrategy.idle(++attempts);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+/**
+ * An event scheduled with {@link Bus#postDelayed} or {@link Bus#postAtFixedRate}, which may be cancelled until it has
+ * been posted for the last time.
+ */
+public final class ScheduledPost {
+  static final int SCHEDULED = 0;
+  static final int DONE = 1;
+  static final int CANCELLED = 2;
+
+  private final BusTimer timer;
+  final Object event;
+  /** Run in place of posting the event, for the bus's own use of the timer; otherwise {@code null}. */
+  final Runnable task;
+  /** Ticks between posts, or 0 to post only once. */
+  final long period;
+
+  // Guarded by the timer, whose wheel threads its slots through these fields.
+  /** Tick at which the event is next due. */
+  long deadline;
+  /** Slot of the timer's wheel holding this post, or -1. */
+  int slot = -1;
+  ScheduledPost previous;
+  ScheduledPost next;
+
+  /** Changed only while holding the timer's lock. */
+  volatile int state = SCHEDULED;
+
+  ScheduledPost(BusTimer timer, Object event, long deadline, long period) {
+    this(timer, event, null, deadline, period);
+  }
+
+  ScheduledPost(BusTimer timer, Object event, Runnable task, long deadline, long period) {
+    this.timer = timer;
+    this.event = event;
+    this.task = task;
+    this.deadline = deadline;
+    this.period = period;
+  }
+
+  /** Returns the event to post. */
+  public Object getEvent() {
+    return event;
+  }
+
+  /**
+   * Stops the event from being posted again. A post which has already begun is not interrupted.
+   *
+   * @return false if the event was already posted for the last time or this was already cancelled.
+   */
+  public boolean cancel() {
+    return timer.cancel(this);
+  }
+
+  /** Returns true if {@link #cancel()} stopped this before it was posted for the last time. */
+  public boolean isCancelled() {
+    return state == CANCELLED;
+  }
+
+  /** Returns true once the event will not be posted again, because it was cancelled or posted for the last time. */
+  public boolean isDone() {
+    return state != SCHEDULED;
+  }
+
+  @Override public String toString() {
+    return "[ScheduledPost " + event + (period != 0 ? " every " + period + " ms" : "") + "]";
+  }
+}
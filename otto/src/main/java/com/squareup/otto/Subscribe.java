@@ -24,7 +24,9 @@ import java.lang.annotation.Target;
 /**
  * Marks a method as an event handler, as used by {@link AnnotatedHandlerFinder} and {@link Bus}.
  *
- * <p>The method's first (and only) parameter defines the event type.
+ * <p>The method's first (and only) parameter defines the event type. It may be an {@code int}, {@code long} or
+ * {@code double}, in which case the method receives the values posted through {@link IntChannel},
+ * {@link LongChannel} or {@link DoubleChannel} without boxing, as well as events of the wrapper type.
  * <p>If this annotation is applied to methods with zero parameters or more than one parameter, the object containing
  * the method will not be able to register for event delivery from the {@link Bus}. Otto fails fast by throwing
  * runtime exceptions in these cases.
@@ -34,4 +36,39 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface Subscribe {
+
+  /**
+   * Whether the handler only cares about the newest event. When set, an event queued for the handler replaces any
+   * event still waiting to be delivered to it instead of queueing behind it, so the handler is never queued more than
+   * once at a time.
+   *
+   * <p>The waiting event is kept per handler, not per thread. An event posted while another thread, lane or executor
+   * still has an event waiting for the handler replaces it and is delivered in its place. A {@link Bus#post} of it then
+   * returns without calling the handler, even with {@link DeliveryMode#POSTING}, which is called with it later
+   * wherever the earlier event would have been delivered, such as on the other posting thread.
+   */
+  boolean conflate() default false;
+
+  /** Where the handler is called. Handlers are called on the posting thread by default. */
+  DeliveryMode delivery() default DeliveryMode.POSTING;
+
+  /**
+   * Name of the executor which calls the handler when {@link #delivery()} is {@link DeliveryMode#EXECUTOR}. Must be
+   * set for that mode and only for that mode.
+   */
+  String executor() default "";
+
+  /**
+   * Quiet time, in milliseconds, which debounces the handler when positive. Events for the handler are held back until
+   * none has arrived for this long, and then only the newest of them is delivered, starting from the bus's timer
+   * thread or its {@link Bus#TIMER_EXECUTOR}. May not be combined with {@link #throttleMillis()}.
+   */
+  long debounceMillis() default 0;
+
+  /**
+   * Window, in milliseconds, which throttles the handler when positive. The handler receives an event only if none
+   * was delivered to it within the window before it; the others are dropped. May not be combined with
+   * {@link #debounceMillis()}.
+   */
+  long throttleMillis() default 0;
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+/** A bound {@link Subscribe} method together with the options declared on its annotation. */
+final class SubscriberMethod {
+  final Invoker invoker;
+  final boolean conflate;
+  final DeliveryMode delivery;
+  /** Name of the executor for {@link DeliveryMode#EXECUTOR}, otherwise {@code null}. */
+  final String executor;
+  /** Quiet time of a debounced handler, otherwise 0. */
+  final long debounceMillis;
+  /** Window of a throttled handler, otherwise 0. */
+  final long throttleMillis;
+
+  SubscriberMethod(Invoker invoker, Subscribe annotation) {
+    this(invoker, annotation.conflate(), annotation.delivery(), annotation.executor(), annotation.debounceMillis(),
+        annotation.throttleMillis());
+  }
+
+  SubscriberMethod(Invoker invoker, boolean conflate, DeliveryMode delivery, String executor) {
+    this(invoker, conflate, delivery, executor, 0, 0);
+  }
+
+  SubscriberMethod(Invoker invoker, boolean conflate, DeliveryMode delivery, String executor, long debounceMillis,
+      long throttleMillis) {
+    if (delivery == null) {
+      throw new NullPointerException("Delivery mode cannot be null.");
+    }
+    boolean named = executor != null && executor.length() != 0;
+    if (named != (delivery == DeliveryMode.EXECUTOR)) {
+      throw new IllegalArgumentException(ErrorMessages.newInvalidDeliveryMessage(invoker.toString(), delivery.name(),
+          executor));
+    }
+    if (debounceMillis < 0 || throttleMillis < 0 || (debounceMillis != 0 && throttleMillis != 0)) {
+      throw new IllegalArgumentException(ErrorMessages.newInvalidRateLimitMessage(invoker.toString(), debounceMillis,
+          throttleMillis));
+    }
+    this.invoker = invoker;
+    this.conflate = conflate;
+    this.delivery = delivery;
+    this.executor = named ? executor : null;
+    this.debounceMillis = debounceMillis;
+    this.throttleMillis = throttleMillis;
+  }
+}
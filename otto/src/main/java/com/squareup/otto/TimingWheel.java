@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+/**
+ * A hashed hierarchical timing wheel, which keeps {@link ScheduledPost}s in slots by the tick they are due at.
+ * Scheduling and unlinking a post take constant time whatever the number of scheduled posts, and allocate nothing: the
+ * slots are intrusive doubly-linked lists threaded through the posts themselves.
+ *
+ * <p>The root wheel has a slot for each of the next {@value #ROOT_SIZE} ticks. Each further level has
+ * {@value #LEVEL_SIZE} slots, each spanning a whole turn of the level below, and its posts are moved down a level when
+ * that turn begins. Four levels cover 2<sup>26</sup> ticks, about 18 hours of 1 ms ticks; a post due later than that
+ * waits in the top level and is placed again whenever its slot comes round.
+ *
+ * <p>Not thread-safe; {@link BusTimer} guards its wheel with a lock.
+ */
+final class TimingWheel {
+  private static final int ROOT_BITS = 8;
+  private static final int LEVEL_BITS = 6;
+  private static final int LEVELS = 4;
+  static final int ROOT_SIZE = 1 << ROOT_BITS;
+  static final int LEVEL_SIZE = 1 << LEVEL_BITS;
+  private static final int ROOT_MASK = ROOT_SIZE - 1;
+  private static final int LEVEL_MASK = LEVEL_SIZE - 1;
+
+  /** Number of ticks the wheel's levels cover. */
+  static final long SPAN = 1L << (ROOT_BITS + (LEVELS - 1) * LEVEL_BITS);
+
+  /** First post of each slot: the root wheel's slots, then those of each further level in turn. */
+  private final ScheduledPost[] slots = new ScheduledPost[ROOT_SIZE + (LEVELS - 1) * LEVEL_SIZE];
+
+  /** The next tick {@link #advance()} processes. Every post in the wheel is due at this tick or later. */
+  private long nextTick;
+  private int size;
+
+  /** Returns the next tick {@link #advance()} processes. */
+  long nextTick() {
+    return nextTick;
+  }
+
+  /** Returns the number of posts in the wheel. */
+  int size() {
+    return size;
+  }
+
+  /** Moves the wheel on to {@code tick} without processing the ticks before it. Only allowed while it is empty. */
+  void skipTo(long tick) {
+    if (size != 0) {
+      throw new IllegalStateException("Cannot skip ticks of a wheel holding " + size + " posts.");
+    }
+    nextTick = Math.max(nextTick, tick);
+  }
+
+  /** Adds {@code post} to the slot for its deadline, or for the next tick if that has passed. */
+  void schedule(ScheduledPost post) {
+    long deadline = Math.max(post.deadline, nextTick);
+    long delta = deadline - nextTick;
+    if (delta >= SPAN) {
+      // Too far ahead for the wheel: park the post in the top level's last slot for now.
+      deadline = nextTick + SPAN - 1;
+      delta = SPAN - 1;
+    }
+    int slot;
+    if (delta < ROOT_SIZE) {
+      slot = (int) deadline & ROOT_MASK;
+    } else {
+      int level = 1;
+      int shift = ROOT_BITS;
+      while (delta >= 1L << (shift + LEVEL_BITS)) {
+        level++;
+        shift += LEVEL_BITS;
+      }
+      slot = ROOT_SIZE + (level - 1) * LEVEL_SIZE + ((int) (deadline >> shift) & LEVEL_MASK);
+    }
+    ScheduledPost first = slots[slot];
+    post.slot = slot;
+    post.previous = null;
+    post.next = first;
+    if (first != null) {
+      first.previous = post;
+    }
+    slots[slot] = post;
+    size++;
+  }
+
+  /** Removes {@code post} from its slot. Has no effect if it is not in the wheel. */
+  void unlink(ScheduledPost post) {
+    int slot = post.slot;
+    if (slot < 0) {
+      return;
+    }
+    if (post.previous != null) {
+      post.previous.next = post.next;
+    } else {
+      slots[slot] = post.next;
+    }
+    if (post.next != null) {
+      post.next.previous = post.previous;
+    }
+    post.slot = -1;
+    post.previous = null;
+    post.next = null;
+    size--;
+  }
+
+  /**
+   * Processes the {@linkplain #nextTick() next tick}: moves the posts of any higher-level slot whose turn begins down
+   * the wheel, then takes out the posts due at the tick. Returns them linked through {@link ScheduledPost#next}, or
+   * {@code null} if none are due.
+   */
+  ScheduledPost advance() {
+    long tick = nextTick;
+    if (((int) tick & ROOT_MASK) == 0) {
+      int shift = ROOT_BITS;
+      for (int level = 1; level < LEVELS; level++, shift += LEVEL_BITS) {
+        int index = (int) (tick >> shift) & LEVEL_MASK;
+        ScheduledPost post = detach(ROOT_SIZE + (level - 1) * LEVEL_SIZE + index);
+        while (post != null) {
+          ScheduledPost following = post.next;
+          schedule(post);
+          post = following;
+        }
+        if (index != 0) {
+          break;
+        }
+      }
+    }
+    ScheduledPost due = detach((int) tick & ROOT_MASK);
+    nextTick = tick + 1;
+    return due;
+  }
+
+  /** Empties {@code slot} and returns its posts, still linked through {@link ScheduledPost#next}. */
+  private ScheduledPost detach(int slot) {
+    ScheduledPost first = slots[slot];
+    slots[slot] = null;
+    for (ScheduledPost post = first; post != null; post = post.next) {
+      post.slot = -1;
+      post.previous = null;
+      size--;
+    }
+    return first;
+  }
+}
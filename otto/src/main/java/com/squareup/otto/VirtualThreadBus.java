@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A {@link Bus} for handlers which block, such as those doing I/O. Handlers are called on virtual threads where the
+ * runtime supports them (Java 21 and later) and on new platform threads otherwise, so {@link #post} returns without
+ * waiting for them.
+ *
+ * <p>Each registered listener receives events one at a time and in the order they were posted, across all of its
+ * handler methods and across unregistering and registering it again. Different listeners run concurrently, but never
+ * more than the configured number of them at once: a thread is only started for a listener once a permit is free, so
+ * that listeners beyond the limit wait in line without holding a thread. Once a listener is
+ * {@link #unregister unregistered} its handlers are not called again.
+ *
+ * <p>Exceptions thrown by handlers are wrapped as by {@link Bus} and reach the handler thread's uncaught exception
+ * handler.
+ */
+public class VirtualThreadBus extends Bus {
+
+  /** Starts a thread for every task. */
+  private final Executor threads;
+
+  /** One for every lane which may have a thread, which bounds the number of handler invocations in flight. */
+  private final Semaphore permits;
+
+  /** Lanes with events to deliver which are waiting for a permit, in the order they became ready. */
+  private final Queue<ListenerLane> waiting = new ConcurrentLinkedQueue<ListenerLane>();
+
+  /** Pending deliveries of every registered listener which has been posted to, by listener identity. */
+  private final ConcurrentMap<ListenerKey, ListenerLane> lanes = new ConcurrentHashMap<ListenerKey, ListenerLane>();
+
+  /**
+   * Lane of the listener of every registered handler which has been posted to, keyed by handler so that posting
+   * finds it without allocating a {@link ListenerKey}. A lane found here may have been removed from {@link #lanes}.
+   */
+  private final ConcurrentMap<EventHandler, ListenerLane> handlerLanes =
+      new ConcurrentHashMap<EventHandler, ListenerLane>();
+
+  /**
+   * Creates a new VirtualThreadBus named "default" that may be used from any thread.
+   *
+   * @param maxConcurrency Maximum number of handler invocations running at once.
+   */
+  public VirtualThreadBus(int maxConcurrency) {
+    this(DEFAULT_IDENTIFIER, maxConcurrency);
+  }
+
+  /**
+   * Creates a new VirtualThreadBus with the given {@code identifier} that may be used from any thread.
+   *
+   * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
+   * @param maxConcurrency Maximum number of handler invocations running at once.
+   */
+  public VirtualThreadBus(String identifier, int maxConcurrency) {
+    this(ThreadEnforcer.ANY, identifier, maxConcurrency);
+  }
+
+  /**
+   * Creates a new VirtualThreadBus with the given {@code enforcer} for actions and the given {@code identifier}.
+   *
+   * @param enforcer Thread enforcer for register, unregister, and post actions.
+   * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
+   * @param maxConcurrency Maximum number of handler invocations running at once.
+   */
+  public VirtualThreadBus(ThreadEnforcer enforcer, String identifier, int maxConcurrency) {
+    this(enforcer, identifier, HandlerFinder.GENERATED, newThreadPerTaskExecutor(identifier), maxConcurrency);
+  }
+
+  /** Test constructor which allows replacing the default {@code HandlerFinder} and thread source. */
+  VirtualThreadBus(ThreadEnforcer enforcer, String identifier, HandlerFinder handlerFinder, Executor threads,
+      int maxConcurrency) {
+    super(enforcer, identifier, handlerFinder);
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("Concurrency must be at least 1 but was " + maxConcurrency + ".");
+    }
+    this.threads = threads;
+    this.permits = new Semaphore(maxConcurrency);
+  }
+
+  @Override void handlersUnregistered(EventHandler[] handlers) {
+    // A lane still draining skips the invalidated handlers, and is kept meanwhile for a new registration.
+    for (EventHandler handler : handlers) {
+      ListenerLane lane = handlerLanes.remove(handler);
+      if (lane != null) {
+        lane.retire();
+      }
+    }
+  }
+
+  /** Queues {@code event} on the lane of the handler's listener instead of calling the handler. */
+  @Override protected void dispatch(Object event, EventHandler wrapper) {
+    if (!wrapper.isValid()) {
+      DeliveryFuture.skip(event, wrapper);
+      return;
+    }
+    if (wrapper.isConflating()) {
+      Object replaced = wrapper.conflate(event);
+      if (replaced != null) {
+        DeliveryFuture.skip(replaced, wrapper);
+        return;
+      }
+    }
+    ListenerLane lane = handlerLanes.get(wrapper);
+    while (lane == null || !lane.offer(event, wrapper)) {
+      // Not posted to yet, or the lane was removed since: find the listener's current one.
+      lane = laneFor(wrapper);
+    }
+  }
+
+  /**
+   * Returns the lane of the handler's listener, creating it if needed, and remembers it for the handler. A lane which
+   * is still draining events for an earlier registration of the listener is taken over, so that the listener is never
+   * called from two lanes at once.
+   */
+  private ListenerLane laneFor(EventHandler handler) {
+    ListenerKey key = new ListenerKey(handler.getTargetKey());
+    while (true) {
+      ListenerLane lane = lanes.get(key);
+      if (lane == null) {
+        ListenerLane created = new ListenerLane(key);
+        lane = lanes.putIfAbsent(key, created);
+        if (lane == null) {
+          lane = created;
+        }
+      }
+      if (lane.adopt()) {
+        handlerLanes.put(handler, lane);
+        if (!handler.isValid()) {
+          // Unregistered meanwhile, perhaps after handlersUnregistered looked for the handler here.
+          handlerLanes.remove(handler, lane);
+        }
+        return lane;
+      }
+    }
+  }
+
+  /** Starts a thread for each waiting lane, for as long as there are permits for them. */
+  private void startWaitingLanes() {
+    // Whoever queues a lane or releases a permit calls this afterwards, so no lane waits while a permit is free.
+    while (!waiting.isEmpty() && permits.tryAcquire()) {
+      ListenerLane lane = waiting.poll();
+      if (lane == null) {
+        permits.release();
+      } else {
+        threads.execute(lane);
+      }
+    }
+  }
+
+  /**
+   * Returns an executor which runs each task on a new virtual thread, or on a new daemon thread when the runtime has
+   * no virtual threads.
+   */
+  static Executor newThreadPerTaskExecutor(final String identifier) {
+    try {
+      return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException e) {
+      return new Executor() {
+        @Override public void execute(Runnable task) {
+          Thread thread = new Thread(task, "Otto " + identifier + " handler");
+          thread.setDaemon(true);
+          thread.start();
+        }
+      };
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to create virtual thread executor.", e);
+    }
+  }
+
+  /** Events for one listener, drained by at most one thread at a time. */
+  private final class ListenerLane implements Runnable {
+    private final ListenerKey key;
+
+    // Guarded by this lane.
+    private final DispatchQueue deliveries = new DispatchQueue();
+    /** True from the lane's first event until it is drained, while it waits for a permit or a thread drains it. */
+    private boolean scheduled;
+    /** True once the listener was unregistered while the lane was draining. */
+    private boolean retired;
+    /** True once the lane is out of {@link #lanes}, after which it takes no more events. */
+    private boolean removed;
+
+    ListenerLane(ListenerKey key) {
+      this.key = key;
+    }
+
+    /**
+     * Queues {@code event} for {@code handler} and, if no thread is draining the lane, starts one once a permit is
+     * free. Returns false if removed.
+     */
+    boolean offer(Object event, EventHandler handler) {
+      synchronized (this) {
+        if (removed) {
+          return false;
+        }
+        deliveries.offer(event, handler);
+        if (scheduled) {
+          return true;
+        }
+        scheduled = true;
+      }
+      waiting.offer(this);
+      startWaitingLanes();
+      return true;
+    }
+
+    /** Keeps the lane for a new registration of its listener. Returns false if it has already been removed. */
+    synchronized boolean adopt() {
+      retired = false;
+      return !removed;
+    }
+
+    /** Removes the lane once it has no events left, now or when its thread has drained it. */
+    synchronized void retire() {
+      if (scheduled) {
+        retired = true;
+      } else {
+        remove();
+      }
+    }
+
+    private void remove() {
+      removed = true;
+      lanes.remove(key, this);
+    }
+
+    @Override public void run() {
+      // Set once this run gives up the lane's permit, by draining it or by letting a waiting lane go first.
+      boolean released = false;
+      try {
+        boolean delivered = false;
+        while (true) {
+          Object event;
+          EventHandler handler;
+          synchronized (this) {
+            if (deliveries.isEmpty()) {
+              scheduled = false;
+              released = true;
+              if (retired) {
+                remove();
+              }
+              return;
+            }
+            if (delivered && !waiting.isEmpty()) {
+              // Still scheduled; the lane runs again once the lanes ahead of it have had a turn.
+              waiting.offer(this);
+              released = true;
+              return;
+            }
+            event = deliveries.peekEvent();
+            handler = deliveries.peekHandler();
+            deliveries.remove();
+          }
+          if (handler.isConflating()) {
+            event = handler.takeConflated();
+          }
+          if (handler.isValid()) {
+            VirtualThreadBus.super.dispatch(event, handler);
+          } else {
+            DeliveryFuture.skip(event, handler);
+          }
+          delivered = true;
+        }
+      } finally {
+        if (released) {
+          permits.release();
+          startWaitingLanes();
+        } else {
+          // A handler threw; the rest of the lane is drained by a new thread, which takes over the permit.
+          threads.execute(this);
+        }
+      }
+    }
+  }
+
+  /**
+   * Identifies a listener by identity rather than by its own {@code equals}, across registrations, through the key of
+   * its handlers so that a weakly registered listener stays collectable.
+   */
+  private static final class ListenerKey {
+    /** The listener, or the {@link ListenerReference} of a weakly registered one. */
+    final Object targetKey;
+    private final int hashCode;
+
+    ListenerKey(Object targetKey) {
+      this.targetKey = targetKey;
+      this.hashCode = System.identityHashCode(listener(targetKey));
+    }
+
+    /** Returns the listener, or {@code null} if it was registered weakly and has been collected. */
+    private static Object listener(Object targetKey) {
+      return targetKey instanceof ListenerReference ? ((ListenerReference) targetKey).get() : targetKey;
+    }
+
+    @Override public int hashCode() {
+      return hashCode;
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (!(obj instanceof ListenerKey)) {
+        return false;
+      }
+      Object other = ((ListenerKey) obj).targetKey;
+      if (other == targetKey) {
+        return true;
+      }
+      Object listener = listener(targetKey);
+      return listener != null && listener == listener(other);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides what a {@link RingBufferBus} consumer thread does while it waits for the next event, trading latency
+ * against CPU use.
+ */
+public interface WaitStrategy {
+
+  /**
+   * Called each time a consumer finds no event ready.
+   *
+   * @param attempts Number of consecutive calls, starting at 1, since the consumer last found an event.
+   */
+  void idle(int attempts);
+
+
+  /** A {@link WaitStrategy} which spins on the CPU. Lowest latency, but keeps a core busy for every consumer. */
+  WaitStrategy BUSY_SPIN = new WaitStrategy() {
+    @Override public void idle(int attempts) {
+      // Check again immediately.
+    }
+  };
+
+  /** A {@link WaitStrategy} which spins briefly, then yields the CPU to other runnable threads. */
+  WaitStrategy YIELD = new WaitStrategy() {
+    private static final int SPIN_TRIES = 100;
+
+    @Override public void idle(int attempts) {
+      if (attempts > SPIN_TRIES) {
+        Thread.yield();
+      }
+    }
+  };
+
+  /** A {@link WaitStrategy} which spins, then yields, then parks for short periods. Lowest CPU use when idle. */
+  WaitStrategy PARK = new WaitStrategy() {
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 200;
+    private static final long PARK_NANOS = 100000L;
+
+    @Override public void idle(int attempts) {
+      if (attempts > YIELD_TRIES) {
+        LockSupport.parkNanos(PARK_NANOS);
+      } else if (attempts > SPIN_TRIES) {
+        Thread.yield();
+      }
+    }
+  };
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class AsyncBusTest {
+
+  private final QueueExecutor executor = new QueueExecutor();
+  private final AsyncBus bus = new AsyncBus(executor);
+
+  @Test public void postReturnsBeforeHandlersRun() {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+
+    bus.post("Hello");
+    assertTrue(catcher.getEvents().isEmpty());
+
+    executor.runAll();
+    assertEquals(Arrays.asList("Hello"), catcher.getEvents());
+  }
+
+  @Test public void eventsPostedBeforeUnregisterAreDropped() {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+
+    bus.post("Hello");
+    bus.unregister(catcher);
+    executor.runAll();
+
+    assertTrue(catcher.getEvents().isEmpty());
+  }
+
+  @Test public void reregisteredListenerOnlySeesLaterEvents() {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+    bus.post("Dropped");
+    bus.unregister(catcher);
+    bus.register(catcher);
+    bus.post("Delivered");
+
+    executor.runAll();
+    assertEquals(Arrays.asList("Delivered"), catcher.getEvents());
+  }
+
+  @Test public void handlersRunOnTheExecutorTheirDeliveryModeCallsFor() throws InterruptedException {
+    QueueExecutor io = new QueueExecutor();
+    bus.registerExecutor("io", io);
+    final List<String> received = new ArrayList<String>();
+    bus.register(new Object() {
+      @Subscribe(delivery = DeliveryMode.EXECUTOR, executor = "io") public void onString(String event) {
+        received.add(event);
+      }
+    });
+    DeliveryModeTest.BackgroundListener background = new DeliveryModeTest.BackgroundListener(1);
+    bus.register(background);
+
+    bus.post("Hello");
+    bus.post(1);
+    executor.runAll();
+    assertTrue(received.isEmpty());
+
+    io.runAll();
+    assertEquals(Arrays.asList("Hello"), received);
+    assertTrue(background.done.await(10, TimeUnit.SECONDS));
+    assertTrue(background.threads.get(0).getName().endsWith(" background"));
+  }
+
+  @Test public void producedEventsAreDeliveredThroughTheHandlersLane() {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+
+    bus.register(new Object() {
+      @Produce public String produce() {
+        return "Produced";
+      }
+    });
+    assertTrue(catcher.getEvents().isEmpty());
+
+    executor.runAll();
+    assertEquals(Arrays.asList("Produced"), catcher.getEvents());
+  }
+
+  @Test public void eachHandlerSeesEventsInPostOrder() throws InterruptedException {
+    final int events = 1000;
+    final int listeners = 8;
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      AsyncBus pooledBus = new AsyncBus(pool);
+      final CountDownLatch done = new CountDownLatch(listeners);
+      List<OrderedCatcher> catchers = new ArrayList<OrderedCatcher>();
+      for (int i = 0; i < listeners; i++) {
+        OrderedCatcher catcher = new OrderedCatcher(events, done);
+        catchers.add(catcher);
+        pooledBus.register(catcher);
+      }
+
+      for (int i = 0; i < events; i++) {
+        pooledBus.post(i);
+      }
+
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      for (OrderedCatcher catcher : catchers) {
+        for (int i = 0; i < events; i++) {
+          assertEquals(Integer.valueOf(i), catcher.received.get(i));
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /** Runs submitted tasks only when asked to. */
+  static class QueueExecutor implements Executor {
+    private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+
+    @Override public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runAll() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        task.run();
+      }
+    }
+  }
+
+  public static class OrderedCatcher {
+    final List<Integer> received = new ArrayList<Integer>();
+    private final int expected;
+    private final CountDownLatch done;
+
+    OrderedCatcher(int expected, CountDownLatch done) {
+      this.expected = expected;
+      this.done = done;
+    }
+
+    @Subscribe public void onInteger(Integer event) {
+      received.add(event);
+      if (received.size() == expected) {
+        done.countDown();
+      }
+    }
+  }
+}
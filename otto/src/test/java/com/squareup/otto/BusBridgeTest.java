@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class BusBridgeTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Bus localBus = new Bus(ThreadEnforcer.ANY, "local");
+  private final Bus remoteBus = new Bus(ThreadEnforcer.ANY, "remote");
+  private final Catcher remote = new Catcher();
+  private SocketChannel localChannel;
+  private SocketChannel remoteChannel;
+  private BusBridge localBridge;
+  private BusBridge remoteBridge;
+
+  @Before public void setUp() throws IOException {
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.socket().bind(new InetSocketAddress(InetAddress.getByName(null), 0));
+    localChannel = SocketChannel.open(server.socket().getLocalSocketAddress());
+    remoteChannel = server.accept();
+    server.close();
+    remoteBus.register(remote);
+  }
+
+  @After public void tearDown() throws IOException {
+    if (localBridge != null) {
+      localBridge.close();
+    }
+    if (remoteBridge != null) {
+      remoteBridge.close();
+    }
+    localChannel.close();
+    remoteChannel.close();
+  }
+
+  @Test public void forwardedEventsArePostedOnTheOtherSideInOrder() throws InterruptedException {
+    bridge(64);
+
+    for (int i = 0; i < 1000; i++) {
+      localBus.post(i);
+    }
+    localBus.post("Hello");
+
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(Integer.valueOf(i), remote.next());
+    }
+    assertEquals("Hello", remote.next());
+  }
+
+  @Test public void eventsTravelBothWays() throws InterruptedException {
+    localBridge = new BusBridge(localBus, localChannel);
+    remoteBridge = new BusBridge(remoteBus, remoteChannel);
+    localBridge.forward(String.class, new JournalingBusTest.StringCodec());
+    localBridge.receive(Integer.class, new JournalReplayerTest.IntegerCodec());
+    remoteBridge.receive(String.class, new JournalingBusTest.StringCodec());
+    remoteBridge.forward(Integer.class, new JournalReplayerTest.IntegerCodec());
+    Catcher local = new Catcher();
+    localBus.register(local);
+    localBridge.start();
+    remoteBridge.start();
+
+    localBus.post("ping");
+    assertEquals("ping", local.next());
+    assertEquals("ping", remote.next());
+    remoteBus.post(42);
+    assertEquals(Integer.valueOf(42), remote.next());
+    assertEquals(Integer.valueOf(42), local.next());
+    // Received events are not forwarded back.
+    assertNull(local.events.poll(50, TimeUnit.MILLISECONDS));
+    assertNull(remote.events.poll(0, TimeUnit.MILLISECONDS));
+  }
+
+  @Test public void typesWhichAreNotReceivedAreSkipped() throws InterruptedException {
+    localBridge = new BusBridge(localBus, localChannel);
+    remoteBridge = new BusBridge(remoteBus, remoteChannel);
+    localBridge.forward(String.class, new JournalingBusTest.StringCodec());
+    localBridge.forward(Integer.class, new JournalReplayerTest.IntegerCodec());
+    remoteBridge.receive(Integer.class, new JournalReplayerTest.IntegerCodec());
+    localBridge.start();
+    remoteBridge.start();
+
+    localBus.post("skipped");
+    localBus.post(1);
+
+    assertEquals(Integer.valueOf(1), remote.next());
+    assertNull(remote.events.poll(50, TimeUnit.MILLISECONDS));
+  }
+
+  @Test public void closeSendsForwardedEventsFirst() throws IOException, InterruptedException {
+    bridge(BusBridge.DEFAULT_BUFFER_SIZE);
+
+    for (int i = 0; i < 100; i++) {
+      localBus.post(i);
+    }
+    localBridge.close();
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(Integer.valueOf(i), remote.next());
+    }
+    try {
+      localBus.post(100);
+    } catch (RuntimeException e) {
+      fail("Closing the bridge should stop forwarding.");
+    }
+    assertNull(remote.events.poll(50, TimeUnit.MILLISECONDS));
+  }
+
+  @Test public void eventLargerThanTheBufferIsRejected() throws InterruptedException {
+    bridge(64);
+
+    try {
+      // The first event of its type, so the rejected record would have been preceded by the type's name.
+      localBus.post(new String(new char[100]));
+      fail();
+    } catch (RuntimeException expected) {
+      assertTrue(expected.getCause() instanceof IllegalArgumentException);
+    }
+
+    // Later events are still sent, and the type is named with the first of them.
+    localBus.post("small");
+    for (int i = 0; i < 100; i++) {
+      localBus.post(i);
+    }
+    assertEquals("small", remote.next());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(Integer.valueOf(i), remote.next());
+    }
+  }
+
+  @Test public void malformedFrameFailsTheBridge() throws Exception {
+    localBridge = new BusBridge(localBus, localChannel);
+    localBridge.forward(Integer.class, new JournalReplayerTest.IntegerCodec());
+    localBridge.receive(String.class, new JournalingBusTest.StringCodec());
+    localBridge.start();
+
+    ByteBuffer header = ByteBuffer.allocate(4);
+    header.putInt(0, -1);
+    remoteChannel.write(header);
+
+    // Forwarding stops once the reader has failed the bridge.
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (true) {
+      try {
+        localBus.post(1);
+      } catch (RuntimeException expected) {
+        break;
+      }
+      assertTrue(System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+    try {
+      localBridge.close();
+      fail();
+    } catch (IOException expected) {
+      assertEquals("Malformed bridge frame of length -1.", expected.getMessage());
+    } finally {
+      localBridge = null;
+    }
+  }
+
+  @Test public void typeCannotBeBothForwardedAndReceived() {
+    localBridge = new BusBridge(localBus, localChannel);
+    localBridge.forward(String.class, new JournalingBusTest.StringCodec());
+    try {
+      localBridge.receive(String.class, new JournalingBusTest.StringCodec());
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void unixSocketsRoundTripWhereSupported() throws Exception {
+    File path = new File(folder.getRoot(), "bus.sock");
+    ServerSocketChannel server;
+    try {
+      server = BusBridge.bindUnixSocket(path);
+    } catch (UnsupportedOperationException expected) {
+      return;
+    }
+    SocketChannel client = BusBridge.connectUnixSocket(path);
+    SocketChannel accepted = server.accept();
+    server.close();
+    BusBridge sender = new BusBridge(localBus, client);
+    BusBridge receiver = new BusBridge(remoteBus, accepted);
+    sender.forward(String.class, new JournalingBusTest.StringCodec());
+    receiver.receive(String.class, new JournalingBusTest.StringCodec());
+    sender.start();
+    receiver.start();
+
+    localBus.post("over a Unix socket");
+    assertEquals("over a Unix socket", remote.next());
+    sender.close();
+    receiver.close();
+  }
+
+  /** Bridges integers and strings from the local to the remote bus. */
+  private void bridge(int bufferSize) {
+    localBridge = new BusBridge(localBus, localChannel, bufferSize);
+    remoteBridge = new BusBridge(remoteBus, remoteChannel, bufferSize);
+    localBridge.forward(Integer.class, new JournalReplayerTest.IntegerCodec());
+    localBridge.forward(String.class, new JournalingBusTest.StringCodec());
+    remoteBridge.receive(Integer.class, new JournalReplayerTest.IntegerCodec());
+    remoteBridge.receive(String.class, new JournalingBusTest.StringCodec());
+    localBridge.start();
+    remoteBridge.start();
+  }
+
+  public static class Catcher {
+    final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+
+    @Subscribe public void onInteger(Integer event) {
+      events.add(event);
+    }
+
+    @Subscribe public void onString(String event) {
+      events.add(event);
+    }
+
+    Object next() throws InterruptedException {
+      Object event = events.poll(10, TimeUnit.SECONDS);
+      if (event == null) {
+        fail("No event received.");
+      }
+      return event;
+    }
+  }
+}
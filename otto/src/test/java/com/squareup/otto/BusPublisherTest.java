@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class BusPublisherTest {
+
+  private final Bus bus = new Bus(ThreadEnforcer.ANY);
+
+  @Test public void eventsAreDeliveredAsRequested() {
+    TestSubscriber<Integer> subscriber = new TestSubscriber<Integer>(2);
+    bus.asPublisher(Integer.class).subscribe(subscriber);
+
+    bus.post(1);
+    bus.post("ignored");
+    bus.post(2);
+    bus.post(3);
+    assertEquals(Arrays.asList(1, 2), subscriber.items);
+
+    subscriber.subscription.request(5);
+    assertEquals(Arrays.asList(1, 2, 3), subscriber.items);
+    bus.post(4);
+    assertEquals(Arrays.asList(1, 2, 3, 4), subscriber.items);
+    assertNull(subscriber.error);
+  }
+
+  @Test public void requestsFromOnNextAreServedInOrder() {
+    TestSubscriber<Integer> subscriber = new TestSubscriber<Integer>(1) {
+      @Override public void onNext(Integer item) {
+        super.onNext(item);
+        subscription.request(1);
+      }
+    };
+    bus.asPublisher(Integer.class, 2, OverflowPolicy.ERROR).subscribe(subscriber);
+
+    for (int i = 0; i < 100; i++) {
+      bus.post(i);
+    }
+
+    assertEquals(100, subscriber.items.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(Integer.valueOf(i), subscriber.items.get(i));
+    }
+  }
+
+  @Test public void dropOldestKeepsTheNewestEvents() {
+    TestSubscriber<Integer> subscriber = new TestSubscriber<Integer>(0);
+    bus.asPublisher(Integer.class, 2, OverflowPolicy.DROP_OLDEST).subscribe(subscriber);
+
+    for (int i = 0; i < 5; i++) {
+      bus.post(i);
+    }
+    subscriber.subscription.request(Long.MAX_VALUE);
+
+    assertEquals(Arrays.asList(3, 4), subscriber.items);
+  }
+
+  @Test public void dropNewestKeepsTheOldestEvents() {
+    TestSubscriber<Integer> subscriber = new TestSubscriber<Integer>(0);
+    bus.asPublisher(Integer.class, 2, OverflowPolicy.DROP_NEWEST).subscribe(subscriber);
+
+    for (int i = 0; i < 5; i++) {
+      bus.post(i);
+    }
+    subscriber.subscription.request(Long.MAX_VALUE);
+
+    assertEquals(Arrays.asList(0, 1), subscriber.items);
+  }
+
+  @Test public void overflowFailsTheSubscriberAndUnregistersIt() {
+    TestSubscriber<Integer> subscriber = new TestSubscriber<Integer>(0);
+    bus.asPublisher(Integer.class, 2, OverflowPolicy.ERROR).subscribe(subscriber);
+
+    bus.post(1);
+    bus.post(2);
+    bus.post(3);
+
+    assertTrue(subscriber.error instanceof IllegalStateException);
+    assertTrue(bus.getHandlersForEventType(Integer.class).isEmpty());
+    subscriber.subscription.request(1);
+    assertTrue(subscriber.items.isEmpty());
+  }
+
+  @Test public void nonPositiveRequestFailsTheSubscriber() {
+    TestSubscriber<Integer> subscriber = new TestSubscriber<Integer>(0);
+    bus.asPublisher(Integer.class).subscribe(subscriber);
+
+    subscriber.subscription.request(0);
+
+    assertTrue(subscriber.error instanceof IllegalArgumentException);
+    assertTrue(bus.getHandlersForEventType(Integer.class).isEmpty());
+  }
+
+  @Test public void cancelUnregisters() {
+    TestSubscriber<Integer> subscriber = new TestSubscriber<Integer>(Long.MAX_VALUE);
+    bus.asPublisher(Integer.class).subscribe(subscriber);
+    bus.post(1);
+
+    subscriber.subscription.cancel();
+    bus.post(2);
+
+    assertEquals(Arrays.asList(1), subscriber.items);
+    assertTrue(bus.getHandlersForEventType(Integer.class).isEmpty());
+  }
+
+  @Test public void cancelOnAnotherThreadUnregistersOnTheNextEvent() throws InterruptedException {
+    final Thread owner = Thread.currentThread();
+    Bus enforcingBus = new Bus(new ThreadEnforcer() {
+      @Override public void enforce(Bus bus) {
+        if (Thread.currentThread() != owner) {
+          throw new IllegalStateException("Wrong thread.");
+        }
+      }
+    });
+    final TestSubscriber<Integer> subscriber = new TestSubscriber<Integer>(Long.MAX_VALUE);
+    enforcingBus.asPublisher(Integer.class).subscribe(subscriber);
+
+    Thread canceller = new Thread(new Runnable() {
+      @Override public void run() {
+        subscriber.subscription.cancel();
+      }
+    });
+    canceller.start();
+    canceller.join();
+    assertEquals(1, enforcingBus.getHandlersForEventType(Integer.class).size());
+
+    enforcingBus.post(1);
+    assertTrue(subscriber.items.isEmpty());
+    assertTrue(enforcingBus.getHandlersForEventType(Integer.class).isEmpty());
+  }
+
+  @Test public void eachSubscriberHasItsOwnDemand() {
+    Flow.Publisher<Integer> publisher = bus.asPublisher(Integer.class);
+    TestSubscriber<Integer> first = new TestSubscriber<Integer>(1);
+    TestSubscriber<Integer> second = new TestSubscriber<Integer>(2);
+    publisher.subscribe(first);
+    publisher.subscribe(second);
+
+    bus.post(1);
+    bus.post(2);
+
+    assertEquals(Arrays.asList(1), first.items);
+    assertEquals(Arrays.asList(1, 2), second.items);
+  }
+
+  @Test public void nullSubscriberIsRejected() {
+    try {
+      bus.asPublisher(Integer.class).subscribe(null);
+      fail();
+    } catch (NullPointerException expected) {
+    }
+  }
+
+  @Test public void interfaceTypesAreRejected() {
+    try {
+      bus.asPublisher(Runnable.class);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void primitiveTypesAreRejected() {
+    try {
+      bus.asPublisher(int.class);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  static class TestSubscriber<T> implements Flow.Subscriber<T> {
+    final List<T> items = new ArrayList<T>();
+    final long initialRequest;
+    Flow.Subscription subscription;
+    Throwable error;
+
+    TestSubscriber(long initialRequest) {
+      this.initialRequest = initialRequest;
+    }
+
+    @Override public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if (initialRequest > 0) {
+        subscription.request(initialRequest);
+      }
+    }
+
+    @Override public void onNext(T item) {
+      items.add(item);
+    }
+
+    @Override public void onError(Throwable throwable) {
+      error = throwable;
+    }
+
+    @Override public void onComplete() {
+      fail("Bus publishers never complete.");
+    }
+  }
+}
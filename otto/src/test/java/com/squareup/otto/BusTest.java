@@ -27,6 +27,7 @@ import java.util.Set;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
@@ -134,6 +135,25 @@ public class BusTest {
         EVENT, events.get(0).event);
   }
 
+  @Test public void deadEventForwardingAfterUnhandledPosts() {
+    // Nothing handles either the event or DeadEvent yet.
+    bus.post(EVENT);
+
+    GhostCatcher catcher = new GhostCatcher();
+    bus.register(catcher);
+    bus.post(EVENT);
+
+    List<DeadEvent> events = catcher.getEvents();
+    assertEquals("Only the post after registering should be delivered.", 1, events.size());
+
+    StringCatcher stringCatcher = new StringCatcher();
+    bus.register(stringCatcher);
+    bus.post(EVENT);
+
+    assertEquals("A handled event must not be dead.", 1, events.size());
+    assertEquals(Arrays.asList(EVENT), stringCatcher.getEvents());
+  }
+
   @Test public void deadEventPosting() {
     GhostCatcher catcher = new GhostCatcher();
     bus.register(catcher);
@@ -264,6 +284,43 @@ public class BusTest {
     assertContains(HierarchyFixture.class, hierarchy);
   }
 
+  @Test public void handlersForEventClassFollowRegistration() {
+    final List<Object> events = new ArrayList<Object>();
+    Object parentCatcher = new Object() {
+      @Subscribe public void eat(HierarchyFixtureParent food) {
+        events.add(food);
+      }
+    };
+    HierarchyFixture event = new HierarchyFixture();
+
+    // Resolve the table for the concrete class before anyone subscribes to its hierarchy.
+    bus.post(event);
+    assertEquals(0, bus.getHandlersForEventClass(HierarchyFixture.class).length);
+
+    bus.register(parentCatcher);
+    assertEquals(1, bus.getHandlersForEventClass(HierarchyFixture.class).length);
+    bus.post(event);
+    assertEquals(Arrays.<Object>asList(event), events);
+
+    bus.unregister(parentCatcher);
+    assertEquals(0, bus.getHandlersForEventClass(HierarchyFixture.class).length);
+    bus.post(event);
+    assertEquals(Arrays.<Object>asList(event), events);
+  }
+
+  @Test public void registrationKeepsEntriesOfUnrelatedEventClasses() {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+    EventHandler[] handlers = bus.getHandlersForEventClass(String.class);
+
+    bus.register(new Object() {
+      @Subscribe public void eat(Integer food) {
+      }
+    });
+
+    assertSame(handlers, bus.getHandlersForEventClass(String.class));
+  }
+
   @Test public void missingSubscribe() {
     bus.register(new Object());
   }
@@ -436,4 +493,73 @@ public class BusTest {
     bus.post(EVENT);
   }
 
+  @Test public void postAllMatchesSequentialPosts() {
+    final List<Object> received = new ArrayList<Object>();
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        received.add(event);
+        if ("first".equals(event)) {
+          bus.post(1);
+        }
+      }
+
+      @Subscribe public void onInteger(Integer event) {
+        received.add(event);
+      }
+
+      @Subscribe public void onDeadEvent(DeadEvent event) {
+        received.add(event.event);
+      }
+    });
+
+    bus.postAll(Arrays.asList("first", 2.0d, "second"));
+
+    // Events posted by handlers are delivered before the next event of the batch, as they are with post.
+    assertEquals(Arrays.<Object>asList("first", 1, 2.0d, "second"), received);
+  }
+
+  @Test public void postAllRejectsNullsBeforePosting() {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+    try {
+      bus.postAll(EVENT, null);
+      fail();
+    } catch (NullPointerException expected) {
+    }
+    assertTrue(catcher.getEvents().isEmpty());
+  }
+
+  @Test public void postAllDispatchesThroughAnOverriddenDispatchQueuedEvents() {
+    final List<Object> calls = new ArrayList<Object>();
+    Bus dispatching = new Bus(ThreadEnforcer.ANY) {
+      @Override protected void dispatchQueuedEvents() {
+        calls.add("dispatch");
+        super.dispatchQueuedEvents();
+      }
+    };
+    dispatching.register(new Object() {
+      @Subscribe public void onString(String event) {
+        calls.add(event);
+      }
+    });
+
+    dispatching.postAll("first", "second");
+
+    assertEquals(Arrays.<Object>asList("dispatch", "first", "dispatch", "second", "dispatch"), calls);
+  }
+
+  @Test public void postAllDeliversToListenersRegisteredDuringBatch() {
+    final StringCatcher late = new StringCatcher();
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        if ("first".equals(event)) {
+          bus.register(late);
+        }
+      }
+    });
+
+    bus.postAll("first", "second");
+    assertEquals(Arrays.asList("second"), late.getEvents());
+  }
+
 }
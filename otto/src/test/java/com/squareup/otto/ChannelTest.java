@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2007 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+public class ChannelTest {
+
+  private final Bus bus = new Bus(ThreadEnforcer.ANY);
+
+  @Test public void postsToHandlersOfTypeAndSupertypes() {
+    StringCatcher catcher = new StringCatcher();
+    ObjectCatcher objectCatcher = new ObjectCatcher();
+    bus.register(catcher);
+    bus.register(objectCatcher);
+
+    bus.channel(String.class).post("Hello");
+
+    assertEquals(Arrays.asList("Hello"), catcher.getEvents());
+    assertEquals(Arrays.<Object>asList("Hello"), objectCatcher.events);
+  }
+
+  @Test public void seesListenersRegisteredAndUnregisteredAfterCreation() {
+    Channel<String> channel = bus.channel(String.class);
+    channel.post("before");
+
+    StringCatcher catcher = new StringCatcher();
+    Registration registration = bus.register(catcher);
+    channel.post("registered");
+    registration.cancel();
+    channel.post("cancelled");
+
+    assertEquals(Arrays.asList("registered"), catcher.getEvents());
+  }
+
+  @Test public void subtypeEventsReachSubtypeHandlers() {
+    ObjectCatcher objectCatcher = new ObjectCatcher();
+    IntegerCatcher integerCatcher = new IntegerCatcher();
+    bus.register(objectCatcher);
+    bus.register(integerCatcher);
+
+    bus.channel(Object.class).post(1);
+
+    assertEquals(Arrays.<Object>asList(1), objectCatcher.events);
+    assertEquals(Arrays.asList(1), integerCatcher.events);
+  }
+
+  @Test public void unhandledEventsAreWrappedInDeadEvents() {
+    DeadEventCatcher catcher = new DeadEventCatcher();
+    bus.register(catcher);
+
+    bus.channel(String.class).post("Hello");
+
+    assertEquals(1, catcher.events.size());
+    assertEquals("Hello", catcher.events.get(0).event);
+  }
+
+  @Test public void ringBufferBusDeliversChannelEvents() throws InterruptedException {
+    RingBufferBus ringBus = new RingBufferBus(8, 1, WaitStrategy.YIELD);
+    final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    ringBus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        events.add(event);
+      }
+    });
+
+    ringBus.channel(String.class).post("Hello");
+    for (int i = 0; i < 1000 && events.isEmpty(); i++) {
+      Thread.sleep(5);
+    }
+    ringBus.shutdown();
+
+    assertEquals(Arrays.asList("Hello"), events);
+  }
+
+  @Test public void nullEventsAreRejected() {
+    try {
+      bus.channel(String.class).post(null);
+      fail();
+    } catch (NullPointerException expected) {
+    }
+  }
+
+  public static class ObjectCatcher {
+    final List<Object> events = new ArrayList<Object>();
+
+    @Subscribe public void onObject(Object event) {
+      events.add(event);
+    }
+  }
+
+  public static class IntegerCatcher {
+    final List<Integer> events = new ArrayList<Integer>();
+
+    @Subscribe public void onInteger(Integer event) {
+      events.add(event);
+    }
+  }
+
+  public static class DeadEventCatcher {
+    final List<DeadEvent> events = new ArrayList<DeadEvent>();
+
+    @Subscribe public void onDeadEvent(DeadEvent event) {
+      events.add(event);
+    }
+  }
+}
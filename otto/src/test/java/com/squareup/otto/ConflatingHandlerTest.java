@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class ConflatingHandlerTest {
+
+  @Test public void queuedEventIsReplacedByNewerOne() {
+    final Bus bus = new Bus(ThreadEnforcer.ANY);
+    final Catcher catcher = new Catcher();
+    bus.register(catcher);
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        // Queued behind this handler, so the conflating handler only sees the last one.
+        bus.post(1);
+        bus.post(2);
+        bus.post(3);
+      }
+    });
+
+    bus.post("go");
+    assertEquals(Arrays.asList(1, 2, 3), catcher.all);
+    assertEquals(Arrays.asList(3), catcher.newest);
+
+    bus.post(4);
+    assertEquals(Arrays.asList(3, 4), catcher.newest);
+  }
+
+  @Test public void asyncLaneHoldsOneEventPerConflatingHandler() {
+    AsyncBusTest.QueueExecutor executor = new AsyncBusTest.QueueExecutor();
+    AsyncBus bus = new AsyncBus(executor);
+    Catcher catcher = new Catcher();
+    bus.register(catcher);
+
+    bus.post(1);
+    bus.post(2);
+    bus.post(3);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(1, 2, 3), catcher.all);
+    assertEquals(Arrays.asList(3), catcher.newest);
+  }
+
+  @Test public void eventPostedOnAnotherThreadReplacesTheQueuedOne() throws InterruptedException {
+    final Bus bus = new Bus(ThreadEnforcer.ANY);
+    final CountDownLatch queued = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    ThreadCatcher catcher = new ThreadCatcher();
+    bus.register(catcher);
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) throws InterruptedException {
+        // Queued behind this handler until the other thread has posted.
+        bus.post(1);
+        queued.countDown();
+        release.await();
+      }
+    });
+    Thread first = new Thread(new Runnable() {
+      @Override public void run() {
+        bus.post("go");
+      }
+    });
+
+    first.start();
+    assertTrue(queued.await(10, TimeUnit.SECONDS));
+    bus.post(2);
+    assertTrue(catcher.events.isEmpty());
+
+    release.countDown();
+    first.join();
+    assertEquals(Arrays.asList(2), catcher.events);
+    assertEquals(Arrays.asList(first), catcher.threads);
+  }
+
+  public static class Catcher {
+    final List<Integer> all = new ArrayList<Integer>();
+    final List<Integer> newest = new ArrayList<Integer>();
+
+    @Subscribe public void onEveryInteger(Integer event) {
+      all.add(event);
+    }
+
+    @Subscribe(conflate = true) public void onNewestInteger(Integer event) {
+      newest.add(event);
+    }
+  }
+
+  public static class ThreadCatcher {
+    final List<Integer> events = new CopyOnWriteArrayList<Integer>();
+    final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+    @Subscribe(conflate = true) public void onNewestInteger(Integer event) {
+      events.add(event);
+      threads.add(Thread.currentThread());
+    }
+  }
+}
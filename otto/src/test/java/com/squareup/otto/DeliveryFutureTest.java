@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class DeliveryFutureTest {
+
+  private static final Executor DIRECT = new Executor() {
+    @Override public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  @Test public void handlersOnThePostingThreadHaveRunWhenPostAsyncReturns() throws Exception {
+    Bus bus = new Bus(ThreadEnforcer.ANY);
+    Catcher first = new Catcher();
+    Catcher second = new Catcher();
+    bus.register(first);
+    bus.register(second);
+
+    DeliveryFuture future = bus.postAsync("Hello");
+
+    assertTrue(future.isDone());
+    DeliveryReport report = future.get();
+    assertEquals("Hello", report.getEvent());
+    assertEquals(2, report.getHandlerCount());
+    assertSame(first, report.getListener(0));
+    assertSame(second, report.getListener(1));
+    assertTrue(report.wasCalled(0) && report.getNanos(0) >= 0);
+    assertTrue(report.wasCalled(1) && report.getNanos(1) >= 0);
+    assertTrue(report.isSuccessful());
+    assertEquals("Hello", first.received.get(0));
+  }
+
+  @Test public void completesOnceEveryLaneOfAnAsyncBusHasRun() throws Exception {
+    AsyncBusTest.QueueExecutor executor = new AsyncBusTest.QueueExecutor();
+    AsyncBus bus = new AsyncBus(executor);
+    bus.register(new Catcher());
+    bus.register(new Catcher());
+
+    DeliveryFuture future = bus.postAsync("Hello");
+    final List<DeliveryReport> completed = new ArrayList<DeliveryReport>();
+    final DeliveryFuture listened = future;
+    future.addListener(new Runnable() {
+      @Override public void run() {
+        try {
+          completed.add(listened.get());
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+    }, DIRECT);
+
+    assertFalse(future.isDone());
+    try {
+      future.get(1, TimeUnit.MILLISECONDS);
+      fail();
+    } catch (TimeoutException expected) {
+    }
+    executor.runAll();
+
+    assertTrue(future.isDone());
+    assertEquals(1, completed.size());
+    assertEquals(2, completed.get(0).getHandlerCount());
+  }
+
+  @Test public void handlerFailuresAreReported() throws Exception {
+    AsyncBusTest.QueueExecutor executor = new AsyncBusTest.QueueExecutor();
+    AsyncBus bus = new AsyncBus(executor);
+    final IllegalStateException thrown = new IllegalStateException("Boom");
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        throw thrown;
+      }
+    });
+    bus.register(new Catcher());
+
+    DeliveryFuture future = bus.postAsync("Hello");
+    try {
+      executor.runAll();
+      fail();
+    } catch (RuntimeException expected) {
+      // Failures still propagate to the executor, as for post.
+    }
+    executor.runAll();
+
+    DeliveryReport report = future.get(1, TimeUnit.SECONDS);
+    assertFalse(report.isSuccessful());
+    assertSame(thrown, report.getFailure(0));
+    assertNull(report.getFailure(1));
+    assertTrue(report.wasCalled(1));
+  }
+
+  @Test public void handlersUnregisteredBeforeTheyRunAreReportedAsNotCalled() throws Exception {
+    AsyncBusTest.QueueExecutor executor = new AsyncBusTest.QueueExecutor();
+    AsyncBus bus = new AsyncBus(executor);
+    Catcher kept = new Catcher();
+    Catcher removed = new Catcher();
+    bus.register(kept);
+    bus.register(removed);
+
+    DeliveryFuture future = bus.postAsync("Hello");
+    bus.unregister(removed);
+    executor.runAll();
+
+    DeliveryReport report = future.get(1, TimeUnit.SECONDS);
+    assertTrue(report.wasCalled(0));
+    assertFalse(report.wasCalled(1));
+    assertEquals(DeliveryReport.NOT_CALLED, report.getNanos(1));
+    assertTrue(removed.received.isEmpty());
+  }
+
+  @Test public void eachOfManyHandlersIsReportedInItsOwnSlot() throws Exception {
+    AsyncBusTest.QueueExecutor executor = new AsyncBusTest.QueueExecutor();
+    AsyncBus bus = new AsyncBus(executor);
+    List<Catcher> catchers = new ArrayList<Catcher>();
+    for (int i = 0; i < 50; i++) {
+      Catcher catcher = new Catcher();
+      catchers.add(catcher);
+      bus.register(catcher);
+    }
+
+    DeliveryFuture future = bus.postAsync("Hello");
+    for (int i = 0; i < catchers.size(); i += 3) {
+      bus.unregister(catchers.get(i));
+    }
+    executor.runAll();
+
+    DeliveryReport report = future.get(1, TimeUnit.SECONDS);
+    assertEquals(50, report.getHandlerCount());
+    for (int i = 0; i < report.getHandlerCount(); i++) {
+      Catcher catcher = (Catcher) report.getListener(i);
+      assertEquals(catcher.received.size() == 1, report.wasCalled(i));
+      assertEquals(catchers.indexOf(catcher) % 3 != 0, report.wasCalled(i));
+    }
+  }
+
+  @Test public void conflatedEventsAreReportedAsNotCalled() throws Exception {
+    AsyncBusTest.QueueExecutor executor = new AsyncBusTest.QueueExecutor();
+    AsyncBus bus = new AsyncBus(executor);
+    ConflatingHandlerTest.Catcher catcher = new ConflatingHandlerTest.Catcher();
+    bus.register(catcher);
+
+    DeliveryFuture first = bus.postAsync(1);
+    DeliveryFuture second = bus.postAsync(2);
+    // Every handler of the first event has been dealt with: the conflating one will only see the second.
+    assertFalse(first.isDone());
+    executor.runAll();
+
+    DeliveryReport firstReport = first.get(1, TimeUnit.SECONDS);
+    DeliveryReport secondReport = second.get(1, TimeUnit.SECONDS);
+    int conflating = firstReport.wasCalled(0) ? 1 : 0;
+    assertFalse(firstReport.wasCalled(conflating));
+    assertTrue(firstReport.wasCalled(1 - conflating));
+    assertTrue(secondReport.wasCalled(0) && secondReport.wasCalled(1));
+  }
+
+  @Test public void eventWithoutHandlersCompletesAtOnceAndIsDead() throws Exception {
+    Bus bus = new Bus(ThreadEnforcer.ANY);
+    DeadEventCatcher dead = new DeadEventCatcher();
+    bus.register(dead);
+
+    DeliveryFuture future = bus.postAsync("Hello");
+
+    assertTrue(future.isDone());
+    assertEquals(0, future.get().getHandlerCount());
+    assertEquals(1, dead.events.size());
+    assertEquals("Hello", dead.events.get(0).event);
+
+    final boolean[] ran = new boolean[1];
+    future.addListener(new Runnable() {
+      @Override public void run() {
+        ran[0] = true;
+      }
+    }, DIRECT);
+    assertTrue(ran[0]);
+  }
+
+  @Test public void backgroundHandlersAreAwaited() throws Exception {
+    Bus bus = new Bus(ThreadEnforcer.ANY);
+    DeliveryModeTest.BackgroundListener listener = new DeliveryModeTest.BackgroundListener(1);
+    bus.register(listener);
+
+    DeliveryReport report = bus.postAsync(1).get(10, TimeUnit.SECONDS);
+
+    assertTrue(report.wasCalled(0));
+    assertEquals(Integer.valueOf(1), listener.received.get(0));
+  }
+
+  @Test public void ringBufferBusCompletesFromItsConsumers() throws Exception {
+    RingBufferBus bus = new RingBufferBus(16, 2, WaitStrategy.YIELD);
+    bus.register(new Catcher());
+    bus.register(new Catcher());
+
+    DeliveryReport report = bus.postAsync("Hello").get(10, TimeUnit.SECONDS);
+
+    assertTrue(report.wasCalled(0) && report.wasCalled(1));
+    bus.shutdown();
+  }
+
+  @Test public void virtualThreadBusCompletesWhenListenerLanesHaveRun() throws Exception {
+    VirtualThreadBus bus = new VirtualThreadBus(4);
+    bus.register(new Catcher());
+
+    DeliveryReport report = bus.postAsync("Hello").get(10, TimeUnit.SECONDS);
+
+    assertTrue(report.wasCalled(0));
+  }
+
+  public static class Catcher {
+    final List<String> received = new ArrayList<String>();
+
+    @Subscribe public void onString(String event) {
+      received.add(event);
+    }
+  }
+
+  public static class DeadEventCatcher {
+    final List<DeadEvent> events = new ArrayList<DeadEvent>();
+
+    @Subscribe public void onDeadEvent(DeadEvent event) {
+      events.add(event);
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class DeliveryModeTest {
+
+  private final Bus bus = new Bus(ThreadEnforcer.ANY);
+
+  @Test public void executorHandlersRunOnTheirExecutor() {
+    AsyncBusTest.QueueExecutor io = new AsyncBusTest.QueueExecutor();
+    bus.registerExecutor("io", io);
+    MixedListener listener = new MixedListener();
+    bus.register(listener);
+
+    bus.post("Hello");
+    assertEquals(Arrays.asList("inline Hello"), listener.received);
+
+    io.runAll();
+    assertEquals(Arrays.asList("inline Hello", "io Hello"), listener.received);
+  }
+
+  @Test public void unregisteredHandlersAreSkippedByExecutor() {
+    AsyncBusTest.QueueExecutor io = new AsyncBusTest.QueueExecutor();
+    bus.registerExecutor("io", io);
+    MixedListener listener = new MixedListener();
+    bus.register(listener);
+
+    bus.post("Hello");
+    bus.unregister(listener);
+    io.runAll();
+
+    assertEquals(Arrays.asList("inline Hello"), listener.received);
+  }
+
+  @Test public void backgroundHandlersRunInOrderOffThePostingThread() throws InterruptedException {
+    final int events = 100;
+    BackgroundListener listener = new BackgroundListener(events);
+    bus.register(listener);
+
+    for (int i = 0; i < events; i++) {
+      bus.post(i);
+    }
+
+    assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+    for (int i = 0; i < events; i++) {
+      assertEquals(Integer.valueOf(i), listener.received.get(i));
+    }
+    assertFalse(listener.threads.contains(Thread.currentThread()));
+    assertEquals(1, listener.threads.size());
+  }
+
+  @Test public void registeringWithUnknownExecutorFails() {
+    try {
+      bus.register(new MixedListener());
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    assertTrue(bus.getHandlersForEventType(String.class) == null);
+  }
+
+  @Test public void executorNameRequiresExecutorDelivery() {
+    try {
+      bus.register(new Object() {
+        @Subscribe(executor = "io") public void onString(String event) {
+        }
+      });
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public static class MixedListener {
+    final List<String> received = new ArrayList<String>();
+
+    @Subscribe public void inline(String event) {
+      received.add("inline " + event);
+    }
+
+    @Subscribe(delivery = DeliveryMode.EXECUTOR, executor = "io") public void onIo(String event) {
+      received.add("io " + event);
+    }
+  }
+
+  public static class BackgroundListener {
+    final List<Integer> received = new ArrayList<Integer>();
+    final List<Thread> threads = new ArrayList<Thread>();
+    final CountDownLatch done;
+
+    BackgroundListener(int expected) {
+      done = new CountDownLatch(expected);
+    }
+
+    @Subscribe(delivery = DeliveryMode.BACKGROUND) public void onInteger(Integer event) {
+      received.add(event);
+      if (!threads.contains(Thread.currentThread())) {
+        threads.add(Thread.currentThread());
+      }
+      done.countDown();
+    }
+  }
+}
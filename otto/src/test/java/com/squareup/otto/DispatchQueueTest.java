@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class DispatchQueueTest {
+
+  @Test public void drainsInOrderAcrossWrapAroundAndGrowth() throws NoSuchMethodException {
+    EventHandler handler =
+        new EventHandler(new StringCatcher(), StringCatcher.class.getMethod("hereHaveAString", String.class));
+    Bus.DispatchQueue queue = new Bus.DispatchQueue();
+    int next = 0;
+    int expected = 0;
+
+    // Move the head forward so that later entries wrap around the end of the buffers before they grow.
+    for (int i = 0; i < 10; i++) {
+      queue.offer(next++, handler);
+    }
+    for (int i = 0; i < 5; i++) {
+      assertEquals(expected++, queue.peekEvent());
+      queue.remove();
+    }
+    for (int i = 0; i < 100; i++) {
+      queue.offer(next++, handler);
+    }
+
+    while (!queue.isEmpty()) {
+      assertEquals(expected++, queue.peekEvent());
+      assertSame(handler, queue.peekHandler());
+      queue.remove();
+    }
+    assertEquals(next, expected);
+    assertTrue(queue.isEmpty());
+  }
+}
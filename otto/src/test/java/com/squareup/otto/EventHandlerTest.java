@@ -58,7 +58,7 @@ public class EventHandlerTest {
   /** Checks that EventHandler's constructor disallows null methods. */
   @Test public void rejectionOfNullMethods() {
     try {
-      new EventHandler(this, null);
+      new EventHandler(this, (Method) null);
       fail("EventHandler must immediately reject null methods.");
     } catch (NullPointerException expected) {
       // Hooray!
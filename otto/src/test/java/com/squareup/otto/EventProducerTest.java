@@ -55,7 +55,7 @@ public class EventProducerTest {
   /** Checks that EventProducer's constructor disallows null methods. */
   @Test public void rejectionOfNullMethods() {
     try {
-      new EventProducer(this, null);
+      new EventProducer(this, (Method) null);
       fail("EventProducer must immediately reject null methods.");
     } catch (NullPointerException expected) {
       // Hooray!
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class HandlerSetTest {
+
+  private final HandlerSet set = new HandlerSet();
+
+  @Test public void handlersAreKeptInRegistrationOrder() throws Exception {
+    EventHandler first = handler(new StringCatcher());
+    EventHandler second = handler(new StringCatcher());
+    EventHandler third = handler(new StringCatcher());
+    assertTrue(set.add(first));
+    assertTrue(set.add(second));
+    assertTrue(set.add(third));
+    assertFalse(set.add(handler(second.getTarget())));
+
+    assertEquals(Arrays.asList(first, second, third), Arrays.asList(set.snapshot()));
+    assertTrue(set.remove(second));
+    assertEquals(Arrays.asList(first, third), Arrays.asList(set.snapshot()));
+  }
+
+  @Test public void takeReturnsRegisteredInstance() throws Exception {
+    EventHandler registered = handler(new StringCatcher());
+    set.add(registered);
+
+    assertSame(registered, set.take(handler(registered.getTarget())));
+    assertEquals(0, set.size());
+    assertEquals(null, set.take(registered));
+  }
+
+  @Test public void iteratorTraversesSnapshot() throws Exception {
+    EventHandler first = handler(new StringCatcher());
+    set.add(first);
+    Iterator<EventHandler> iterator = set.iterator();
+    set.add(handler(new StringCatcher()));
+
+    assertSame(first, iterator.next());
+    assertFalse(iterator.hasNext());
+    iterator.remove();
+    assertEquals(1, set.size());
+    assertFalse(set.contains(first));
+  }
+
+  @Test public void equalTargetsAreDistinctHandlers() throws Exception {
+    set.add(handler(new EqualCatcher()));
+    set.add(handler(new EqualCatcher()));
+    assertEquals(2, set.size());
+  }
+
+  private static EventHandler handler(Object catcher) throws NoSuchMethodException {
+    return new EventHandler(catcher, StringCatcher.class.getMethod("hereHaveAString", String.class));
+  }
+
+  /** Catcher whose instances are all equal, which must not merge their handlers. */
+  static class EqualCatcher extends StringCatcher {
+    @Override public boolean equals(Object obj) {
+      return obj instanceof EqualCatcher;
+    }
+
+    @Override public int hashCode() {
+      return 0;
+    }
+  }
+}
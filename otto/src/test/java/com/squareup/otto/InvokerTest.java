@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class InvokerTest {
+
+  @Test public void publicMethodsAreBoundToLambdas() throws Throwable {
+    Invoker handler = Invoker.forMethod(PublicListener.class.getMethod("handle", String.class));
+    Invoker producer = Invoker.forMethod(PublicListener.class.getMethod("produce"));
+    assertTrue(handler instanceof LambdaInvoker);
+    assertTrue(producer instanceof LambdaInvoker);
+
+    PublicListener listener = new PublicListener();
+    assertEquals(null, handler.invoke(listener, "Hello"));
+    assertEquals("Hello", listener.value);
+    assertSame(listener.value, producer.invoke(listener, null));
+  }
+
+  @Test public void hiddenMethodsFallBackToReflection() throws Throwable {
+    Method method = HiddenListener.class.getMethod("handle", String.class);
+    Invoker invoker = Invoker.forMethod(method);
+    assertFalse(invoker instanceof LambdaInvoker);
+    assertEquals(Invoker.reflective(method), invoker);
+
+    HiddenListener listener = new HiddenListener();
+    invoker.invoke(listener, "Hello");
+    assertEquals("Hello", listener.value);
+  }
+
+  @Test public void checkedExceptionsPropagateUnwrapped() throws Throwable {
+    Invoker invoker = Invoker.forMethod(PublicListener.class.getMethod("fail", String.class));
+    try {
+      invoker.invoke(new PublicListener(), "Hello");
+      fail();
+    } catch (IOException expected) {
+      assertEquals("Hello", expected.getMessage());
+    }
+  }
+
+  @Test public void invokersForSameMethodAreEqual() throws Exception {
+    Method method = PublicListener.class.getMethod("handle", String.class);
+    assertEquals(Invoker.forMethod(method), Invoker.forMethod(method));
+    assertEquals(Invoker.forMethod(method).hashCode(), Invoker.forMethod(method).hashCode());
+  }
+
+  public static class PublicListener {
+    String value;
+
+    public void handle(String value) {
+      this.value = value;
+    }
+
+    public String produce() {
+      return value;
+    }
+
+    public void fail(String message) throws IOException {
+      throw new IOException(message);
+    }
+  }
+
+  static class HiddenListener {
+    String value;
+
+    public void handle(String value) {
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2007 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class JournalReplayerTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File directory;
+
+  @Before public void setUp() {
+    directory = new File(folder.getRoot(), "journal");
+  }
+
+  @Test public void replaysEveryEventInOrderAcrossSegments() throws Exception {
+    List<Object> posted = new ArrayList<Object>();
+    JournalingBus journalingBus = newJournalingBus();
+    for (int i = 0; i < 500; i++) {
+      Object event = i % 3 == 0 ? (Object) ("Event " + i) : (Object) i;
+      journalingBus.post(event);
+      posted.add(event);
+    }
+    journalingBus.close();
+    assertTrue(Journal.segments(directory).length > 4);
+
+    Bus bus = new Bus(ThreadEnforcer.ANY);
+    Recorder recorder = new Recorder();
+    bus.register(recorder);
+    long replayed = newReplayer(2).replay(bus);
+
+    assertEquals(500, replayed);
+    assertEquals(posted, recorder.events);
+  }
+
+  @Test public void decodingStaysBoundedAheadOfPosting() throws Exception {
+    JournalingBus journalingBus = new JournalingBus(ThreadEnforcer.ANY, "test", directory, 1024 * 1024,
+        ForcePolicy.NONE);
+    journalingBus.registerCodec(Integer.class, new IntegerCodec());
+    for (int i = 0; i < 20000; i++) {
+      journalingBus.post(i);
+    }
+    journalingBus.close();
+    assertEquals(1, Journal.segments(directory).length);
+
+    final AtomicInteger decoded = new AtomicInteger();
+    JournalReplayer replayer = new JournalReplayer(directory, 1);
+    replayer.registerCodec(Integer.class, new IntegerCodec() {
+      @Override public Integer decode(ByteBuffer buffer) {
+        decoded.incrementAndGet();
+        return super.decode(buffer);
+      }
+    });
+    final List<Integer> decodedAhead = new ArrayList<Integer>();
+    Bus bus = new Bus(ThreadEnforcer.ANY);
+    bus.register(new Object() {
+      @Subscribe public void onInteger(Integer event) throws InterruptedException {
+        if (event == 0) {
+          // Give the decoder time to run as far ahead as it may.
+          Thread.sleep(200);
+          decodedAhead.add(decoded.get());
+        }
+      }
+    });
+
+    assertEquals(20000, replayer.replay(bus));
+    int bound = JournalReplayer.CHUNK_SIZE * (JournalReplayer.CHUNKS_AHEAD + 2);
+    assertTrue("Decoded " + decodedAhead.get(0) + " events ahead", decodedAhead.get(0) <= bound);
+    assertEquals(20000, decoded.get());
+  }
+
+  @Test public void timeScaledReplayKeepsTheGapsBetweenEvents() throws Exception {
+    JournalingBus journalingBus = newJournalingBus();
+    journalingBus.post("First");
+    Thread.sleep(200);
+    journalingBus.post("Second");
+    journalingBus.close();
+
+    Bus bus = new Bus(ThreadEnforcer.ANY);
+    Recorder recorder = new Recorder();
+    bus.register(recorder);
+    long start = System.nanoTime();
+    newReplayer(1).replay(bus, 4);
+    long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+
+    assertEquals(2, recorder.events.size());
+    assertTrue("Replayed in " + elapsedMillis + " ms", elapsedMillis >= 45);
+    assertTrue("Replayed in " + elapsedMillis + " ms", elapsedMillis < 150);
+  }
+
+  @Test public void emptyJournalReplaysNothing() throws Exception {
+    assertEquals(0, newReplayer(1).replay(new Bus(ThreadEnforcer.ANY)));
+  }
+
+  @Test public void typesWithoutCodecFail() throws Exception {
+    JournalingBus journalingBus = newJournalingBus();
+    journalingBus.post(1);
+    journalingBus.close();
+
+    JournalReplayer replayer = new JournalReplayer(directory, 1);
+    replayer.registerCodec(String.class, new JournalingBusTest.StringCodec());
+    try {
+      replayer.replay(new Bus(ThreadEnforcer.ANY));
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void speedMustBePositive() throws Exception {
+    try {
+      newReplayer(1).replay(new Bus(ThreadEnforcer.ANY), 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  private JournalingBus newJournalingBus() throws IOException {
+    JournalingBus bus = new JournalingBus(ThreadEnforcer.ANY, "test", directory, 512, ForcePolicy.NONE);
+    bus.registerCodec(String.class, new JournalingBusTest.StringCodec());
+    bus.registerCodec(Integer.class, new IntegerCodec());
+    return bus;
+  }
+
+  private JournalReplayer newReplayer(int parallelism) {
+    JournalReplayer replayer = new JournalReplayer(directory, parallelism);
+    replayer.registerCodec(String.class, new JournalingBusTest.StringCodec());
+    replayer.registerCodec(Integer.class, new IntegerCodec());
+    return replayer;
+  }
+
+  static class IntegerCodec implements EventCodec<Integer> {
+    @Override public void encode(Integer event, ByteBuffer buffer) {
+      buffer.putInt(event);
+    }
+
+    @Override public Integer decode(ByteBuffer buffer) {
+      return buffer.getInt();
+    }
+  }
+
+  public static class Recorder {
+    final List<Object> events = new ArrayList<Object>();
+
+    @Subscribe public void onString(String event) {
+      events.add(event);
+    }
+
+    @Subscribe public void onInteger(Integer event) {
+      events.add(event);
+    }
+  }
+}
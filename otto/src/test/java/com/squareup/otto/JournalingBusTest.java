@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2007 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class JournalingBusTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File directory;
+  private JournalingBus bus;
+
+  @Before public void setUp() throws IOException {
+    directory = new File(folder.getRoot(), "journal");
+    bus = newBus(1024);
+  }
+
+  @After public void tearDown() throws IOException {
+    bus.close();
+  }
+
+  @Test public void journalsEventsBeforeDeliveringThem() throws IOException {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+
+    bus.post("Hello");
+    bus.post(1);
+    bus.postAll("Goodbye", "Again");
+    bus.channel(String.class).post("Channel");
+
+    assertEquals(Arrays.asList("Hello", "Goodbye", "Again", "Channel"), catcher.getEvents());
+    assertEquals(Arrays.asList("0 java.lang.String Hello", "1 java.lang.String Goodbye",
+        "2 java.lang.String Again", "3 java.lang.String Channel"), readJournal());
+  }
+
+  @Test public void batchesAreJournaledInDeliveryOrder() throws IOException {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        if (event.equals("First")) {
+          bus.post("Reply");
+        }
+      }
+    });
+    bus.register(catcher);
+
+    bus.postAll("First", "Second");
+
+    assertEquals(Arrays.asList("First", "Reply", "Second"), catcher.getEvents());
+    assertEquals(Arrays.asList("0 java.lang.String First", "1 java.lang.String Reply",
+        "2 java.lang.String Second"), readJournal());
+  }
+
+  @Test public void subclassesUseTheNearestCodec() throws IOException {
+    bus.registerCodec(Number.class, new EventCodec<Number>() {
+      @Override public void encode(Number event, ByteBuffer buffer) {
+        buffer.putLong(event.longValue());
+      }
+
+      @Override public Number decode(ByteBuffer buffer) {
+        return buffer.getLong();
+      }
+    });
+
+    bus.post(7);
+    bus.longChannel().post(8L);
+
+    assertEquals(Arrays.asList("0 java.lang.Number 7", "1 java.lang.Number 8"), readJournal());
+  }
+
+  @Test public void deadEventsAreNotJournaled() throws IOException {
+    final List<Object> dead = new ArrayList<Object>();
+    bus.register(new Object() {
+      @Subscribe public void onDeadEvent(DeadEvent event) {
+        dead.add(event.event);
+      }
+    });
+
+    bus.post("Nobody listens");
+
+    assertEquals(Arrays.<Object>asList("Nobody listens"), dead);
+    assertEquals(Arrays.asList("0 java.lang.String Nobody listens"), readJournal());
+  }
+
+  @Test public void fullSegmentsRollOver() throws IOException {
+    for (int i = 0; i < 100; i++) {
+      bus.post("Event " + i);
+    }
+
+    assertTrue(Journal.segments(directory).length > 1);
+    List<String> records = readJournal();
+    assertEquals(100, records.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i + " java.lang.String Event " + i, records.get(i));
+    }
+  }
+
+  @Test public void reopeningContinuesTheSequence() throws IOException {
+    bus.post("First");
+    bus.post("Second");
+    bus.close();
+
+    bus = newBus(1024);
+    bus.post("Third");
+
+    assertEquals(2, Journal.segments(directory).length);
+    assertEquals(Arrays.asList("0 java.lang.String First", "1 java.lang.String Second", "2 java.lang.String Third"),
+        readJournal());
+  }
+
+  @Test public void oversizedEventsAreRejected() throws IOException {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      large.append('x');
+    }
+    try {
+      bus.post(large.toString());
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    bus.post("Small");
+
+    assertEquals(Arrays.asList("0 java.lang.String Small"), readJournal());
+  }
+
+  @Test public void postingAfterCloseFails() throws IOException {
+    bus.close();
+    try {
+      bus.post("Late");
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void timedForcePolicyJournalsEvents() throws IOException {
+    bus.close();
+    bus = new JournalingBus(ThreadEnforcer.ANY, "timed", directory, 1024,
+        ForcePolicy.every(1, TimeUnit.MILLISECONDS));
+    bus.registerCodec(String.class, new StringCodec());
+
+    bus.post("Forced");
+
+    assertEquals(Arrays.asList("0 java.lang.String Forced"), readJournal());
+  }
+
+  @Test public void completedSegmentsAreForcedUnlessThePolicyIsNone() throws IOException {
+    assertFalse(ForcePolicy.NONE.forcesCompletedSegments());
+    assertTrue(ForcePolicy.everyEvents(1000).forcesCompletedSegments());
+    assertTrue(ForcePolicy.every(1, TimeUnit.HOURS).forcesCompletedSegments());
+
+    bus.close();
+    bus = new JournalingBus(ThreadEnforcer.ANY, "unforced", directory, 100, ForcePolicy.NONE);
+    bus.registerCodec(String.class, new StringCodec());
+    bus.post("First");
+    bus.post("Second");
+
+    assertEquals(2, Journal.segments(directory).length);
+    assertEquals(Arrays.asList("0 java.lang.String First", "1 java.lang.String Second"), readJournal());
+  }
+
+  @Test public void codecsCannotBeReplaced() {
+    try {
+      bus.registerCodec(String.class, new StringCodec());
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  private JournalingBus newBus(int segmentSize) throws IOException {
+    JournalingBus journalingBus =
+        new JournalingBus(ThreadEnforcer.ANY, "test", directory, segmentSize, ForcePolicy.everyEvents(2));
+    journalingBus.registerCodec(String.class, new StringCodec());
+    return journalingBus;
+  }
+
+  /** Returns "sequence type event" for every journaled event, decoding strings and numbers. */
+  private List<String> readJournal() throws IOException {
+    List<String> records = new ArrayList<String>();
+    for (File segment : Journal.segments(directory)) {
+      Journal.SegmentReader reader = new Journal.SegmentReader(segment);
+      while (reader.next()) {
+        Object event = reader.typeName.equals(String.class.getName())
+            ? new StringCodec().decode(reader.payload) : reader.payload.getLong();
+        records.add(reader.sequence + " " + reader.typeName + " " + event);
+      }
+    }
+    return records;
+  }
+
+  static class StringCodec implements EventCodec<String> {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override public void encode(String event, ByteBuffer buffer) {
+      buffer.put(event.getBytes(UTF_8));
+    }
+
+    @Override public String decode(ByteBuffer buffer) {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      return new String(bytes, UTF_8);
+    }
+  }
+}
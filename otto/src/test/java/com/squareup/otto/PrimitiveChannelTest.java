@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2007 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class PrimitiveChannelTest {
+
+  private final Bus bus = new Bus(ThreadEnforcer.ANY);
+
+  @Test public void primitiveHandlersReceiveChannelValues() {
+    PrimitiveCatcher catcher = new PrimitiveCatcher();
+    bus.register(catcher);
+
+    bus.intChannel().post(1);
+    bus.longChannel().post(2L);
+    bus.doubleChannel().post(3.5);
+
+    assertEquals(Arrays.<Object>asList(1, 2L, 3.5), catcher.values);
+  }
+
+  @Test public void boxedPostsReachPrimitiveHandlers() {
+    PrimitiveCatcher catcher = new PrimitiveCatcher();
+    bus.register(catcher);
+
+    bus.post(1);
+    bus.post(2L);
+    bus.post(3.5);
+
+    assertEquals(Arrays.<Object>asList(1, 2L, 3.5), catcher.values);
+  }
+
+  @Test public void wrapperHandlersReceiveBoxedValues() {
+    final List<Object> received = new ArrayList<Object>();
+    bus.register(new Object() {
+      @Subscribe public void onLong(Long value) {
+        received.add(value);
+      }
+
+      @Subscribe public void onNumber(Number value) {
+        received.add(value);
+      }
+    });
+
+    bus.longChannel().post(7L);
+
+    assertEquals(Arrays.<Object>asList(7L, 7L), received);
+  }
+
+  @Test public void channelSeesListenersRegisteredAfterCreation() {
+    LongChannel channel = bus.longChannel();
+    channel.post(1L);
+
+    PrimitiveCatcher catcher = new PrimitiveCatcher();
+    Registration registration = bus.register(catcher);
+    channel.post(2L);
+    registration.cancel();
+    channel.post(3L);
+
+    assertEquals(Arrays.<Object>asList(2L), catcher.values);
+  }
+
+  @Test public void valuesPostedByHandlersAreDeliveredAfterTheCurrentOne() {
+    final LongChannel channel = bus.longChannel();
+    final List<String> received = new ArrayList<String>();
+    bus.register(new PrimitiveChainer(channel, received));
+    bus.register(new Object() {
+      @Subscribe public void onLong(Long value) {
+        received.add("boxed " + value);
+      }
+    });
+
+    channel.post(1L);
+
+    assertEquals(Arrays.asList("long 1", "boxed 1", "long 2", "boxed 2"), received);
+  }
+
+  @Test public void unhandledValuesAreWrappedInDeadEvents() {
+    final List<Object> dead = new ArrayList<Object>();
+    bus.register(new Object() {
+      @Subscribe public void onDeadEvent(DeadEvent event) {
+        dead.add(event.event);
+      }
+    });
+
+    bus.intChannel().post(5);
+
+    assertEquals(Arrays.<Object>asList(5), dead);
+  }
+
+  @Test public void asyncBusDeliversChannelValuesOnItsExecutor() {
+    AsyncBusTest.QueueExecutor executor = new AsyncBusTest.QueueExecutor();
+    AsyncBus asyncBus = new AsyncBus(executor);
+    PrimitiveCatcher catcher = new PrimitiveCatcher();
+    asyncBus.register(catcher);
+
+    asyncBus.longChannel().post(4L);
+    assertTrue(catcher.values.isEmpty());
+
+    executor.runAll();
+    assertEquals(Arrays.<Object>asList(4L), catcher.values);
+  }
+
+  @Test public void handlerExceptionsAreWrapped() {
+    bus.register(new Object() {
+      @Subscribe public void onDouble(double value) {
+        throw new IllegalStateException("boom");
+      }
+    });
+
+    try {
+      bus.doubleChannel().post(1.0);
+      fail();
+    } catch (RuntimeException expected) {
+      assertTrue(expected.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test public void otherPrimitiveSubscribersAreRejected() {
+    try {
+      bus.register(new Object() {
+        @Subscribe public void onByte(byte value) {
+        }
+      });
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void onlyOverridingDispatchTurnsOffInlineDispatch() {
+    Bus overloading = new Bus(ThreadEnforcer.ANY) {
+      @SuppressWarnings("unused") void dispatch(String event) {
+      }
+    };
+    Bus overriding = new Bus(ThreadEnforcer.ANY) {
+      @Override protected void dispatch(Object event, EventHandler wrapper) {
+        super.dispatch(event, wrapper);
+      }
+    };
+
+    assertNotNull(overloading.startInlineDispatch());
+    assertNull(overriding.startInlineDispatch());
+  }
+
+  public static class PrimitiveCatcher {
+    final List<Object> values = new ArrayList<Object>();
+
+    @Subscribe public void onInt(int value) {
+      values.add(value);
+    }
+
+    @Subscribe public void onLong(long value) {
+      values.add(value);
+    }
+
+    @Subscribe public void onDouble(double value) {
+      values.add(value);
+    }
+  }
+
+  public static class PrimitiveChainer {
+    private final LongChannel channel;
+    private final List<String> received;
+
+    PrimitiveChainer(LongChannel channel, List<String> received) {
+      this.channel = channel;
+      this.received = received;
+    }
+
+    @Subscribe public void onLong(long value) {
+      received.add("long " + value);
+      if (value == 1L) {
+        channel.post(2L);
+      }
+    }
+  }
+}
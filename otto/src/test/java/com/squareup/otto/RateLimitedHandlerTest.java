@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class RateLimitedHandlerTest {
+
+  private final Bus bus = new Bus(ThreadEnforcer.ANY, "limited");
+
+  @Test public void throttledHandlerReceivesFirstEventOfEachWindow() throws InterruptedException {
+    ThrottledListener listener = new ThrottledListener();
+    bus.register(listener);
+
+    bus.post(1);
+    bus.post(2);
+    bus.post(3);
+    assertEquals(Arrays.asList(1), listener.received);
+
+    Thread.sleep(300);
+    bus.post(4);
+    bus.post(5);
+    assertEquals(Arrays.asList(1, 4), listener.received);
+  }
+
+  @Test public void droppedEventIsReportedAsNotDelivered() throws Exception {
+    ThrottledListener listener = new ThrottledListener();
+    bus.register(listener);
+
+    assertTrue(bus.postAsync(1).get().wasCalled(0));
+    DeliveryReport report = bus.postAsync(2).get(0, TimeUnit.SECONDS);
+    assertFalse(report.wasCalled(0));
+    assertEquals(Arrays.asList(1), listener.received);
+  }
+
+  @Test public void debouncedHandlerReceivesNewestEventAfterQuietTime() throws InterruptedException {
+    DebouncedListener listener = new DebouncedListener(1);
+    bus.register(listener);
+
+    bus.post("first");
+    Thread.sleep(50);
+    bus.post("second");
+    Thread.sleep(50);
+    long last = System.nanoTime();
+    bus.post("third");
+    assertTrue(listener.received.isEmpty());
+
+    assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+    assertTrue(listener.times.get(0) - last >= TimeUnit.MILLISECONDS.toNanos(200));
+    assertEquals(Arrays.asList("third"), listener.received);
+    assertEquals("Otto limited timer", listener.threads.get(0).getName());
+  }
+
+  @Test public void debouncedHandlerReceivesEventOfEachBurst() throws InterruptedException {
+    DebouncedListener listener = new DebouncedListener(2);
+    bus.register(listener);
+
+    bus.post("a");
+    bus.post("b");
+    Thread.sleep(400);
+    bus.post("c");
+
+    assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("b", "c"), listener.received);
+  }
+
+  @Test public void debouncedEventIsDeliveredOnHandlersExecutor() throws InterruptedException {
+    AsyncBusTest.QueueExecutor io = new AsyncBusTest.QueueExecutor();
+    bus.registerExecutor("io", io);
+    final CountDownLatch released = new CountDownLatch(1);
+    final List<String> received = new CopyOnWriteArrayList<String>();
+    bus.register(new Object() {
+      @Subscribe(delivery = DeliveryMode.EXECUTOR, executor = "io", debounceMillis = 20)
+      public void onString(String event) {
+        received.add(event);
+      }
+    });
+    bus.register(new Object() {
+      @Subscribe public void onRelease(Integer event) {
+        released.countDown();
+      }
+    });
+
+    bus.post("Hello");
+    // Posted after the debounced event, so due after it on the same timer thread.
+    bus.postDelayed(0, 40, TimeUnit.MILLISECONDS);
+    assertTrue(released.await(10, TimeUnit.SECONDS));
+    assertTrue(received.isEmpty());
+
+    io.runAll();
+    assertEquals(Arrays.asList("Hello"), received);
+  }
+
+  @Test public void timedDeliveryOfAConfinedBusRunsOnItsTimerExecutor() throws Exception {
+    ExecutorService main = Executors.newSingleThreadExecutor();
+    ConfiningEnforcer enforcer = new ConfiningEnforcer(main);
+    final Bus confined = new Bus(enforcer, "confined");
+    confined.registerExecutor(Bus.TIMER_EXECUTOR, main);
+    final DebouncedListener listener = new DebouncedListener(2);
+    main.submit(new Callable<Void>() {
+      @Override public Void call() {
+        confined.register(listener);
+        confined.post("Debounced");
+        confined.postDelayed("Delayed", 600, TimeUnit.MILLISECONDS);
+        return null;
+      }
+    }).get();
+
+    assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("Debounced", "Delayed"), listener.received);
+    assertSame(enforcer.thread, listener.threads.get(0));
+    assertSame(enforcer.thread, listener.threads.get(1));
+    main.shutdown();
+  }
+
+  @Test public void debouncedEventIsNotDeliveredOffTheThreadOfAConfinedBus() throws Exception {
+    ExecutorService main = Executors.newSingleThreadExecutor();
+    final Bus confined = new Bus(new ConfiningEnforcer(main), "confined");
+    final DebouncedListener listener = new DebouncedListener(1);
+    final CountDownLatch rejected = new CountDownLatch(1);
+    Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+    Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+      @Override public void uncaughtException(Thread thread, Throwable e) {
+        if (e instanceof IllegalStateException) {
+          rejected.countDown();
+        }
+      }
+    });
+    try {
+      main.submit(new Callable<Void>() {
+        @Override public Void call() {
+          confined.register(listener);
+          confined.post("Debounced");
+          return null;
+        }
+      }).get();
+
+      assertTrue(rejected.await(10, TimeUnit.SECONDS));
+      assertTrue(listener.received.isEmpty());
+    } finally {
+      Thread.setDefaultUncaughtExceptionHandler(previous);
+      main.shutdown();
+    }
+  }
+
+  @Test public void combinedPoliciesAreRejected() {
+    try {
+      bus.register(new Object() {
+        @Subscribe(debounceMillis = 10, throttleMillis = 10) public void onString(String event) {
+        }
+      });
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      bus.register(new Object() {
+        @Subscribe(throttleMillis = -1) public void onString(String event) {
+        }
+      });
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  /** Accepts only the thread of a single-threaded executor, as {@link ThreadEnforcer#MAIN} accepts the main thread. */
+  static class ConfiningEnforcer implements ThreadEnforcer {
+    final Thread thread;
+
+    ConfiningEnforcer(ExecutorService executor) throws Exception {
+      thread = executor.submit(new Callable<Thread>() {
+        @Override public Thread call() {
+          return Thread.currentThread();
+        }
+      }).get();
+    }
+
+    @Override public void enforce(Bus bus) {
+      if (Thread.currentThread() != thread) {
+        throw new IllegalStateException("Event bus " + bus + " accessed from thread " + Thread.currentThread());
+      }
+    }
+  }
+
+  public static class ThrottledListener {
+    final List<Integer> received = new CopyOnWriteArrayList<Integer>();
+
+    @Subscribe(throttleMillis = 200) public void onInteger(Integer event) {
+      received.add(event);
+    }
+  }
+
+  public static class DebouncedListener {
+    final List<String> received = new CopyOnWriteArrayList<String>();
+    final List<Long> times = new CopyOnWriteArrayList<Long>();
+    final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+    final CountDownLatch done;
+
+    DebouncedListener(int expected) {
+      done = new CountDownLatch(expected);
+    }
+
+    @Subscribe(debounceMillis = 200) public void onString(String event) {
+      times.add(System.nanoTime());
+      threads.add(Thread.currentThread());
+      received.add(event);
+      done.countDown();
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+public class RegistrationTest {
+
+  private final Bus bus = new Bus(ThreadEnforcer.ANY);
+
+  @Test public void cancelRemovesHandlersAndProducers() {
+    StringCatcher catcher = new StringCatcher();
+    Registration catcherRegistration = bus.register(catcher);
+    Registration producerRegistration = bus.register(new StringProducer());
+
+    catcherRegistration.cancel();
+    producerRegistration.cancel();
+    bus.post("Hello");
+
+    assertEquals(Arrays.asList(StringProducer.VALUE), catcher.getEvents());
+    assertEquals(0, bus.getHandlersForEventType(String.class).size());
+    assertNull(bus.getProducerForEventType(String.class));
+  }
+
+  @Test public void cancelTwiceHasNoEffect() {
+    StringCatcher catcher = new StringCatcher();
+    Registration registration = bus.register(catcher);
+
+    registration.cancel();
+    registration.cancel();
+    bus.post("Hello");
+
+    assertEquals(Collections.<String>emptyList(), catcher.getEvents());
+  }
+
+  @Test public void staleRegistrationLeavesLaterRegistrationAlone() {
+    StringCatcher catcher = new StringCatcher();
+    StringProducer producer = new StringProducer();
+    Registration stale = bus.register(catcher);
+    Registration staleProducer = bus.register(producer);
+    bus.unregister(catcher);
+    bus.unregister(producer);
+    bus.register(producer);
+    bus.register(catcher);
+
+    stale.cancel();
+    staleProducer.cancel();
+    bus.post("Hello");
+
+    assertEquals(Arrays.asList(StringProducer.VALUE, StringProducer.VALUE, "Hello"), catcher.getEvents());
+    assertEquals(1, bus.getHandlersForEventType(String.class).size());
+    assertNotNull(bus.getProducerForEventType(String.class));
+  }
+
+  @Test public void unregisterAfterCancelFails() {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher).cancel();
+    try {
+      bus.unregister(catcher);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void cancelledAsyncHandlerSkipsQueuedEvents() {
+    AsyncBusTest.QueueExecutor executor = new AsyncBusTest.QueueExecutor();
+    AsyncBus asyncBus = new AsyncBus(executor);
+    StringCatcher catcher = new StringCatcher();
+    Registration registration = asyncBus.register(catcher);
+
+    asyncBus.post("Hello");
+    registration.cancel();
+    executor.runAll();
+
+    assertEquals(Collections.<String>emptyList(), catcher.getEvents());
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class RingBufferBusTest {
+
+  private static final int PRODUCERS = 4;
+  private static final int EVENTS_PER_PRODUCER = 10000;
+
+  @Test public void singleConsumerKeepsEachProducersOrder() throws InterruptedException {
+    RingBufferBus bus = new RingBufferBus(16, 1, WaitStrategy.YIELD);
+    OrderCatcher catcher = new OrderCatcher(PRODUCERS * EVENTS_PER_PRODUCER);
+    bus.register(catcher);
+
+    postFromThreads(bus);
+
+    assertTrue(catcher.done.await(10, TimeUnit.SECONDS));
+    assertEquals(0, catcher.outOfOrder.get());
+    bus.shutdown();
+  }
+
+  @Test public void everyEventIsDeliveredOnceWithSeveralConsumers() throws InterruptedException {
+    for (WaitStrategy strategy : new WaitStrategy[] { WaitStrategy.BUSY_SPIN, WaitStrategy.YIELD, WaitStrategy.PARK }) {
+      RingBufferBus bus = new RingBufferBus(64, 3, strategy);
+      CountingCatcher catcher = new CountingCatcher(PRODUCERS * EVENTS_PER_PRODUCER);
+      bus.register(catcher);
+
+      postFromThreads(bus);
+
+      assertTrue(catcher.done.await(10, TimeUnit.SECONDS));
+      assertEquals(PRODUCERS * EVENTS_PER_PRODUCER, catcher.count.get());
+      bus.shutdown();
+    }
+  }
+
+  @Test public void postAllPublishesBatchesLargerThanTheRing() throws InterruptedException {
+    RingBufferBus bus = new RingBufferBus(16, 1, WaitStrategy.YIELD);
+    OrderCatcher catcher = new OrderCatcher(EVENTS_PER_PRODUCER);
+    bus.register(catcher);
+
+    Object[] events = new Object[EVENTS_PER_PRODUCER];
+    for (int i = 0; i < events.length; i++) {
+      events[i] = new Sequenced(0, i);
+    }
+    bus.postAll(events);
+
+    assertTrue(catcher.done.await(10, TimeUnit.SECONDS));
+    assertEquals(0, catcher.outOfOrder.get());
+    bus.shutdown();
+  }
+
+  @Test public void unhandledEventsAreDeliveredAsDeadEvents() throws InterruptedException {
+    RingBufferBus bus = new RingBufferBus(16, 1, WaitStrategy.PARK);
+    final CountDownLatch dead = new CountDownLatch(1);
+    bus.register(new Object() {
+      @Subscribe public void onDeadEvent(DeadEvent event) {
+        if ("Hello".equals(event.event)) {
+          dead.countDown();
+        }
+      }
+    });
+
+    bus.post("Hello");
+    assertTrue(dead.await(10, TimeUnit.SECONDS));
+    bus.shutdown();
+  }
+
+  @Test public void handlersRunWhereTheirDeliveryModeSays() throws InterruptedException {
+    RingBufferBus bus = new RingBufferBus(16, 1, WaitStrategy.YIELD);
+    DeliveryModeTest.BackgroundListener listener = new DeliveryModeTest.BackgroundListener(1);
+    bus.register(listener);
+
+    bus.post(1);
+
+    assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+    assertTrue(listener.threads.get(0).getName().endsWith(" background"));
+    bus.shutdown();
+  }
+
+  @Test public void conflatingHandlerOnAnExecutorOnlySeesTheNewestEvent() throws InterruptedException {
+    RingBufferBus bus = new RingBufferBus(16, 1, WaitStrategy.YIELD);
+    AsyncBusTest.QueueExecutor io = new AsyncBusTest.QueueExecutor();
+    bus.registerExecutor("io", io);
+    final List<Integer> newest = new ArrayList<Integer>();
+    bus.register(new Object() {
+      @Subscribe(delivery = DeliveryMode.EXECUTOR, executor = "io", conflate = true)
+      public void onInteger(Integer event) {
+        newest.add(event);
+      }
+    });
+    final CountDownLatch consumed = new CountDownLatch(1);
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        consumed.countDown();
+      }
+    });
+
+    bus.postAll(1, 2, 3, "Done");
+    assertTrue(consumed.await(10, TimeUnit.SECONDS));
+    bus.shutdown();
+
+    io.runAll();
+    assertEquals(Arrays.asList(3), newest);
+  }
+
+  @Test public void postAfterShutdownFails() {
+    RingBufferBus bus = new RingBufferBus(16, 1, WaitStrategy.PARK);
+    bus.shutdown();
+    try {
+      bus.post("Hello");
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void bufferSizeMustBePowerOfTwo() {
+    try {
+      new RingBufferBus(12, 1, WaitStrategy.PARK);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  /** Posts {@link Sequenced} events from several threads at once and waits for them to finish posting. */
+  private static void postFromThreads(final Bus bus) throws InterruptedException {
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int p = 0; p < PRODUCERS; p++) {
+      final int producer = p;
+      threads.add(new Thread(new Runnable() {
+        @Override public void run() {
+          for (int i = 0; i < EVENTS_PER_PRODUCER; i++) {
+            bus.post(new Sequenced(producer, i));
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  static class Sequenced {
+    final int producer;
+    final int index;
+
+    Sequenced(int producer, int index) {
+      this.producer = producer;
+      this.index = index;
+    }
+  }
+
+  public static class OrderCatcher {
+    final int[] nextIndex = new int[PRODUCERS];
+    final AtomicInteger outOfOrder = new AtomicInteger();
+    final CountDownLatch done;
+
+    OrderCatcher(int expected) {
+      done = new CountDownLatch(expected);
+    }
+
+    @Subscribe public void onEvent(Sequenced event) {
+      if (nextIndex[event.producer]++ != event.index) {
+        outOfOrder.incrementAndGet();
+      }
+      done.countDown();
+    }
+  }
+
+  public static class CountingCatcher {
+    final AtomicInteger count = new AtomicInteger();
+    final CountDownLatch done;
+
+    CountingCatcher(int expected) {
+      done = new CountDownLatch(expected);
+    }
+
+    @Subscribe public void onEvent(Sequenced event) {
+      count.incrementAndGet();
+      done.countDown();
+    }
+  }
+}
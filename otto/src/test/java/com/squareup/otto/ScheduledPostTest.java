@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class ScheduledPostTest {
+
+  private final Bus bus = new Bus(ThreadEnforcer.ANY, "scheduled");
+
+  @Test public void delayedEventIsPostedFromTimerThreadAfterDelay() throws InterruptedException {
+    Receiver receiver = new Receiver(1);
+    bus.register(receiver);
+
+    long start = System.nanoTime();
+    ScheduledPost post = bus.postDelayed("Hello", 50, TimeUnit.MILLISECONDS);
+    assertFalse(post.isDone());
+
+    assertTrue(receiver.done.await(10, TimeUnit.SECONDS));
+    assertTrue(receiver.times.get(0) - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertEquals(Arrays.asList("Hello"), receiver.events);
+    assertEquals("Otto scheduled timer", receiver.threads.get(0).getName());
+    assertTrue(post.isDone());
+    assertFalse(post.isCancelled());
+    assertFalse(post.cancel());
+  }
+
+  @Test public void cancelledEventIsNotPosted() throws InterruptedException {
+    Receiver receiver = new Receiver(1);
+    bus.register(receiver);
+
+    ScheduledPost post = bus.postDelayed("Cancelled", 20, TimeUnit.MILLISECONDS);
+    assertTrue(post.cancel());
+    assertFalse(post.cancel());
+    assertTrue(post.isCancelled());
+    assertTrue(post.isDone());
+
+    bus.postDelayed("Kept", 60, TimeUnit.MILLISECONDS);
+    assertTrue(receiver.done.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("Kept"), receiver.events);
+  }
+
+  @Test public void eventsArePostedInDeadlineOrder() throws InterruptedException {
+    Receiver receiver = new Receiver(4);
+    bus.register(receiver);
+
+    bus.postDelayed("40", 40, TimeUnit.MILLISECONDS);
+    bus.postDelayed("10", 10, TimeUnit.MILLISECONDS);
+    bus.postDelayed("30", 30, TimeUnit.MILLISECONDS);
+    bus.postDelayed("20", 20, TimeUnit.MILLISECONDS);
+
+    assertTrue(receiver.done.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("10", "20", "30", "40"), receiver.events);
+  }
+
+  @Test public void fixedRateEventIsPostedUntilCancelled() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(5);
+    final List<ScheduledPost> posts = new CopyOnWriteArrayList<ScheduledPost>();
+    final List<String> events = new CopyOnWriteArrayList<String>();
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        events.add(event);
+        done.countDown();
+        if (done.getCount() == 0) {
+          assertTrue(posts.get(0).cancel());
+        }
+      }
+    });
+
+    posts.add(bus.postAtFixedRate("Tick", 0, 5, TimeUnit.MILLISECONDS));
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    Thread.sleep(50);
+    assertEquals(5, events.size());
+    assertTrue(posts.get(0).isCancelled());
+  }
+
+  @Test public void nonPositivePeriodIsRejected() {
+    try {
+      bus.postAtFixedRate("Tick", 0, 0, TimeUnit.MILLISECONDS);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void wheelReleasesPostsAtTheirDeadlineOnEveryLevel() {
+    TimingWheel wheel = new TimingWheel();
+    long start = 12345;
+    wheel.skipTo(start);
+    long[] delays = {
+        0, 1, 255, 256, 257, 16383, 16384, 16385, (1 << 20) - 1, 1 << 20, (1 << 20) + 1,
+        TimingWheel.SPAN - 1, TimingWheel.SPAN, TimingWheel.SPAN + 300
+    };
+    for (long delay : delays) {
+      wheel.schedule(new ScheduledPost(null, delay, start + delay, 0));
+    }
+    ScheduledPost cancelled = new ScheduledPost(null, -1L, start + 300, 0);
+    wheel.schedule(cancelled);
+    wheel.unlink(cancelled);
+    assertEquals(delays.length, wheel.size());
+
+    List<Long> released = new ArrayList<Long>();
+    while (wheel.size() != 0) {
+      long tick = wheel.nextTick();
+      for (ScheduledPost post = wheel.advance(); post != null; post = post.next) {
+        assertEquals(post.deadline, tick);
+        released.add((Long) post.event);
+      }
+    }
+    List<Long> expected = new ArrayList<Long>();
+    for (long delay : delays) {
+      expected.add(delay);
+    }
+    assertEquals(expected, released);
+  }
+
+  @Test public void unlinkingPostKeepsItsSlotNeighbours() {
+    TimingWheel wheel = new TimingWheel();
+    ScheduledPost first = new ScheduledPost(null, "first", 3, 0);
+    ScheduledPost middle = new ScheduledPost(null, "middle", 3, 0);
+    ScheduledPost last = new ScheduledPost(null, "last", 3, 0);
+    wheel.schedule(first);
+    wheel.schedule(middle);
+    wheel.schedule(last);
+    wheel.unlink(middle);
+    wheel.unlink(middle);
+    assertEquals(2, wheel.size());
+
+    assertNull(wheel.advance());
+    assertNull(wheel.advance());
+    assertNull(wheel.advance());
+    ScheduledPost due = wheel.advance();
+    assertSame(last, due);
+    assertSame(first, due.next);
+    assertNull(due.next.next);
+    assertEquals(0, wheel.size());
+  }
+
+  public static class Receiver {
+    final List<String> events = new CopyOnWriteArrayList<String>();
+    final List<Long> times = new CopyOnWriteArrayList<Long>();
+    final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+    final CountDownLatch done;
+
+    Receiver(int expected) {
+      done = new CountDownLatch(expected);
+    }
+
+    @Subscribe public void onString(String event) {
+      times.add(System.nanoTime());
+      threads.add(Thread.currentThread());
+      events.add(event);
+      done.countDown();
+    }
+  }
+}
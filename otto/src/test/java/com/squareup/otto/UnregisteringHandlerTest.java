@@ -87,31 +87,33 @@ public class UnregisteringHandlerTest {
     });
   }
 
-  /** Delegates to {@code HandlerFinder.ANNOTATED}, then sorts results by {@code EventHandler#toString} */
+  /** Delegates to {@code HandlerFinder.ANNOTATED}, then sorts subscribers by {@code EventHandler#toString} */
   static class SortedHandlerFinder implements HandlerFinder {
 
-    static Comparator<EventHandler> handlerComparator = new Comparator<EventHandler>() {
+    static Comparator<SubscriberMethod> subscriberComparator = new Comparator<SubscriberMethod>() {
       @Override
-      public int compare(EventHandler eventHandler, EventHandler eventHandler1) {
-        return eventHandler.toString().compareTo(eventHandler1.toString());
+      public int compare(SubscriberMethod subscriber, SubscriberMethod subscriber1) {
+        return subscriber.invoker.toString().compareTo(subscriber1.invoker.toString());
       }
     };
 
     @Override
-    public Map<Class<?>, EventProducer> findAllProducers(Object listener) {
-      return HandlerFinder.ANNOTATED.findAllProducers(listener);
-    }
-
-    @Override
-    public Map<Class<?>, Set<EventHandler>> findAllSubscribers(Object listener) {
-      Map<Class<?>, Set<EventHandler>> found = HandlerFinder.ANNOTATED.findAllSubscribers(listener);
-      Map<Class<?>, Set<EventHandler>> sorted = new HashMap<Class<?>, Set<EventHandler>>();
-      for (Map.Entry<Class<?>, Set<EventHandler>> entry : found.entrySet()) {
-        SortedSet<EventHandler> handlers = new TreeSet<EventHandler>(handlerComparator);
-        handlers.addAll(entry.getValue());
-        sorted.put(entry.getKey(), handlers);
+    public ListenerTemplate findTemplate(Class<?> listenerClass) {
+      ListenerTemplate found = HandlerFinder.ANNOTATED.findTemplate(listenerClass);
+      Map<SubscriberMethod, Class<?>> types = new HashMap<SubscriberMethod, Class<?>>();
+      for (int t = 0; t < found.types.length; t++) {
+        for (int i = found.typeStarts[t]; i < found.typeStarts[t + 1]; i++) {
+          types.put(found.subscribers[i], found.types[t]);
+        }
+      }
+      List<SubscriberMethod> sorted = new ArrayList<SubscriberMethod>(types.keySet());
+      Collections.sort(sorted, subscriberComparator);
+      List<Class<?>> sortedTypes = new ArrayList<Class<?>>();
+      for (SubscriberMethod subscriber : sorted) {
+        sortedTypes.add(types.get(subscriber));
       }
-      return sorted;
+      return new ListenerTemplate(sortedTypes, sorted, Arrays.asList(found.producedTypes),
+          Arrays.asList(found.producers));
     }
   }
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class VirtualThreadBusTest {
+
+  @Test public void listenerSeesEventsOfAllTypesInPostOrder() throws InterruptedException {
+    final int rounds = 500;
+    VirtualThreadBus bus = new VirtualThreadBus(4);
+    MixedCatcher catcher = new MixedCatcher(2 * rounds);
+    bus.register(catcher);
+
+    List<Object> expected = new ArrayList<Object>();
+    for (int i = 0; i < rounds; i++) {
+      String text = "event " + i;
+      bus.post(text);
+      bus.post(i);
+      expected.add(text);
+      expected.add(i);
+    }
+
+    assertTrue(catcher.done.await(10, TimeUnit.SECONDS));
+    assertEquals(expected, catcher.received);
+  }
+
+  @Test public void concurrencyIsCapped() throws InterruptedException {
+    final int listeners = 6;
+    VirtualThreadBus bus = new VirtualThreadBus(2);
+    CountDownLatch started = new CountDownLatch(2);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(listeners);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    for (int i = 0; i < listeners; i++) {
+      bus.register(new BlockingCatcher(started, release, done, running, maxRunning));
+    }
+
+    bus.post("Hello");
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    Thread.sleep(50);
+    release.countDown();
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(2, maxRunning.get());
+  }
+
+  @Test public void threadsAreOnlyStartedForListenersWithPermits() {
+    final int listeners = 6;
+    CountingExecutor threads = new CountingExecutor();
+    VirtualThreadBus bus = new VirtualThreadBus(ThreadEnforcer.ANY, "test", HandlerFinder.ANNOTATED, threads, 2);
+    List<StringCatcher> catchers = new ArrayList<StringCatcher>();
+    for (int i = 0; i < listeners; i++) {
+      StringCatcher catcher = new StringCatcher();
+      catchers.add(catcher);
+      bus.register(catcher);
+    }
+
+    bus.post("Hello");
+    assertEquals(2, threads.started);
+
+    threads.runAll();
+    assertEquals(listeners, threads.started);
+    for (StringCatcher catcher : catchers) {
+      assertEquals(Arrays.asList("Hello"), catcher.getEvents());
+    }
+  }
+
+  @Test public void eventsPostedBeforeUnregisterAreDropped() {
+    AsyncBusTest.QueueExecutor threads = new AsyncBusTest.QueueExecutor();
+    VirtualThreadBus bus = new VirtualThreadBus(ThreadEnforcer.ANY, "test", HandlerFinder.ANNOTATED, threads, 1);
+    StringCatcher dropped = new StringCatcher();
+    StringCatcher kept = new StringCatcher();
+    bus.register(dropped);
+    bus.register(kept);
+
+    bus.post("Hello");
+    bus.unregister(dropped);
+    threads.runAll();
+
+    assertTrue(dropped.getEvents().isEmpty());
+    assertEquals(Arrays.asList("Hello"), kept.getEvents());
+  }
+
+  @Test public void reregisteredListenerIsNotCalledConcurrently() throws InterruptedException {
+    VirtualThreadBus bus = new VirtualThreadBus(4);
+    SlowCatcher catcher = new SlowCatcher();
+    bus.register(catcher);
+
+    bus.post("First");
+    assertTrue(catcher.started.await(10, TimeUnit.SECONDS));
+    bus.unregister(catcher);
+    bus.register(catcher);
+    bus.post("Second");
+    Thread.sleep(50);
+    catcher.release.countDown();
+
+    assertTrue(catcher.done.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("First", "Second"), catcher.received);
+    assertEquals(1, catcher.maxRunning.get());
+  }
+
+  static class CountingExecutor extends AsyncBusTest.QueueExecutor {
+    int started;
+
+    @Override public void execute(Runnable task) {
+      started++;
+      super.execute(task);
+    }
+  }
+
+  public static class MixedCatcher {
+    final List<Object> received = new ArrayList<Object>();
+    final CountDownLatch done;
+
+    MixedCatcher(int expected) {
+      done = new CountDownLatch(expected);
+    }
+
+    @Subscribe public void onString(String event) {
+      received.add(event);
+      done.countDown();
+    }
+
+    @Subscribe public void onInteger(Integer event) {
+      received.add(event);
+      done.countDown();
+    }
+  }
+
+  public static class BlockingCatcher {
+    private final CountDownLatch started;
+    private final CountDownLatch release;
+    private final CountDownLatch done;
+    private final AtomicInteger running;
+    private final AtomicInteger maxRunning;
+
+    BlockingCatcher(CountDownLatch started, CountDownLatch release, CountDownLatch done, AtomicInteger running,
+        AtomicInteger maxRunning) {
+      this.started = started;
+      this.release = release;
+      this.done = done;
+      this.running = running;
+      this.maxRunning = maxRunning;
+    }
+
+    @Subscribe public void onString(String event) throws InterruptedException {
+      int now = running.incrementAndGet();
+      int max;
+      while ((max = maxRunning.get()) < now && !maxRunning.compareAndSet(max, now)) {
+        // Retry until the maximum is at least now.
+      }
+      started.countDown();
+      release.await();
+      running.decrementAndGet();
+      done.countDown();
+    }
+  }
+
+  public static class SlowCatcher {
+    final List<String> received = new CopyOnWriteArrayList<String>();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(2);
+    final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+
+    @Subscribe public void onString(String event) throws InterruptedException {
+      int now = running.incrementAndGet();
+      if (now > maxRunning.get()) {
+        maxRunning.set(now);
+      }
+      received.add(event);
+      started.countDown();
+      release.await();
+      running.decrementAndGet();
+      done.countDown();
+    }
+  }
+}
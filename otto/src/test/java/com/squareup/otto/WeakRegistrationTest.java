@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class WeakRegistrationTest {
+
+  private final Bus bus = new Bus(ThreadEnforcer.ANY);
+
+  @Test public void reachableListenerReceivesEvents() {
+    StringCatcher catcher = new StringCatcher();
+    bus.registerWeakly(catcher);
+    bus.post("Hello");
+    assertEquals(Arrays.asList("Hello"), catcher.getEvents());
+
+    bus.unregister(catcher);
+    bus.post("Goodbye");
+    assertEquals(Arrays.asList("Hello"), catcher.getEvents());
+  }
+
+  @Test public void weakAndStrongRegistrationsOfOneObjectConflict() {
+    StringCatcher catcher = new StringCatcher();
+    bus.registerWeakly(catcher);
+    try {
+      bus.register(catcher);
+      throw new AssertionError();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void collectedListenersArePurgedOnPost() throws InterruptedException {
+    bus.registerWeakly(new StringCatcher());
+    bus.registerWeakly(new StringProducer());
+
+    awaitReclaimed(1);
+
+    assertEquals(0, bus.getHandlersForEventType(String.class).size());
+    assertNull(bus.getProducerForEventType(String.class));
+    // The type is free for a new producer again.
+    bus.register(new StringProducer());
+  }
+
+  @Test public void purgeIsBounded() throws InterruptedException {
+    int listeners = Bus.PURGE_LIMIT * 2;
+    for (int i = 0; i < listeners; i++) {
+      bus.registerWeakly(new StringCatcher());
+    }
+    collectGarbage();
+
+    bus.post("Hello");
+    assertTrue(bus.getReclaimedHandlerCount() <= Bus.PURGE_LIMIT);
+    awaitReclaimed(listeners);
+  }
+
+  /** Collects garbage and posts until at least {@code count} handlers have been reclaimed. */
+  private void awaitReclaimed(int count) throws InterruptedException {
+    for (int i = 0; i < 100 && bus.getReclaimedHandlerCount() < count; i++) {
+      collectGarbage();
+      bus.post("Hello");
+    }
+    assertEquals(count, bus.getReclaimedHandlerCount());
+  }
+
+  private static void collectGarbage() throws InterruptedException {
+    System.gc();
+    // Give the reference handler thread a chance to enqueue cleared references.
+    Thread.sleep(10);
+  }
+}